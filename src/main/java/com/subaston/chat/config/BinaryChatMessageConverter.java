@@ -0,0 +1,289 @@
+package com.subaston.chat.config;
+
+import com.subaston.chat.model.ChatMessage;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.util.MimeType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codificación binaria compacta de {@link ChatMessage} para los clientes que la piden en
+ * el CONNECT (ver {@link BinaryPayloadInterceptor}); JSON sigue siendo la de por defecto.
+ * Sala y emisor van por una tabla de cadenas del frame, así que en un lote agrupado cada
+ * uno se escribe una vez; ids, secuencias y timestamps (en µs) van como deltas varint
+ * respecto al mensaje anterior, y el tipo como un byte.
+ * <pre>
+ * byte versión | varint nº cadenas | cadena... | varint nº mensajes | mensaje...
+ * mensaje: id | sala | emisor | byte tipo | seq | timestamp | cadena contenido | retractedId
+ * </pre>
+ * Los valores opcionales se escriben más uno (0 es null): índices de la tabla, deltas en
+ * zigzag y longitudes UTF-8. El tipo MIME es {@code application/octet-stream} para que
+ * STOMP los envíe como frames binarios de WebSocket.
+ */
+public class BinaryChatMessageConverter extends AbstractMessageConverter {
+
+    public static final MimeType MIME_TYPE = new MimeType("application", "octet-stream", Map.of("codec", "chat-v1"));
+    static final int VERSION = 1;
+    private static final ChatMessage.MessageType[] TYPES = ChatMessage.MessageType.values();
+    // Lo mínimo que ocupa un mensaje: un byte por campo (id, sala, emisor, tipo, seq, timestamp, contenido, retractedId)
+    private static final int MIN_MESSAGE_BYTES = 8;
+    private static final LocalDateTime EPOCH = LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC);
+
+    public BinaryChatMessageConverter() {
+        super(MIME_TYPE);
+        // Solo con la cabecera content-type del codec: sin ella cualquier List pasaría por aquí
+        setStrictContentTypeMatch(true);
+    }
+
+    public static boolean isBinary(MimeType contentType) {
+        return contentType != null && MIME_TYPE.equalsTypeAndSubtype(contentType)
+                && MIME_TYPE.getParameter("codec").equals(contentType.getParameter("codec"));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return ChatMessage.class == clazz || List.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean supportsMimeType(MessageHeaders headers) {
+        return isBinary(getMimeType(headers));
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        if (!(message.getPayload() instanceof byte[] payload)) {
+            return null;
+        }
+        List<ChatMessage> messages = decode(payload);
+        if (ChatMessage.class == targetClass) {
+            if (messages.size() != 1) {
+                throw new MessageConversionException("Expected a single chat message, got " + messages.size());
+            }
+            return messages.get(0);
+        }
+        return messages;
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        if (payload instanceof ChatMessage message) {
+            return encode(List.of(message));
+        }
+        List<ChatMessage> messages = new ArrayList<>();
+        for (Object item : (Collection<?>) payload) {
+            if (!(item instanceof ChatMessage message)) {
+                return null;
+            }
+            messages.add(message);
+        }
+        return encode(messages);
+    }
+
+    public static byte[] encode(List<ChatMessage> messages) {
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] rooms = new int[messages.size()];
+        int[] senders = new int[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            rooms[i] = intern(messages.get(i).getRoomId(), indexes, strings);
+            senders[i] = intern(messages.get(i).getSenderId(), indexes, strings);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + messages.size() * 48);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            writeVarLong(out, strings.size());
+            for (String value : strings) {
+                writeString(out, value);
+            }
+            writeVarLong(out, messages.size());
+            long previousId = 0;
+            long previousSeq = 0;
+            long previousMicros = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                ChatMessage message = messages.get(i);
+                previousId = writeNullableDelta(out, message.getId(), previousId);
+                writeVarLong(out, rooms[i]);
+                writeVarLong(out, senders[i]);
+                out.writeByte(message.getType() == null ? -1 : message.getType().ordinal());
+                previousSeq = writeNullableDelta(out, message.getSeq(), previousSeq);
+                LocalDateTime timestamp = message.getTimestamp();
+                previousMicros = writeNullableDelta(out,
+                        timestamp == null ? null : ChronoUnit.MICROS.between(EPOCH, timestamp), previousMicros);
+                writeString(out, message.getContent());
+                writeVarLong(out, message.getRetractedId() == null ? 0 : message.getRetractedId() + 1);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<ChatMessage> decode(byte[] payload) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new MessageConversionException("Unsupported chat codec version " + version);
+            }
+            int stringCount = readCount(in, 1);
+            String[] strings = new String[stringCount + 1];
+            for (int i = 1; i <= stringCount; i++) {
+                strings[i] = readString(in);
+            }
+            int count = readCount(in, MIN_MESSAGE_BYTES);
+            List<ChatMessage> messages = new ArrayList<>(count);
+            long previousId = 0;
+            long previousSeq = 0;
+            long previousMicros = 0;
+            for (int i = 0; i < count; i++) {
+                ChatMessage message = new ChatMessage();
+                long encoded = readVarLong(in);
+                if (encoded != 0) {
+                    previousId += unZigZag(encoded - 1);
+                    message.setId(previousId);
+                }
+                message.setRoomId(strings[(int) readVarLong(in)]);
+                message.setSenderId(strings[(int) readVarLong(in)]);
+                byte type = in.readByte();
+                message.setType(type < 0 ? null : TYPES[type]);
+                encoded = readVarLong(in);
+                if (encoded != 0) {
+                    previousSeq += unZigZag(encoded - 1);
+                    message.setSeq(previousSeq);
+                }
+                encoded = readVarLong(in);
+                if (encoded != 0) {
+                    previousMicros += unZigZag(encoded - 1);
+                    message.setTimestamp(EPOCH.plus(previousMicros, ChronoUnit.MICROS));
+                }
+                message.setContent(readString(in));
+                encoded = readVarLong(in);
+                message.setRetractedId(encoded == 0 ? null : encoded - 1);
+                messages.add(message);
+            }
+            return messages;
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new MessageConversionException("Malformed binary chat payload", e);
+        }
+    }
+
+    /**
+     * Sala del primer mensaje sin decodificar el resto, para filtrar un SEND antes del controlador.
+     */
+    public static String readRoomId(byte[] payload) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            if (in.readUnsignedByte() != VERSION) {
+                return null;
+            }
+            int stringCount = readCount(in, 1);
+            String[] strings = new String[stringCount + 1];
+            for (int i = 1; i <= stringCount; i++) {
+                strings[i] = readString(in);
+            }
+            if (readVarLong(in) == 0) {
+                return null;
+            }
+            readVarLong(in);
+            return strings[(int) readVarLong(in)];
+        } catch (IOException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static int intern(String value, Map<String, Integer> indexes, List<String> strings) {
+        return value == null ? 0 : indexes.computeIfAbsent(value, key -> {
+            strings.add(key);
+            return strings.size();
+        });
+    }
+
+    private static long writeNullableDelta(DataOutputStream out, Long value, long previous) throws IOException {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return previous;
+        }
+        writeVarLong(out, zigZag(value - previous) + 1);
+        return value;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        long encoded = readVarLong(in);
+        if (encoded == 0) {
+            return null;
+        }
+        if (encoded < 0 || encoded - 1 > in.available()) {
+            throw new IOException("String length exceeds binary chat payload");
+        }
+        byte[] bytes = new byte[(int) (encoded - 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lee un número de elementos y comprueba que caben en lo que queda del payload antes de
+     * reservar memoria para ellos: un frame de pocos bytes no puede pedir un array enorme.
+     */
+    private static int readCount(DataInputStream in, int minBytesEach) throws IOException {
+        long count = readVarLong(in);
+        if (count < 0 || count > in.available() / minBytesEach) {
+            throw new IOException("Element count exceeds binary chat payload");
+        }
+        return (int) count;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in binary chat payload");
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,134 @@
+package com.subaston.chat.config;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.subaston.chat.model.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Entrega los mensajes de sala en {@link BinaryChatMessageConverter} a las sesiones que lo
+ * piden con la cabecera {@code X-Chat-Codec: chat-v1} en el CONNECT. Solo en el endpoint
+ * nativo: SockJS no transporta frames binarios. Se instala en el canal de salida, donde
+ * cada suscriptor recibe el mismo payload JSON del broadcast; la versión binaria se
+ * calcula una vez por broadcast y se comparte entre las sesiones, de modo que
+ * {@link BroadcastFrameEncoder} también la codifica una sola vez.
+ */
+@Component
+public class BinaryPayloadInterceptor implements ChannelInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryPayloadInterceptor.class);
+
+    static final String CODEC_HEADER = "X-Chat-Codec";
+    private static final String TOPIC_PREFIX = "/topic/";
+    private static final TypeReference<List<ChatMessage>> MESSAGE_LIST = new TypeReference<>() { };
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.stomp.binary.enabled:true}")
+    private boolean enabled = true;
+
+    private final Set<String> binarySessions = ConcurrentHashMap.newKeySet();
+    // weakKeys compara por identidad: el broker entrega el mismo array a todos los suscriptores
+    private final Cache<byte[], byte[]> transcoded = Caffeine.newBuilder()
+            .weakKeys()
+            .maximumSize(1024)
+            .build();
+    private Timer transcodeTimer;
+    private Counter jsonBytes;
+    private Counter binaryBytes;
+
+    @PostConstruct
+    void init() {
+        transcodeTimer = meterRegistry.timer("chat.stomp.binary.transcode");
+        jsonBytes = meterRegistry.counter("chat.stomp.broadcast.payload.bytes", "codec", "json");
+        binaryBytes = meterRegistry.counter("chat.stomp.broadcast.payload.bytes", "codec", "binary");
+        Gauge.builder("chat.stomp.binary.sessions", binarySessions, Set::size).register(meterRegistry);
+    }
+
+    @EventListener
+    public void onConnect(SessionConnectEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        Map<String, Object> attributes = accessor.getSessionAttributes();
+        if (enabled && "chat-v1".equals(accessor.getFirstNativeHeader(CODEC_HEADER))
+                && attributes != null && attributes.containsKey(NativeHandshakeHandler.NATIVE_ATTRIBUTE)) {
+            binarySessions.add(accessor.getSessionId());
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        binarySessions.remove(event.getSessionId());
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (binarySessions.isEmpty() || !(message.getPayload() instanceof byte[] payload) || payload.length == 0) {
+            return message;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        // /topic/{roomId} solo lleva mensajes de chat, uno o en lote; presencia y colas siguen en JSON
+        if (sessionId == null || !binarySessions.contains(sessionId)
+                || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE
+                || destination == null || !destination.startsWith(TOPIC_PREFIX)
+                || destination.indexOf('/', TOPIC_PREFIX.length()) >= 0) {
+            return message;
+        }
+        byte[] binary = transcoded.get(payload, this::transcode);
+        if (binary == null) {
+            return message;
+        }
+        MessageHeaderAccessor accessor = MessageHeaderAccessor.getMutableAccessor(message);
+        accessor.setContentType(BinaryChatMessageConverter.MIME_TYPE);
+        return MessageBuilder.createMessage(binary, accessor.getMessageHeaders());
+    }
+
+    // Devuelve null si el payload no es un mensaje de chat: la sesión lo recibe en JSON
+    private byte[] transcode(byte[] json) {
+        return transcodeTimer.record(() -> {
+            try {
+                List<ChatMessage> messages = json[0] == '['
+                        ? objectMapper.readValue(json, MESSAGE_LIST)
+                        : List.of(objectMapper.readValue(json, ChatMessage.class));
+                byte[] binary = BinaryChatMessageConverter.encode(messages);
+                jsonBytes.increment(json.length);
+                binaryBytes.increment(binary.length);
+                return binary;
+            } catch (IOException e) {
+                log.debug("Room payload is not a chat message, keeping JSON", e);
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,125 @@
+package com.subaston.chat.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.util.LinkedMultiValueMap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codificador STOMP que, en los broadcast a /topic, codifica una sola vez la parte del
+ * frame MESSAGE común a todos los suscriptores (cabeceras compartidas y cuerpo) y la
+ * reutiliza para cada sesión. Por sesión solo se escriben las cabeceras subscription y
+ * message-id. El broker simple entrega el mismo array de payload a todos los
+ * suscriptores, así que ese array identifica el broadcast.
+ */
+public class BroadcastFrameEncoder extends StompEncoder {
+
+    private static final String TOPIC_PREFIX = "/topic/";
+    private static final byte[] MESSAGE_LINE = "MESSAGE\n".getBytes(StandardCharsets.UTF_8);
+
+    // weakKeys compara por identidad: cada broadcast tiene su propio array de payload
+    private final Cache<byte[], SharedFrame> sharedFrames = Caffeine.newBuilder()
+            .weakKeys()
+            .maximumSize(1024)
+            .build();
+    private final Counter sharedEncodings;
+    private final Counter reusedEncodings;
+
+    public BroadcastFrameEncoder(MeterRegistry meterRegistry) {
+        this.sharedEncodings = meterRegistry.counter("chat.stomp.broadcast.encodings", "result", "encoded");
+        this.reusedEncodings = meterRegistry.counter("chat.stomp.broadcast.encodings", "result", "reused");
+    }
+
+    @Override
+    public byte[] encode(Map<String, Object> headers, byte[] payload) {
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (StompHeaderAccessor.getCommand(headers) != StompCommand.MESSAGE
+                || destination == null || !destination.startsWith(TOPIC_PREFIX)) {
+            return super.encode(headers, payload);
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, List<String>> nativeHeaders =
+                (Map<String, List<String>>) headers.get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+        if (nativeHeaders == null) {
+            return super.encode(headers, payload);
+        }
+
+        SharedFrame shared = sharedFrames.getIfPresent(payload);
+        if (shared != null && shared.destination().equals(destination)) {
+            reusedEncodings.increment();
+        } else {
+            shared = encodeShared(headers, nativeHeaders, destination, payload);
+            sharedFrames.put(payload, shared);
+            sharedEncodings.increment();
+        }
+
+        byte[] sessionHeaders = sessionHeaders(nativeHeaders);
+        byte[] frame = new byte[MESSAGE_LINE.length + sessionHeaders.length + shared.tail().length];
+        System.arraycopy(MESSAGE_LINE, 0, frame, 0, MESSAGE_LINE.length);
+        System.arraycopy(sessionHeaders, 0, frame, MESSAGE_LINE.length, sessionHeaders.length);
+        System.arraycopy(shared.tail(), 0, frame, MESSAGE_LINE.length + sessionHeaders.length, shared.tail().length);
+        return frame;
+    }
+
+    private SharedFrame encodeShared(Map<String, Object> headers, Map<String, List<String>> nativeHeaders,
+                                     String destination, byte[] payload) {
+        LinkedMultiValueMap<String, String> common = new LinkedMultiValueMap<>(nativeHeaders);
+        common.remove(StompHeaderAccessor.STOMP_SUBSCRIPTION_HEADER);
+        common.remove(StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER);
+        Map<String, Object> commonHeaders = new HashMap<>(headers);
+        commonHeaders.put(NativeMessageHeaderAccessor.NATIVE_HEADERS, common);
+
+        byte[] full = super.encode(commonHeaders, payload);
+        byte[] tail = new byte[full.length - MESSAGE_LINE.length];
+        System.arraycopy(full, MESSAGE_LINE.length, tail, 0, tail.length);
+        return new SharedFrame(destination, tail);
+    }
+
+    private byte[] sessionHeaders(Map<String, List<String>> nativeHeaders) {
+        StringBuilder sb = new StringBuilder(64);
+        appendHeader(sb, StompHeaderAccessor.STOMP_SUBSCRIPTION_HEADER, nativeHeaders);
+        appendHeader(sb, StompHeaderAccessor.STOMP_MESSAGE_ID_HEADER, nativeHeaders);
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void appendHeader(StringBuilder sb, String name, Map<String, List<String>> nativeHeaders) {
+        List<String> values = nativeHeaders.get(name);
+        if (values == null) {
+            return;
+        }
+        for (String value : values) {
+            sb.append(name).append(':');
+            escape(sb, value);
+            sb.append('\n');
+        }
+    }
+
+    // Mismo escape de valores que StompEncoder (STOMP 1.2, "Value Encoding")
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case ':' -> sb.append("\\c");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+    }
+
+    private record SharedFrame(String destination, byte[] tail) {
+    }
+}
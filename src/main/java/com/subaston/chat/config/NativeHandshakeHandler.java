@@ -0,0 +1,80 @@
+package com.subaston.chat.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeFailureException;
+import org.springframework.web.socket.server.HandshakeHandler;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+
+/**
+ * Handshake del endpoint WebSocket nativo. Tomcat negocia permessage-deflate por su
+ * cuenta con lo que pida el cliente, así que para desactivarlo se oculta la cabecera
+ * {@code Sec-WebSocket-Extensions} de la petición. Cuenta los handshakes según se haya
+ * aceptado compresión o no, para comparar ancho de banda y CPU con y sin ella.
+ */
+public class NativeHandshakeHandler implements HandshakeHandler {
+
+    /** Atributo de sesión que marca las conexiones del endpoint nativo. */
+    public static final String NATIVE_ATTRIBUTE = "chat.native";
+    static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+    private static final String DEFLATE = "permessage-deflate";
+
+    private final HandshakeHandler delegate;
+    private final boolean deflateEnabled;
+    private final MeterRegistry meterRegistry;
+
+    public NativeHandshakeHandler(HandshakeHandler delegate, boolean deflateEnabled, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.deflateEnabled = deflateEnabled;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public boolean doHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler,
+                               Map<String, Object> attributes) throws HandshakeFailureException {
+        String extensions = request.getHeaders().getFirst(EXTENSIONS_HEADER);
+        boolean deflate = deflateEnabled && extensions != null && extensions.contains(DEFLATE);
+        if (!deflateEnabled && extensions != null && request instanceof ServletServerHttpRequest servletRequest) {
+            request = new ServletServerHttpRequest(new WithoutExtensions(servletRequest.getServletRequest()));
+        }
+        attributes.put(NATIVE_ATTRIBUTE, Boolean.TRUE);
+        boolean upgraded = delegate.doHandshake(request, response, wsHandler, attributes);
+        if (upgraded) {
+            meterRegistry.counter("chat.websocket.handshakes", "transport", "native",
+                    "deflate", String.valueOf(deflate)).increment();
+        }
+        return upgraded;
+    }
+
+    private static final class WithoutExtensions extends HttpServletRequestWrapper {
+
+        WithoutExtensions(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            return Collections.enumeration(Collections.list(super.getHeaderNames()).stream()
+                    .filter(name -> !EXTENSIONS_HEADER.equalsIgnoreCase(name))
+                    .toList());
+        }
+    }
+}
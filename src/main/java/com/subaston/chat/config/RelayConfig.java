@@ -0,0 +1,56 @@
+package com.subaston.chat.config;
+
+import com.subaston.chat.service.relay.LoopbackMessageRelay;
+import com.subaston.chat.service.relay.MessageRelay;
+import com.subaston.chat.service.relay.TcpMessageRelay;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Transporte entre nodos para /topic. Con chat.relay.mode=none (por defecto) cada
+ * nodo solo entrega a sus propias sesiones, como con el broker simple a secas.
+ */
+@Configuration
+public class RelayConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "chat.relay.mode", havingValue = "loopback")
+    public MessageRelay loopbackMessageRelay(@Value("${chat.relay.loopback.group:chat}") String group) {
+        return new LoopbackMessageRelay(group);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "chat.relay.mode", havingValue = "tcp")
+    public MessageRelay tcpMessageRelay(@Value("${chat.relay.tcp.port:7710}") int port,
+                                        @Value("${chat.relay.tcp.peers:}") String peers,
+                                        @Value("${chat.relay.tcp.bind-address:}") String bindAddress,
+                                        @Value("${chat.relay.tcp.shared-secret:}") String sharedSecret,
+                                        @Value("${chat.relay.batch-size:64}") int batchSize,
+                                        @Value("${chat.websocket.message-size-limit:65536}") int messageSizeLimit,
+                                        @Value("${chat.relay.tcp.peer-queue-capacity:256}") int peerQueueCapacity,
+                                        @Value("${chat.relay.tcp.write-timeout-ms:5000}") long writeTimeoutMs) {
+        return new TcpMessageRelay(new TcpMessageRelay.Settings(port, bindAddress, sharedSecret, batchSize,
+                messageSizeLimit, peerQueueCapacity, writeTimeoutMs), parsePeers(peers));
+    }
+
+    static List<InetSocketAddress> parsePeers(String peers) {
+        return Arrays.stream(peers.split(","))
+                .map(String::trim)
+                .filter(peer -> !peer.isEmpty())
+                .map(peer -> {
+                    int separator = peer.lastIndexOf(':');
+                    if (separator <= 0) {
+                        throw new IllegalArgumentException("Relay peer must be host:port: " + peer);
+                    }
+                    return InetSocketAddress.createUnresolved(peer.substring(0, separator),
+                            Integer.parseInt(peer.substring(separator + 1)));
+                })
+                .toList();
+    }
+}
@@ -0,0 +1,41 @@
+package com.subaston.chat.config;
+
+import com.subaston.chat.repository.ChatMessageRepository;
+import com.subaston.chat.repository.JpaMessageStore;
+import com.subaston.chat.repository.MessageStore;
+import com.subaston.chat.repository.log.MappedMessageLog;
+import com.subaston.chat.service.MessageIdAllocator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+
+/**
+ * Motor del historial de mensajes: chat.storage.backend=jpa (por defecto, una fila por
+ * mensaje en la base de datos) o mmap (log en segmentos mapeados en memoria). Las salas
+ * y la secuencia de ids siguen en la base de datos con cualquiera de los dos.
+ */
+@Configuration
+public class StorageConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "chat.storage.backend", havingValue = "jpa", matchIfMissing = true)
+    public MessageStore jpaMessageStore(ChatMessageRepository chatMessageRepository, JdbcTemplate jdbcTemplate) {
+        return new JpaMessageStore(chatMessageRepository, jdbcTemplate);
+    }
+
+    @Bean(initMethod = "open", destroyMethod = "close")
+    @ConditionalOnProperty(name = "chat.storage.backend", havingValue = "mmap")
+    public MessageStore mappedMessageLog(@Value("${chat.storage.mmap.directory:data/chat-log}") String directory,
+                                         @Value("${chat.storage.mmap.segment-size:64MB}") DataSize segmentSize,
+                                         @Value("${chat.storage.mmap.index-interval:32}") int indexInterval,
+                                         @Value("${chat.storage.mmap.force-on-write:true}") boolean forceOnWrite,
+                                         MessageIdAllocator messageIdAllocator) {
+        return new MappedMessageLog(Path.of(directory), Math.toIntExact(segmentSize.toBytes()), indexInterval,
+                forceOnWrite, messageIdAllocator::nextId);
+    }
+}
@@ -0,0 +1,51 @@
+package com.subaston.chat.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Modo de hilos virtuales (spring.threads.virtual.enabled=true). Spring Boot ya pasa a
+ * hilos virtuales Tomcat y los ejecutores de tareas; los canales STOMP se configuran en
+ * {@link WebSocketConfig}. Hikari ya limita las conexiones y su cola espera como mucho
+ * connectionTimeout; con {@code chat.datasource.max-concurrency} se limita además cuántos
+ * llamadores pueden tenerlas o esperarlas, y los que sobran fallan sin esperar.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    @Bean
+    public static BeanPostProcessor concurrencyLimitedDataSourcePostProcessor(
+            @Value("${chat.datasource.max-concurrency:0}") int maxConcurrency,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof HikariDataSource hikari) || maxConcurrency <= 0) {
+                    return bean;
+                }
+                if (maxConcurrency < hikari.getMaximumPoolSize()) {
+                    // Por debajo del pool solo lo encogería: para eso está maximum-pool-size
+                    throw new IllegalStateException("chat.datasource.max-concurrency (" + maxConcurrency
+                            + ") must not be lower than the Hikari pool size (" + hikari.getMaximumPoolSize() + ")");
+                }
+                ConcurrencyLimitedDataSource limited = new ConcurrencyLimitedDataSource(hikari, maxConcurrency);
+                meterRegistry.ifAvailable(registry -> {
+                    Gauge.builder("chat.datasource.permit.in-use", limited, ConcurrencyLimitedDataSource::getInUse)
+                            .register(registry);
+                    FunctionCounter.builder("chat.datasource.permit.rejected", limited,
+                            ConcurrencyLimitedDataSource::getRejectedCount).register(registry);
+                });
+                return limited;
+            }
+        };
+    }
+}
@@ -1,5 +1,15 @@
 package com.subaston.chat.config;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.subaston.chat.model.ChatError;
+import com.subaston.chat.model.RoomMetadata;
+import com.subaston.chat.service.InboundRateLimiter;
+import com.subaston.chat.service.RoomMetadataCache;
+import com.subaston.chat.service.SessionMessenger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.simp.stomp.StompCommand;
@@ -8,9 +18,25 @@ import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.support.MessageHeaderAccessor;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+
 @Component
 public class WebSocketChannelInterceptor implements ChannelInterceptor {
 
+    private static final String SEND_MESSAGE_DESTINATION = "/app/chat.sendMessage";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Autowired
+    private InboundRateLimiter inboundRateLimiter;
+
+    @Autowired
+    private RoomMetadataCache roomMetadataCache;
+
+    // Lazy: el template de mensajería se crea a partir de WebSocketConfig, que usa este interceptor
+    @Lazy
+    @Autowired
+    private SessionMessenger sessionMessenger;
+
     @Override
     public Message<?> preSend(Message<?> message, MessageChannel channel) {
         StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
@@ -22,6 +48,65 @@ public class WebSocketChannelInterceptor implements ChannelInterceptor {
             }
         }
 
+        if (StompCommand.SEND.equals(accessor.getCommand())
+                && SEND_MESSAGE_DESTINATION.equals(accessor.getDestination())) {
+            return admitSend(message, accessor);
+        }
+
         return message;
     }
-} 
\ No newline at end of file
+
+    // Se decide antes de deserializar el mensaje: un rechazo no llega al controlador ni a la base de datos
+    private Message<?> admitSend(Message<?> message, StompHeaderAccessor accessor) {
+        String userId = accessor.getFirstNativeHeader("X-User-Id");
+        if (userId == null) {
+            // Sin cabecera en el SEND se limita por el usuario del CONNECT o, en su defecto, por sesión
+            userId = accessor.getUser() != null ? accessor.getUser().getName() : accessor.getSessionId();
+        }
+        String roomId = null;
+        if (message.getPayload() instanceof byte[] payload) {
+            roomId = BinaryChatMessageConverter.isBinary(accessor.getContentType())
+                    ? BinaryChatMessageConverter.readRoomId(payload)
+                    : readRoomId(payload);
+        }
+        // El cupo va primero: cualquier roomId, exista o no, gasta cupo antes de mirar la sala
+        InboundRateLimiter.Decision decision = inboundRateLimiter.tryAcquire(userId, roomId);
+        if (decision != InboundRateLimiter.Decision.ALLOWED) {
+            if (accessor.getSessionId() != null && inboundRateLimiter.shouldNotify(userId)) {
+                ChatError error = decision == InboundRateLimiter.Decision.USER_LIMITED
+                        ? new ChatError("RATE_LIMITED", "Estás enviando mensajes demasiado rápido")
+                        : new ChatError("ROOM_RATE_LIMITED", "La sala está recibiendo demasiados mensajes, inténtalo en un momento");
+                sessionMessenger.sendToSession(accessor.getSessionId(), "/queue/errors", error);
+            }
+            return null;
+        }
+        // Una sala cerrada y ya en caché se descarta aquí, sin llegar al controlador; el resto lo resuelve él
+        if (roomId != null && !roomMetadataCache.getIfPresent(roomId).map(RoomMetadata::active).orElse(true)) {
+            if (accessor.getSessionId() != null && inboundRateLimiter.shouldNotify(userId)) {
+                sessionMessenger.sendToSession(accessor.getSessionId(), "/queue/errors",
+                        new ChatError("ROOM_CLOSED", "La sala está cerrada"));
+            }
+            return null;
+        }
+        return message;
+    }
+
+    private static String readRoomId(byte[] payload) {
+        try (JsonParser parser = JSON_FACTORY.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("roomId".equals(field)) {
+                    return value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            // Payload mal formado: el controlador lo rechazará al convertirlo
+        }
+        return null;
+    }
+}
@@ -1,35 +1,158 @@
 package com.subaston.chat.config;
 
+import com.subaston.chat.service.outbound.OutboundSessionRegistry;
+import com.subaston.chat.service.relay.ClusterRelay;
+import com.subaston.chat.service.sse.RoomEventStream;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
 import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
 import org.springframework.web.socket.server.support.HttpSessionHandshakeInterceptor;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 
+import java.util.List;
+
 @Configuration
 @EnableWebSocketMessageBroker
-public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+public class WebSocketConfig implements WebSocketMessageBrokerConfigurer, SmartInitializingSingleton {
+
+    @Autowired
+    private ClusterRelay clusterRelay;
+
+    @Autowired
+    private RoomEventStream roomEventStream;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private BeanFactory beanFactory;
+
+    @Autowired
+    private OutboundSessionRegistry outboundSessionRegistry;
+
+    @Autowired
+    private WebSocketChannelInterceptor webSocketChannelInterceptor;
+
+    @Autowired
+    private BinaryPayloadInterceptor binaryPayloadInterceptor;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads = false;
+
+    @Value("${chat.websocket.message-size-limit:65536}")
+    private int messageSizeLimit = 65536;
+
+    @Value("${chat.websocket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs = 10000;
+
+    @Value("${chat.websocket.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit = 524288;
+
+    @Value("${chat.websocket.native.deflate.enabled:true}")
+    private boolean nativeDeflate = true;
+
+    @Value("${chat.websocket.container.text-buffer-size:65536}")
+    private int textBufferSize = 65536;
+
+    @Value("${chat.websocket.container.binary-buffer-size:16384}")
+    private int binaryBufferSize = 16384;
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
+        // /queue se usa para los mensajes dirigidos a una sola sesión (/user/queue/...)
+        config.enableSimpleBroker("/topic", "/queue");
         config.setApplicationDestinationPrefixes("/app");
+        // Los mensajes de cada sesión salen en el orden en que se publicaron, sea cual sea el ejecutor
+        config.setPreservePublishOrder(true);
+        // Lo publicado en /topic se reenvía al resto de nodos (ver chat.relay.mode) y a las conexiones SSE
+        config.configureBrokerChannel().interceptors(clusterRelay, roomEventStream);
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        // Los frames de una sesión se procesan en orden (p. ej. SUBSCRIBE antes de chat.addUser)
+        registry.setPreserveReceiveOrder(true);
         registry.addEndpoint("/ws")
                 .setAllowedOriginPatterns("*")
                 .addInterceptors(new HttpSessionHandshakeInterceptor())
                 .setHandshakeHandler(new DefaultHandshakeHandler())
                 .withSockJS();
+        // Mismo broker, interceptores y decoradores que /ws, sin el framing ni las peticiones extra de SockJS
+        registry.addEndpoint("/ws-native")
+                .setAllowedOriginPatterns("*")
+                .addInterceptors(new HttpSessionHandshakeInterceptor())
+                .setHandshakeHandler(new NativeHandshakeHandler(new DefaultHandshakeHandler(), nativeDeflate, meterRegistry));
+    }
+
+    // Buffers de entrada del contenedor por sesión. El de texto debe cubrir message-size-limit: el
+    // handler STOMP no acepta mensajes parciales y Tomcat cierra con 1009 los que no caben (por defecto 8 KB)
+    @Bean
+    public ServletServerContainerFactoryBean createWebSocketContainer() {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(textBufferSize);
+        container.setMaxBinaryMessageBufferSize(binaryBufferSize);
+        container.setAsyncSendTimeout((long) sendTimeLimitMs);
+        return container;
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Los límites de Spring quedan de respaldo: la cola real por sesión es la de OutboundSessionRegistry
+        registration.setMessageSizeLimit(messageSizeLimit)
+                .setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .addDecoratorFactory(outboundSessionRegistry::decorate);
     }
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        registration.interceptors(new WebSocketChannelInterceptor());
+        registration.interceptors(webSocketChannelInterceptor);
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("chat-inbound-"));
+        }
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(binaryPayloadInterceptor);
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("chat-outbound-"));
+        }
+    }
+
+    // JSON sigue siendo el formato por defecto: el binario solo se usa con su content-type
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        messageConverters.add(new BinaryChatMessageConverter());
+        return true;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        // Los handlers STOMP se registran al crear el mapping de /ws; aquí ya existen
+        WebSocketHandler handler = beanFactory.getBean("subProtocolWebSocketHandler", WebSocketHandler.class);
+        if (WebSocketHandlerDecorator.unwrap(handler) instanceof SubProtocolWebSocketHandler subProtocolHandler) {
+            BroadcastFrameEncoder encoder = new BroadcastFrameEncoder(meterRegistry);
+            subProtocolHandler.getProtocolHandlers().stream()
+                    .filter(StompSubProtocolHandler.class::isInstance)
+                    .forEach(protocolHandler -> ((StompSubProtocolHandler) protocolHandler).setEncoder(encoder));
+        }
     }
-} 
\ No newline at end of file
+}
@@ -2,32 +2,118 @@ package com.subaston.chat.controller;
 
 import com.subaston.chat.model.ChatMessage;
 import com.subaston.chat.model.ChatRoom;
-import com.subaston.chat.repository.ChatMessageRepository;
+import com.subaston.chat.model.IngestResult;
+import com.subaston.chat.model.RoomCatchUp;
+import com.subaston.chat.model.RoomMetadata;
+import com.subaston.chat.model.RoomOccupancy;
 import com.subaston.chat.repository.ChatRoomRepository;
+import com.subaston.chat.repository.MessageStore;
+import com.subaston.chat.service.BroadcastFirstPersistence;
+import com.subaston.chat.service.ChatService;
+import com.subaston.chat.service.MessageIngestion;
+import com.subaston.chat.service.MessageWriteBehindQueue;
+import com.subaston.chat.service.PresenceDigest;
+import com.subaston.chat.service.PresenceRegistry;
+import com.subaston.chat.service.RecentMessageBuffers;
+import com.subaston.chat.service.RoomBroadcaster;
+import com.subaston.chat.service.RoomLifecycle;
+import com.subaston.chat.service.RoomLocks;
+import com.subaston.chat.service.RoomMetadataCache;
+import com.subaston.chat.service.RoomSequencer;
+import com.subaston.chat.service.SessionMessenger;
+import com.subaston.chat.service.TranscriptExporter;
+import com.subaston.chat.service.outbound.ResumeToken;
+import com.subaston.chat.service.sse.RoomEventStream;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
 
 @Controller
 @RequestMapping("/api/chat")
 public class ChatController {
 
+    private static final String EXPORT_RESERVATION = ChatController.class.getName() + ".exportReservation";
+
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private RoomBroadcaster roomBroadcaster;
 
     @Autowired
     private ChatRoomRepository chatRoomRepository;
 
     @Autowired
-    private ChatMessageRepository chatMessageRepository;
+    private MessageStore messageStore;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private MessageWriteBehindQueue writeBehindQueue;
+
+    @Autowired
+    private RoomMetadataCache roomMetadataCache;
+
+    @Autowired
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @Autowired
+    private SessionMessenger sessionMessenger;
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Autowired
+    private PresenceDigest presenceDigest;
+
+    @Autowired
+    private RoomLocks roomLocks;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads = false;
+
+    @Autowired
+    private BroadcastFirstPersistence broadcastFirstPersistence;
+
+    @Autowired
+    private RoomSequencer roomSequencer;
+
+    @Autowired
+    private RoomLifecycle roomLifecycle;
+
+    @Autowired
+    private TranscriptExporter transcriptExporter;
+
+    @Autowired
+    private RoomEventStream roomEventStream;
+
+    @Autowired
+    private MessageIngestion messageIngestion;
 
     @PostMapping("/room")
     @ResponseBody
@@ -37,25 +123,27 @@ public class ChatController {
         room.setOwnerId(userId);
         room.setActive(true);
         room.setOnlyOwnerCanWrite(false);
-        return chatRoomRepository.save(room);
+        room.setLastActivityAt(LocalDateTime.now());
+        ChatRoom savedRoom = chatRoomRepository.save(room);
+        roomMetadataCache.invalidate(savedRoom.getRoomId());
+        return savedRoom;
     }
 
     @MessageMapping("/chat.sendMessage")
     public void sendMessage(@Payload ChatMessage chatMessage, SimpMessageHeaderAccessor headerAccessor) {
         String userId = headerAccessor.getFirstNativeHeader("X-User-Id");
         
-        ChatRoom room = chatRoomRepository.findByRoomId(chatMessage.getRoomId())
+        RoomMetadata room = roomMetadataCache.get(chatMessage.getRoomId())
                 .orElseThrow(() -> new RuntimeException("Room not found"));
 
-        if (room.isOnlyOwnerCanWrite() && !userId.equals(room.getOwnerId())) {
+        if (!room.active() || !room.canWrite(userId)
+                || ChatMessage.isContentTooLong(chatMessage.getContent())) {
             return;
         }
 
         chatMessage.setSenderId(userId);
-        chatMessage.setTimestamp(LocalDateTime.now());
         chatMessage.setType(ChatMessage.MessageType.CHAT);
-        chatMessageRepository.save(chatMessage);
-        messagingTemplate.convertAndSend("/topic/" + chatMessage.getRoomId(), chatMessage);
+        publish(chatMessage, headerAccessor.getSessionId());
     }
 
     @MessageMapping("/chat.addUser")
@@ -64,6 +152,9 @@ public class ChatController {
         
         headerAccessor.getSessionAttributes().put("username", userId);
         headerAccessor.getSessionAttributes().put("roomId", chatMessage.getRoomId());
+        if (roomMetadataCache.get(chatMessage.getRoomId()).isPresent()) {
+            roomLifecycle.touch(chatMessage.getRoomId());
+        }
 
         ChatMessage joinMessage = new ChatMessage();
         joinMessage.setType(ChatMessage.MessageType.JOIN);
@@ -72,48 +163,272 @@ public class ChatController {
         joinMessage.setTimestamp(LocalDateTime.now());
         joinMessage.setContent(userId + " se ha unido al chat!");
 
-        messagingTemplate.convertAndSend("/topic/" + chatMessage.getRoomId(), joinMessage);
+        presenceDigest.announce(joinMessage);
+
+        // Reconexión: se reenvía solo el hueco desde el último mensaje que vio el cliente
+        Long lastSeenId = parseMessageId(headerAccessor.getFirstNativeHeader("X-Last-Message-Id"));
+        if (lastSeenId == null) {
+            // Sesión cerrada por lenta: el token dice qué fue lo último que se le entregó
+            ResumeToken token = ResumeToken.parse(headerAccessor.getFirstNativeHeader("X-Resume-Token"));
+            if (token != null && token.roomId().equals(chatMessage.getRoomId())) {
+                lastSeenId = token.lastMessageId();
+            }
+        }
+        if (lastSeenId != null) {
+            RoomCatchUp catchUp = chatService.getMessagesSince(chatMessage.getRoomId(), lastSeenId);
+            sessionMessenger.sendToSession(headerAccessor.getSessionId(), "/queue/catch-up", catchUp);
+        }
+    }
+
+    @SubscribeMapping("/room/{roomId}/catch-up")
+    public RoomCatchUp subscribeCatchUp(@DestinationVariable String roomId,
+                                        @Header(name = "last-message-id", required = false) String lastMessageId) {
+        Long lastSeenId = parseMessageId(lastMessageId);
+        if (lastSeenId == null) {
+            return new RoomCatchUp(roomId, null, chatService.getRoomMessages(roomId, null, null, null), false);
+        }
+        return chatService.getMessagesSince(roomId, lastSeenId);
     }
 
     @PutMapping("/room/{roomId}/toggleWrite")
     @ResponseBody
     public ChatRoom toggleWritePermission(@PathVariable String roomId, @RequestHeader("X-User-Id") String userId) {
+        // Se parte de la caché: en el caso normal el cambio es una única sentencia condicionada a la versión
+        for (int attempt = 0; ; attempt++) {
+            RoomMetadata room = roomMetadataCache.get(roomId)
+                    .orElseThrow(() -> new RuntimeException("Room not found"));
+
+            if (!room.ownerId().equals(userId)) {
+                throw new RuntimeException("Only room owner can toggle write permission");
+            }
+
+            boolean onlyOwnerCanWrite = !room.onlyOwnerCanWrite();
+            if (chatRoomRepository.updateOnlyOwnerCanWrite(roomId, userId, room.version(), onlyOwnerCanWrite) > 0) {
+                roomMetadataCache.put(new RoomMetadata(roomId, room.ownerId(), room.active(),
+                        onlyOwnerCanWrite, room.version() + 1, room.archived()));
+                announceWritePermission(roomId, onlyOwnerCanWrite);
+                // La respuesta sigue siendo la sala completa; la lectura ya no decide el cambio
+                return chatRoomRepository.findByRoomId(roomId)
+                        .orElseThrow(() -> new RuntimeException("Room not found"));
+            }
+            if (attempt > 0) {
+                throw new IllegalStateException("Room was modified concurrently, retry the request");
+            }
+            // Caché desactualizada u otro cambio a la vez: se relee la sala y se intenta otra vez
+            roomMetadataCache.invalidate(roomId);
+        }
+    }
+
+    // El nuevo permiso llega a todos los nodos como cualquier aviso de la sala; no se guarda en el historial
+    private void announceWritePermission(String roomId, boolean onlyOwnerCanWrite) {
+        ChatMessage notice = new ChatMessage();
+        notice.setType(ChatMessage.MessageType.SYSTEM);
+        notice.setRoomId(roomId);
+        notice.setTimestamp(LocalDateTime.now());
+        notice.setContent(onlyOwnerCanWrite
+                ? "Ahora solo el propietario puede escribir en la sala"
+                : "Ahora todos pueden escribir en la sala");
+        roomBroadcaster.broadcast(notice);
+    }
+
+    @PutMapping("/room/{roomId}/close")
+    @ResponseBody
+    public ChatRoom closeRoom(@PathVariable String roomId, @RequestHeader("X-User-Id") String userId) {
         ChatRoom room = chatRoomRepository.findByRoomId(roomId)
                 .orElseThrow(() -> new RuntimeException("Room not found"));
 
         if (!room.getOwnerId().equals(userId)) {
-            throw new RuntimeException("Only room owner can toggle write permission");
+            throw new RuntimeException("Only room owner can close the room");
         }
 
-        room.setOnlyOwnerCanWrite(!room.isOnlyOwnerCanWrite());
-        return chatRoomRepository.save(room);
+        roomLifecycle.close(roomId, RoomLifecycle.Reason.CLOSED);
+        room.setActive(false);
+        return room;
     }
 
     @GetMapping("/room/{roomId}/messages")
     @ResponseBody
-    public List<ChatMessage> getRoomMessages(@PathVariable String roomId, @RequestHeader("X-User-Id") String userId) {
-        return chatMessageRepository.findByRoomIdOrderByTimestampAsc(roomId);
+    public List<ChatMessage> getRoomMessages(@PathVariable String roomId,
+                                             @RequestHeader("X-User-Id") String userId,
+                                             @RequestParam(required = false) Long before,
+                                             @RequestParam(required = false) Long after,
+                                             @RequestParam(required = false) Integer limit) {
+        return chatService.getRoomMessages(roomId, before, after, limit);
+    }
+
+    // Rango exacto de secuencias que el cliente detectó como hueco (inclusivo); puede volver
+    // con menos mensajes que números, porque la secuencia admite huecos (ver RoomSequencer)
+    @GetMapping("/room/{roomId}/messages/range")
+    @ResponseBody
+    public List<ChatMessage> getRoomMessageRange(@PathVariable String roomId,
+                                                 @RequestParam long fromSeq,
+                                                 @RequestParam long toSeq) {
+        return chatService.getMessagesBySeqRange(roomId, fromSeq, toSeq);
+    }
+
+    // Transcripción completa en NDJSON; se reanuda pidiendo desde el id de la última línea recibida
+    @GetMapping("/room/{roomId}/export")
+    public ResponseEntity<StreamingResponseBody> exportRoom(@PathVariable String roomId,
+                                                            @RequestHeader("X-User-Id") String userId,
+                                                            @RequestParam(defaultValue = "0") long afterId,
+                                                            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+                                                            String acceptEncoding,
+                                                            HttpServletRequest request) {
+        chatRoomRepository.findByRoomId(roomId)
+                .orElseThrow(() -> new RuntimeException("Room not found"));
+
+        TranscriptExporter.Reservation reservation = transcriptExporter.tryReserve()
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS,
+                        "Too many exports in progress"));
+        // Si la descarga no llega a ejecutarse (cliente desconectado, timeout, tarea rechazada)
+        // el hueco se libera al completarse la petición asíncrona
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(EXPORT_RESERVATION,
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                        reservation.close();
+                    }
+                });
+
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        StreamingResponseBody body = out -> {
+            try (reservation) {
+                if (gzip) {
+                    GZIPOutputStream compressed = new GZIPOutputStream(out, 8192);
+                    transcriptExporter.export(roomId, afterId, compressed);
+                    compressed.finish();
+                } else {
+                    transcriptExporter.export(roomId, afterId, out);
+                }
+            }
+        };
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(roomId + ".ndjson").build().toString())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
+    // Solo lectura para espectadores: EventSource no envía cabeceras propias, así que no lleva X-User-Id
+    @GetMapping("/room/{roomId}/stream")
+    public ResponseEntity<ResponseBodyEmitter> streamRoom(@PathVariable String roomId,
+                                                          @RequestHeader(value = "Last-Event-ID", required = false)
+                                                          String lastEventId) {
+        roomMetadataCache.get(roomId)
+                .orElseThrow(() -> new RuntimeException("Room not found"));
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .cacheControl(CacheControl.noCache())
+                // Evita que un proxy nginx acumule los eventos antes de reenviarlos
+                .header("X-Accel-Buffering", "no")
+                .body(roomEventStream.open(roomId, parseMessageId(lastEventId)));
+    }
+
+    @GetMapping("/room/{roomId}/presence")
+    @ResponseBody
+    public RoomOccupancy getRoomPresence(@PathVariable String roomId) {
+        return presenceRegistry.getOccupancy(roomId);
     }
 
     @PostMapping("/message")
     @ResponseBody
     public ChatMessage sendMessageHttp(@RequestBody ChatMessage chatMessage, @RequestHeader("X-User-Id") String userId) {
-        ChatRoom room = chatRoomRepository.findByRoomId(chatMessage.getRoomId())
+        RoomMetadata room = roomMetadataCache.get(chatMessage.getRoomId())
                 .orElseThrow(() -> new RuntimeException("Room not found"));
 
-        if (room.isOnlyOwnerCanWrite() && !userId.equals(room.getOwnerId())) {
+        if (!room.active()) {
+            throw new RuntimeException("Room is closed");
+        }
+
+        if (!room.canWrite(userId)) {
             throw new RuntimeException("Only room owner can write messages");
         }
 
+        if (ChatMessage.isContentTooLong(chatMessage.getContent())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Message content exceeds " + ChatMessage.MAX_CONTENT_LENGTH + " characters");
+        }
+
         chatMessage.setSenderId(userId);
-        chatMessage.setTimestamp(LocalDateTime.now());
         chatMessage.setType(ChatMessage.MessageType.CHAT);
         
-        ChatMessage savedMessage = chatMessageRepository.save(chatMessage);
-        
         // También enviar por WebSocket para tiempo real
-        messagingTemplate.convertAndSend("/topic/" + chatMessage.getRoomId(), savedMessage);
-        
+        return publish(chatMessage, null);
+    }
+
+    // Eventos de otros servicios en muchas salas a la vez; el resultado va mensaje a mensaje
+    @PostMapping("/messages/batch")
+    @ResponseBody
+    public List<IngestResult> ingestMessages(@RequestBody List<ChatMessage> messages,
+                                             @RequestHeader("X-User-Id") String userId) {
+        if (messages.size() > messageIngestion.getMaxBatchSize()) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "Batch exceeds " + messageIngestion.getMaxBatchSize() + " messages");
+        }
+        return messageIngestion.ingest(userId, messages);
+    }
+
+    // Timestamp, persistencia y broadcast en el mismo orden para todos los mensajes de la sala,
+    // salvo la inserción síncrona con hilos de plataforma, que no se serializa por sala
+    private ChatMessage publish(ChatMessage chatMessage, String sessionId) {
+        roomLifecycle.touch(chatMessage.getRoomId());
+        if (broadcastFirstPersistence.isEnabled()) {
+            // La base de datos queda fuera de la latencia del chat: se guarda tras publicar
+            ChatMessage published = roomLocks.withRoomLock(chatMessage.getRoomId(), () -> {
+                chatMessage.setTimestamp(LocalDateTime.now());
+                broadcastFirstPersistence.prepare(chatMessage);
+                recentMessageBuffers.append(chatMessage);
+                roomBroadcaster.broadcast(chatMessage);
+                return chatMessage;
+            });
+            broadcastFirstPersistence.persist(published, sessionId);
+            return published;
+        }
+        if (!writeBehindQueue.isEnabled()) {
+            // Inserción síncrona: el lock de sala solo en modo de hilos virtuales. Con el pool
+            // acotado de siempre retenerlo durante el insert dejaría a cada sala (y a las que
+            // comparten su franja) en un mensaje por viaje a la base de datos
+            return virtualThreads
+                    ? roomLocks.withRoomLock(chatMessage.getRoomId(), () -> saveAndBroadcast(chatMessage))
+                    : saveAndBroadcast(chatMessage);
+        }
+        return roomLocks.withRoomLock(chatMessage.getRoomId(), () -> {
+            chatMessage.setTimestamp(LocalDateTime.now());
+            chatMessage.setSeq(roomSequencer.next(chatMessage.getRoomId()));
+            CompletableFuture<ChatMessage> write = writeBehindQueue.enqueue(chatMessage);
+            recentMessageBuffers.append(chatMessage);
+            roomBroadcaster.broadcast(chatMessage);
+            // Ya publicado: si la cola no consigue guardarlo, se retira de la sala
+            write.exceptionally(error -> {
+                broadcastFirstPersistence.retract(chatMessage);
+                return null;
+            });
+            return chatMessage;
+        });
+    }
+
+    private ChatMessage saveAndBroadcast(ChatMessage chatMessage) {
+        chatMessage.setTimestamp(LocalDateTime.now());
+        chatMessage.setSeq(roomSequencer.next(chatMessage.getRoomId()));
+        ChatMessage savedMessage = messageStore.save(chatMessage);
+        recentMessageBuffers.append(savedMessage);
+        roomBroadcaster.broadcast(savedMessage);
         return savedMessage;
     }
+
+    private Long parseMessageId(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,7 @@
+package com.subaston.chat.model;
+
+/**
+ * Error que se envía a una sesión por {@code /user/queue/errors}.
+ */
+public record ChatError(String code, String message) {
+}
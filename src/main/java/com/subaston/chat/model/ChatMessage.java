@@ -1,29 +1,61 @@
 package com.subaston.chat.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import lombok.Data;
 import java.time.LocalDateTime;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_chat_message_room_ts", columnList = "roomId, timestamp"),
+        @Index(name = "idx_chat_message_room_seq", columnList = "roomId, seq"),
+        @Index(name = "idx_chat_message_room_id", columnList = "roomId, id")
+})
 @Data
 public class ChatMessage {
+    public static final String ID_SEQUENCE = "chat_message_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+    // Tamaño de la columna content: lo que no cabe se rechaza al recibirlo, no al guardarlo
+    public static final int MAX_CONTENT_LENGTH = 255;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ChatMessage.ID_SEQUENCE)
+    @SequenceGenerator(name = ChatMessage.ID_SEQUENCE, sequenceName = ChatMessage.ID_SEQUENCE,
+            allocationSize = ChatMessage.ID_ALLOCATION_SIZE)
     private Long id;
     
     private String roomId;
     private String senderId;
+    @Column(length = MAX_CONTENT_LENGTH)
     private String content;
     private LocalDateTime timestamp;
     private MessageType type;
+
+    // Posición del mensaje en su sala (RoomSequencer); null en mensajes anteriores a la columna
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long seq;
+
+    // En una corrección SYSTEM, id del mensaje que se retira porque no se pudo guardar
+    @Transient
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long retractedId;
     
+    public static boolean isContentTooLong(String content) {
+        return content != null && content.length() > MAX_CONTENT_LENGTH;
+    }
+
     public enum MessageType {
         CHAT,
         JOIN,
         LEAVE,
         SYSTEM
     }
-} 
\ No newline at end of file
+}
@@ -4,7 +4,11 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
+import jakarta.persistence.Version;
 import lombok.Data;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.LocalDateTime;
 
 @Entity
 @Data
@@ -17,4 +21,14 @@ public class ChatRoom {
     private String ownerId;
     private boolean isActive;
     private boolean onlyOwnerCanWrite;
+    // Último número de secuencia reservado por algún nodo (ver RoomSequencer)
+    private Long seqHighWater;
+    // Último envío o entrada registrado por RoomLifecycle; guía la desactivación por inactividad
+    private LocalDateTime lastActivityAt;
+    // Momento en que RoomArchiver movió su historial a un fichero de archivo
+    private LocalDateTime archivedAt;
+    // Cambia con cada cambio de estado o permiso; el default da versión 0 a las salas existentes
+    @Version
+    @ColumnDefault("0")
+    private Long version;
 } 
\ No newline at end of file
@@ -0,0 +1,21 @@
+package com.subaston.chat.model;
+
+/**
+ * Resultado de un mensaje de la ingesta por lotes ({@code POST /api/chat/messages/batch}),
+ * en la misma posición ({@code index}) que ocupaba en la petición. {@code messageId} y
+ * {@code seq} solo vienen en los aceptados; {@code error} solo en los rechazados.
+ */
+public record IngestResult(int index, String roomId, Status status, Long messageId, Long seq, String error) {
+
+    public enum Status {
+        ACCEPTED, INVALID, ROOM_NOT_FOUND, ROOM_CLOSED, FORBIDDEN, FAILED
+    }
+
+    public static IngestResult accepted(int index, ChatMessage message) {
+        return new IngestResult(index, message.getRoomId(), Status.ACCEPTED, message.getId(), message.getSeq(), null);
+    }
+
+    public static IngestResult rejected(int index, String roomId, Status status, String error) {
+        return new IngestResult(index, roomId, status, null, null, error);
+    }
+}
@@ -0,0 +1,8 @@
+package com.subaston.chat.model;
+
+/**
+ * Confirmación que recibe el emisor por {@code /user/queue/acks} cuando su mensaje,
+ * ya publicado, se ha guardado ({@code persisted}) o se ha retirado por no poder guardarse.
+ */
+public record MessageAck(Long messageId, String roomId, Long seq, boolean persisted) {
+}
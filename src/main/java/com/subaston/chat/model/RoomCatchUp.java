@@ -0,0 +1,11 @@
+package com.subaston.chat.model;
+
+import java.util.List;
+
+/**
+ * Mensajes que un cliente se perdió desde {@code lastSeenId}. Si {@code truncated}
+ * es true el hueco era mayor que el máximo de reenvío y el cliente debe seguir
+ * pidiendo páginas con {@code ?after=} a partir del último mensaje recibido.
+ */
+public record RoomCatchUp(String roomId, Long lastSeenId, List<ChatMessage> messages, boolean truncated) {
+}
@@ -0,0 +1,14 @@
+package com.subaston.chat.model;
+
+public record RoomMetadata(String roomId, String ownerId, boolean active, boolean onlyOwnerCanWrite, long version,
+                           boolean archived) {
+
+    public static RoomMetadata from(ChatRoom room) {
+        return new RoomMetadata(room.getRoomId(), room.getOwnerId(), room.isActive(), room.isOnlyOwnerCanWrite(),
+                room.getVersion() == null ? 0 : room.getVersion(), room.getArchivedAt() != null);
+    }
+
+    public boolean canWrite(String userId) {
+        return !onlyOwnerCanWrite || (userId != null && userId.equals(ownerId));
+    }
+}
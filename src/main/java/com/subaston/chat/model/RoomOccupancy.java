@@ -0,0 +1,7 @@
+package com.subaston.chat.model;
+
+/**
+ * Número de sesiones suscritas a una sala en este nodo.
+ */
+public record RoomOccupancy(String roomId, int count) {
+}
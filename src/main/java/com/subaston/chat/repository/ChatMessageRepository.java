@@ -1,9 +1,54 @@
 package com.subaston.chat.repository;
 
 import com.subaston.chat.model.ChatMessage;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import java.util.List;
 
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long> {
     List<ChatMessage> findByRoomIdOrderByTimestampAsc(String roomId);
-} 
\ No newline at end of file
+
+    @Query("select m from ChatMessage m where m.roomId = :roomId order by m.timestamp asc, m.id asc")
+    List<ChatMessage> findOldestByRoomId(@Param("roomId") String roomId, Pageable pageable);
+
+    // Salas ya archivadas a las que aún les quedan filas (borrado interrumpido)
+    @Query("select distinct m.roomId from ChatMessage m, ChatRoom r where r.roomId = m.roomId and r.archivedAt is not null")
+    List<String> findRoomIdsPendingPurge();
+
+    @Query("select max(m.id) from ChatMessage m")
+    Long findMaxId();
+
+    @Query("select max(m.id) from ChatMessage m where m.roomId = :roomId")
+    Long findMaxIdByRoomId(@Param("roomId") String roomId);
+
+    long countByRoomId(String roomId);
+
+    @Query("select m from ChatMessage m where m.roomId = :roomId order by m.timestamp desc, m.id desc")
+    List<ChatMessage> findLatestByRoomId(@Param("roomId") String roomId, Pageable pageable);
+
+    // Keyset sobre (timestamp, id): el mensaje ancla se resuelve por PK en la misma sentencia
+    @Query("select m from ChatMessage m, ChatMessage a where a.id = :beforeId and m.roomId = :roomId"
+            + " and (m.timestamp < a.timestamp or (m.timestamp = a.timestamp and m.id < a.id))"
+            + " order by m.timestamp desc, m.id desc")
+    List<ChatMessage> findPageBefore(@Param("roomId") String roomId, @Param("beforeId") Long beforeId, Pageable pageable);
+
+    List<ChatMessage> findByRoomIdAndSeqBetweenOrderBySeqAsc(String roomId, Long fromSeq, Long toSeq, Pageable pageable);
+
+    @Query("select m from ChatMessage m, ChatMessage a where a.id = :afterId and m.roomId = :roomId"
+            + " and (m.timestamp > a.timestamp or (m.timestamp = a.timestamp and m.id > a.id))"
+            + " order by m.timestamp asc, m.id asc")
+    List<ChatMessage> findPageAfter(@Param("roomId") String roomId, @Param("afterId") Long afterId, Pageable pageable);
+
+    // Sin fila ancla (purgada o que nunca existió) el propio id hace de límite
+    @Query("select m from ChatMessage m where m.roomId = :roomId and m.id < :beforeId"
+            + " order by m.timestamp desc, m.id desc")
+    List<ChatMessage> findPageBeforeId(@Param("roomId") String roomId, @Param("beforeId") Long beforeId,
+                                       Pageable pageable);
+
+    @Query("select m from ChatMessage m where m.roomId = :roomId and m.id > :afterId"
+            + " order by m.timestamp asc, m.id asc")
+    List<ChatMessage> findPageAfterId(@Param("roomId") String roomId, @Param("afterId") Long afterId,
+                                      Pageable pageable);
+}
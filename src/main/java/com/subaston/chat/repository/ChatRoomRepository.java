@@ -1,10 +1,37 @@
 package com.subaston.chat.repository;
 
 import com.subaston.chat.model.ChatRoom;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
     Optional<ChatRoom> findByRoomId(String roomId);
     Optional<ChatRoom> findByOwnerId(String ownerId);
+    List<ChatRoom> findByRoomIdIn(Collection<String> roomIds);
+
+    @Query("select r from ChatRoom r where r.isActive = false and r.archivedAt is null order by r.id")
+    List<ChatRoom> findArchivable(Pageable pageable);
+
+    @Query("select r.roomId from ChatRoom r where r.isActive = true and r.lastActivityAt < :cutoff order by r.lastActivityAt")
+    List<String> findIdleRoomIds(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+    @Query("select r.roomId from ChatRoom r where r.isActive = false and r.roomId in :roomIds")
+    List<String> findInactiveRoomIds(@Param("roomIds") Collection<String> roomIds);
+
+    // Una sola sentencia: solo el propietario y solo si nadie cambió la sala desde la versión leída
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update ChatRoom r set r.onlyOwnerCanWrite = :onlyOwnerCanWrite, r.version = r.version + 1"
+            + " where r.roomId = :roomId and r.ownerId = :ownerId and r.version = :version")
+    int updateOnlyOwnerCanWrite(@Param("roomId") String roomId, @Param("ownerId") String ownerId,
+                                @Param("version") long version, @Param("onlyOwnerCanWrite") boolean onlyOwnerCanWrite);
 } 
\ No newline at end of file
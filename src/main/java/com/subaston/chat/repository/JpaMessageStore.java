@@ -0,0 +1,148 @@
+package com.subaston.chat.repository;
+
+import com.subaston.chat.model.ChatMessage;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Historial en la base de datos relacional: una fila por mensaje. Las lecturas van por
+ * {@link ChatMessageRepository} y los lotes por inserción JDBC en batch.
+ */
+public class JpaMessageStore implements MessageStore {
+
+    static final String INSERT_SQL = "insert into chat_message (id, room_id, sender_id, content, timestamp, type, seq)"
+            + " values (?, ?, ?, ?, ?, ?, ?)";
+    static final String STREAM_SQL = "select id, room_id, sender_id, content, timestamp, type, seq from chat_message"
+            + " where room_id = ? and id > ? order by id";
+    private static final ChatMessage.MessageType[] TYPES = ChatMessage.MessageType.values();
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    public JpaMessageStore(ChatMessageRepository chatMessageRepository, JdbcTemplate jdbcTemplate) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public ChatMessage save(ChatMessage message) {
+        return chatMessageRepository.save(message);
+    }
+
+    @Override
+    public void saveAll(List<ChatMessage> messages) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, messages, messages.size(), (ps, message) -> {
+            ps.setLong(1, message.getId());
+            ps.setString(2, message.getRoomId());
+            ps.setString(3, message.getSenderId());
+            ps.setString(4, message.getContent());
+            ps.setTimestamp(5, message.getTimestamp() == null ? null : Timestamp.valueOf(message.getTimestamp()));
+            if (message.getType() == null) {
+                ps.setNull(6, Types.SMALLINT);
+            } else {
+                ps.setShort(6, (short) message.getType().ordinal());
+            }
+            if (message.getSeq() == null) {
+                ps.setNull(7, Types.BIGINT);
+            } else {
+                ps.setLong(7, message.getSeq());
+            }
+        });
+    }
+
+    @Override
+    public List<ChatMessage> findByRoomIdOrderByTimestampAsc(String roomId) {
+        return chatMessageRepository.findByRoomIdOrderByTimestampAsc(roomId);
+    }
+
+    @Override
+    public List<ChatMessage> findLatestByRoomId(String roomId, Pageable pageable) {
+        return chatMessageRepository.findLatestByRoomId(roomId, pageable);
+    }
+
+    // El keyset se resuelve con la fila ancla; si no existe, el id hace de límite y un ancla
+    // purgada o inventada (after=0) no se confunde con "no hay nada más"
+    @Override
+    public List<ChatMessage> findPageBefore(String roomId, Long beforeId, Pageable pageable) {
+        List<ChatMessage> page = chatMessageRepository.findPageBefore(roomId, beforeId, pageable);
+        if (page.isEmpty() && !chatMessageRepository.existsById(beforeId)) {
+            return chatMessageRepository.findPageBeforeId(roomId, beforeId, pageable);
+        }
+        return page;
+    }
+
+    @Override
+    public List<ChatMessage> findPageAfter(String roomId, Long afterId, Pageable pageable) {
+        List<ChatMessage> page = chatMessageRepository.findPageAfter(roomId, afterId, pageable);
+        if (page.isEmpty() && !chatMessageRepository.existsById(afterId)) {
+            return chatMessageRepository.findPageAfterId(roomId, afterId, pageable);
+        }
+        return page;
+    }
+
+    @Override
+    public List<ChatMessage> findByRoomIdAndSeqBetweenOrderBySeqAsc(String roomId, Long fromSeq, Long toSeq,
+                                                                     Pageable pageable) {
+        return chatMessageRepository.findByRoomIdAndSeqBetweenOrderBySeqAsc(roomId, fromSeq, toSeq, pageable);
+    }
+
+    @Override
+    public void forEachAfter(String roomId, long afterId, int fetchSize, Consumer<ChatMessage> action) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            // PostgreSQL solo lee por tandas con un cursor si el autocommit está desactivado
+            boolean autoCommit = connection.getAutoCommit();
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
+            try {
+                stream(connection, roomId, afterId, fetchSize, action);
+            } finally {
+                if (autoCommit) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            }
+            return null;
+        });
+    }
+
+    private static void stream(Connection connection, String roomId, long afterId, int fetchSize,
+                               Consumer<ChatMessage> action) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(STREAM_SQL,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(fetchSize);
+            statement.setString(1, roomId);
+            statement.setLong(2, afterId);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    action.accept(map(rows));
+                }
+            }
+        }
+    }
+
+    private static ChatMessage map(ResultSet rows) throws SQLException {
+        ChatMessage message = new ChatMessage();
+        message.setId(rows.getLong(1));
+        message.setRoomId(rows.getString(2));
+        message.setSenderId(rows.getString(3));
+        message.setContent(rows.getString(4));
+        Timestamp timestamp = rows.getTimestamp(5);
+        message.setTimestamp(timestamp == null ? null : timestamp.toLocalDateTime());
+        short type = rows.getShort(6);
+        message.setType(rows.wasNull() ? null : TYPES[type]);
+        long seq = rows.getLong(7);
+        message.setSeq(rows.wasNull() ? null : seq);
+        return message;
+    }
+}
@@ -0,0 +1,50 @@
+package com.subaston.chat.repository;
+
+import com.subaston.chat.model.ChatMessage;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Almacén del historial de mensajes. Las consultas tienen la misma forma que las de
+ * {@link ChatMessageRepository} para que el motor se pueda cambiar con
+ * {@code chat.storage.backend} (jpa o mmap) sin tocar a quien las usa. Solo se usa la
+ * página 0 de cada {@link Pageable}: la paginación es por cursor.
+ */
+public interface MessageStore {
+
+    ChatMessage save(ChatMessage message);
+
+    /**
+     * Guarda un lote de mensajes que ya tienen id asignado.
+     */
+    void saveAll(List<ChatMessage> messages);
+
+    List<ChatMessage> findByRoomIdOrderByTimestampAsc(String roomId);
+
+    /**
+     * Mensajes más recientes de la sala, del más nuevo al más antiguo.
+     */
+    List<ChatMessage> findLatestByRoomId(String roomId, Pageable pageable);
+
+    /**
+     * Página anterior al mensaje {@code beforeId}, del más nuevo al más antiguo. Si el
+     * mensaje no existe (purgado o inventado) el propio id hace de límite.
+     */
+    List<ChatMessage> findPageBefore(String roomId, Long beforeId, Pageable pageable);
+
+    /**
+     * Página posterior al mensaje {@code afterId}, en orden cronológico. Si el mensaje no
+     * existe el propio id hace de límite, p. ej. {@code afterId = 0} empieza por el primero.
+     */
+    List<ChatMessage> findPageAfter(String roomId, Long afterId, Pageable pageable);
+
+    List<ChatMessage> findByRoomIdAndSeqBetweenOrderBySeqAsc(String roomId, Long fromSeq, Long toSeq, Pageable pageable);
+
+    /**
+     * Recorre en orden de id todos los mensajes de la sala posteriores a {@code afterId}
+     * sin cargarlos a la vez en memoria; {@code fetchSize} es cuántos se leen de cada tanda.
+     */
+    void forEachAfter(String roomId, long afterId, int fetchSize, Consumer<ChatMessage> action);
+}
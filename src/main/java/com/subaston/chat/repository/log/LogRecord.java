@@ -0,0 +1,158 @@
+package com.subaston.chat.repository.log;
+
+import com.subaston.chat.model.ChatMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.zip.CRC32;
+
+/**
+ * Formato de un registro del log:
+ * <pre>
+ * int longitud del cuerpo | int crc32 del cuerpo | cuerpo
+ * cuerpo: long id | long seq | long posición del registro anterior de la sala |
+ *         long segundos | int nanos | byte tipo | str sala | str emisor | str contenido
+ * </pre>
+ * Las cadenas van como int longitud (-1 si es null) y bytes UTF-8. Las cabeceras fijas
+ * van primero para poder recorrer una sala leyendo solo id, seq y el enlace anterior.
+ */
+final class LogRecord {
+
+    static final int HEADER_BYTES = 8;
+    private static final int ID = 0;
+    private static final int SEQ = 8;
+    private static final int PREV = 16;
+    private static final int SECONDS = 24;
+    private static final int NANOS = 32;
+    private static final int TYPE = 36;
+    private static final int STRINGS = 37;
+    private static final long NULL_LONG = Long.MIN_VALUE;
+    private static final ChatMessage.MessageType[] TYPES = ChatMessage.MessageType.values();
+
+    private LogRecord() {
+    }
+
+    /**
+     * Registro completo (cabecera incluida) listo para copiar al segmento.
+     */
+    static byte[] encode(ChatMessage message, long previous) {
+        byte[] room = bytes(message.getRoomId());
+        byte[] sender = bytes(message.getSenderId());
+        byte[] content = bytes(message.getContent());
+        int bodyLength = STRINGS + stringLength(room) + stringLength(sender) + stringLength(content);
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + bodyLength);
+        out.putInt(bodyLength).putInt(0);
+        out.putLong(message.getId());
+        out.putLong(message.getSeq() == null ? NULL_LONG : message.getSeq());
+        out.putLong(previous);
+        LocalDateTime timestamp = message.getTimestamp();
+        out.putLong(timestamp == null ? NULL_LONG : timestamp.toEpochSecond(ZoneOffset.UTC));
+        out.putInt(timestamp == null ? 0 : timestamp.getNano());
+        out.put(message.getType() == null ? -1 : (byte) message.getType().ordinal());
+        putString(out, room);
+        putString(out, sender);
+        putString(out, content);
+
+        byte[] record = out.array();
+        out.putInt(4, crc(record, HEADER_BYTES, bodyLength));
+        return record;
+    }
+
+    /**
+     * @return longitud del cuerpo del registro que empieza en {@code offset}, o -1 si
+     *         ahí no hay un registro entero (final del log o escritura a medias)
+     */
+    static int bodyLength(ByteBuffer segment, int offset, boolean verifyCrc) {
+        if (offset + HEADER_BYTES > segment.capacity()) {
+            return -1;
+        }
+        int length = segment.getInt(offset);
+        if (length < STRINGS || offset + HEADER_BYTES + length > segment.capacity()) {
+            return -1;
+        }
+        if (verifyCrc) {
+            byte[] body = new byte[length];
+            segment.get(offset + HEADER_BYTES, body);
+            if (crc(body, 0, length) != segment.getInt(offset + 4)) {
+                return -1;
+            }
+        }
+        return length;
+    }
+
+    static long id(ByteBuffer segment, int offset) {
+        return segment.getLong(offset + HEADER_BYTES + ID);
+    }
+
+    static Long seq(ByteBuffer segment, int offset) {
+        long seq = segment.getLong(offset + HEADER_BYTES + SEQ);
+        return seq == NULL_LONG ? null : seq;
+    }
+
+    static long previous(ByteBuffer segment, int offset) {
+        return segment.getLong(offset + HEADER_BYTES + PREV);
+    }
+
+    static String roomId(ByteBuffer segment, int offset) {
+        return readString(segment, offset + HEADER_BYTES + STRINGS);
+    }
+
+    static ChatMessage decode(ByteBuffer segment, int offset) {
+        int base = offset + HEADER_BYTES;
+        ChatMessage message = new ChatMessage();
+        message.setId(segment.getLong(base + ID));
+        message.setSeq(seq(segment, offset));
+        long seconds = segment.getLong(base + SECONDS);
+        if (seconds != NULL_LONG) {
+            message.setTimestamp(LocalDateTime.ofEpochSecond(seconds, segment.getInt(base + NANOS), ZoneOffset.UTC));
+        }
+        byte type = segment.get(base + TYPE);
+        message.setType(type < 0 ? null : TYPES[type]);
+        int position = base + STRINGS;
+        message.setRoomId(readString(segment, position));
+        position += stringLength(segment, position);
+        message.setSenderId(readString(segment, position));
+        position += stringLength(segment, position);
+        message.setContent(readString(segment, position));
+        return message;
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringLength(byte[] value) {
+        return 4 + (value == null ? 0 : value.length);
+    }
+
+    private static int stringLength(ByteBuffer segment, int position) {
+        return 4 + Math.max(0, segment.getInt(position));
+    }
+
+    private static void putString(ByteBuffer out, byte[] value) {
+        if (value == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(value.length).put(value);
+        }
+    }
+
+    private static String readString(ByteBuffer segment, int position) {
+        int length = segment.getInt(position);
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        segment.get(position + 4, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,96 @@
+package com.subaston.chat.repository.log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fichero de tamaño fijo del log, mapeado entero en memoria. Las lecturas usan accesos
+ * absolutos al buffer mapeado, que no mueven su posición y se pueden hacer desde
+ * varios hilos mientras el único escritor añade al final.
+ */
+final class LogSegment implements AutoCloseable {
+
+    private final int number;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int writePosition;
+
+    private LogSegment(int number, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.number = number;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static LogSegment open(Path directory, int number, int size) {
+        Path path = directory.resolve(fileName(number));
+        try {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // Un segmento existente conserva su tamaño aunque cambie la configuración
+            long length = Math.max(channel.size(), size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            return new LogSegment(number, path, channel, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open log segment " + path, e);
+        }
+    }
+
+    static String fileName(int number) {
+        return String.format("%010d.log", number);
+    }
+
+    static int parseNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - ".log".length()));
+    }
+
+    int number() {
+        return number;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    MappedByteBuffer buffer() {
+        return buffer;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    int writePosition() {
+        return writePosition;
+    }
+
+    void setWritePosition(int writePosition) {
+        this.writePosition = writePosition;
+    }
+
+    int remaining() {
+        return buffer.capacity() - writePosition;
+    }
+
+    void force(int from, int length) {
+        if (length > 0) {
+            buffer.force(from, length);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close log segment " + path, e);
+        }
+    }
+}
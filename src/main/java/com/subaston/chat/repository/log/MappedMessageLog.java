@@ -0,0 +1,376 @@
+package com.subaston.chat.repository.log;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.repository.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Pageable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Historial como log de solo escritura al final, repartido en segmentos de tamaño fijo
+ * mapeados en memoria. Cada registro enlaza con el anterior de su misma sala y cada
+ * sala tiene un índice disperso en memoria ({@link RoomIndex}), así que una página de
+ * historial se lee recorriendo solo los registros de esa sala, directamente sobre las
+ * páginas mapeadas y sin llamadas al sistema. Las páginas siguen el orden de escritura
+ * del log.
+ * <p>
+ * Al arrancar se rehacen los índices leyendo las cabeceras de los segmentos. El último
+ * segmento, el único que puede tener una escritura a medias, se valida con CRC: se corta
+ * en el primer registro incompleto y se pone a cero lo que quede detrás.
+ */
+public class MappedMessageLog implements MessageStore, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedMessageLog.class);
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int indexInterval;
+    private final boolean forceOnWrite;
+    private final LongSupplier idGenerator;
+
+    private final Map<Integer, LogSegment> segments = new ConcurrentHashMap<>();
+    private final Map<String, RoomIndex> rooms = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private LogSegment active;
+
+    public MappedMessageLog(Path directory, int segmentBytes, int indexInterval, boolean forceOnWrite,
+                            LongSupplier idGenerator) {
+        if (indexInterval < 1) {
+            throw new IllegalArgumentException("Index interval must be positive");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.indexInterval = indexInterval;
+        this.forceOnWrite = forceOnWrite;
+        this.idGenerator = idGenerator;
+    }
+
+    public void open() {
+        writeLock.lock();
+        try {
+            Files.createDirectories(directory);
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(directory)) {
+                files = listing.filter(path -> path.getFileName().toString().endsWith(".log"))
+                        .sorted(Comparator.comparingInt(LogSegment::parseNumber))
+                        .toList();
+            }
+            for (int i = 0; i < files.size(); i++) {
+                LogSegment segment = LogSegment.open(directory, LogSegment.parseNumber(files.get(i)), segmentBytes);
+                segments.put(segment.number(), segment);
+                recover(segment, i == files.size() - 1);
+                active = segment;
+            }
+            if (active == null) {
+                active = LogSegment.open(directory, 0, segmentBytes);
+                segments.put(active.number(), active);
+            }
+            log.info("Message log opened with {} segments and {} rooms", segments.size(), rooms.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open message log in " + directory, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            segments.values().forEach(LogSegment::close);
+            segments.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public ChatMessage save(ChatMessage message) {
+        if (message.getId() == null) {
+            message.setId(idGenerator.getAsLong());
+        }
+        saveAll(List.of(message));
+        return message;
+    }
+
+    @Override
+    public void saveAll(List<ChatMessage> messages) {
+        writeLock.lock();
+        try {
+            LogSegment first = active;
+            int from = first.writePosition();
+            for (ChatMessage message : messages) {
+                append(message);
+            }
+            if (forceOnWrite) {
+                // Un solo volcado por lote; los segmentos cerrados por el camino ya se volcaron al cambiar
+                int start = active == first ? from : 0;
+                active.force(start, active.writePosition() - start);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public List<ChatMessage> findByRoomIdOrderByTimestampAsc(String roomId) {
+        RoomIndex room = rooms.get(roomId);
+        if (room == null) {
+            return List.of();
+        }
+        List<ChatMessage> messages = new ArrayList<>();
+        for (long position = room.tail(); position >= 0; position = previous(position)) {
+            messages.add(decode(position));
+        }
+        messages.sort(Comparator.comparing(ChatMessage::getTimestamp, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(ChatMessage::getId));
+        return messages;
+    }
+
+    @Override
+    public List<ChatMessage> findLatestByRoomId(String roomId, Pageable pageable) {
+        RoomIndex room = rooms.get(roomId);
+        return room == null ? List.of() : readBackwards(room.tail(), pageable.getPageSize());
+    }
+
+    @Override
+    public List<ChatMessage> findPageBefore(String roomId, Long beforeId, Pageable pageable) {
+        RoomIndex room = rooms.get(roomId);
+        if (room == null) {
+            return List.of();
+        }
+        long start = room.startForId(beforeId, 0);
+        long anchor = findBackwards(start, beforeId);
+        if (anchor >= 0) {
+            return readBackwards(previous(anchor), pageable.getPageSize());
+        }
+        // Ancla que no está en el log (inventada o de un segmento ya borrado): el id hace de límite
+        long below = findBelow(start, beforeId);
+        return below < 0 ? List.of() : readBackwards(below, pageable.getPageSize());
+    }
+
+    @Override
+    public List<ChatMessage> findPageAfter(String roomId, Long afterId, Pageable pageable) {
+        RoomIndex room = rooms.get(roomId);
+        if (room == null) {
+            return List.of();
+        }
+        int limit = pageable.getPageSize();
+        // Se empieza tantos tramos del índice por delante del ancla como hagan falta para llenar la página
+        int extraEntries = (limit + indexInterval - 1) / indexInterval;
+        List<Long> newerFirst = new ArrayList<>();
+        int below = 0;
+        for (long position = room.startForId(afterId, extraEntries); position >= 0; position = previous(position)) {
+            long id = id(position);
+            if (id == afterId) {
+                Collections.reverse(newerFirst);
+                return decodeAll(newerFirst.subList(0, Math.min(limit, newerFirst.size())));
+            }
+            below = id < afterId ? below + 1 : 0;
+            if (below > indexInterval) {
+                break;
+            }
+            newerFirst.add(position);
+        }
+        // Sin ancla el id hace de límite: los más antiguos de los recorridos con id mayor
+        Collections.reverse(newerFirst);
+        return decodeAll(newerFirst.stream().filter(position -> id(position) > afterId).limit(limit).toList());
+    }
+
+    @Override
+    public List<ChatMessage> findByRoomIdAndSeqBetweenOrderBySeqAsc(String roomId, Long fromSeq, Long toSeq,
+                                                                     Pageable pageable) {
+        RoomIndex room = rooms.get(roomId);
+        if (room == null) {
+            return List.of();
+        }
+        List<ChatMessage> matches = new ArrayList<>();
+        int below = 0;
+        for (long position = room.startForSeq(toSeq, 0); position >= 0 && below <= indexInterval;
+             position = previous(position)) {
+            Long seq = seq(position);
+            if (seq == null) {
+                continue;
+            }
+            if (seq >= fromSeq && seq <= toSeq) {
+                matches.add(decode(position));
+            }
+            below = seq < fromSeq ? below + 1 : 0;
+        }
+        matches.sort(Comparator.comparing(ChatMessage::getSeq));
+        return matches.subList(0, Math.min(pageable.getPageSize(), matches.size()));
+    }
+
+    @Override
+    public void forEachAfter(String roomId, long afterId, int fetchSize, Consumer<ChatMessage> action) {
+        RoomIndex room = rooms.get(roomId);
+        if (room == null) {
+            return;
+        }
+        // Los enlaces van hacia atrás: cada tramo del índice se recorre entero y se entrega al revés
+        long[] bounds = room.forwardFrom(afterId);
+        int last = bounds.length - 1;
+        List<Long> stretch = new ArrayList<>(indexInterval);
+        for (int i = 0; i < last; i++) {
+            long upper = i + 1 < last ? previous(bounds[i + 1]) : bounds[last];
+            stretch.clear();
+            for (long position = upper; position >= 0; position = previous(position)) {
+                stretch.add(position);
+                if (position == bounds[i]) {
+                    break;
+                }
+            }
+            for (int j = stretch.size() - 1; j >= 0; j--) {
+                long position = stretch.get(j);
+                if (id(position) > afterId) {
+                    action.accept(decode(position));
+                }
+            }
+        }
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void recover(LogSegment segment, boolean verify) {
+        ByteBuffer buffer = segment.buffer();
+        int offset = 0;
+        int length;
+        while ((length = LogRecord.bodyLength(buffer, offset, verify)) >= 0) {
+            String roomId = LogRecord.roomId(buffer, offset);
+            rooms.computeIfAbsent(roomId, id -> new RoomIndex(indexInterval))
+                    .add(LogRecord.id(buffer, offset), LogRecord.seq(buffer, offset), position(segment.number(), offset));
+            offset += LogRecord.HEADER_BYTES + length;
+        }
+        segment.setWritePosition(offset);
+        if (verify) {
+            truncateTail(segment, offset);
+        }
+    }
+
+    // Restos de una escritura a medias no deben reaparecer cuando se escriba encima
+    private void truncateTail(LogSegment segment, int from) {
+        ByteBuffer buffer = segment.buffer();
+        int last = buffer.capacity() - 1;
+        while (last >= from && buffer.get(last) == 0) {
+            last--;
+        }
+        if (last < from) {
+            return;
+        }
+        log.warn("Truncating {} bytes after the last complete record of {}", last - from + 1, segment.path());
+        byte[] zeros = new byte[Math.min(8192, last - from + 1)];
+        for (int offset = from; offset <= last; offset += zeros.length) {
+            buffer.put(offset, zeros, 0, Math.min(zeros.length, last - offset + 1));
+        }
+        segment.force(from, last - from + 1);
+    }
+
+    private void append(ChatMessage message) {
+        if (message.getId() == null) {
+            throw new IllegalArgumentException("Message id must be assigned before appending to the log");
+        }
+        RoomIndex room = rooms.computeIfAbsent(message.getRoomId(), id -> new RoomIndex(indexInterval));
+        byte[] record = LogRecord.encode(message, room.tail());
+        if (record.length > active.remaining()) {
+            roll(record.length);
+        }
+        int offset = active.writePosition();
+        active.buffer().put(offset, record);
+        active.setWritePosition(offset + record.length);
+        // El índice se publica después de escribir: un lector nunca llega a un registro sin terminar
+        room.add(message.getId(), message.getSeq(), position(active.number(), offset));
+    }
+
+    private void roll(int recordLength) {
+        if (recordLength > segmentBytes) {
+            throw new IllegalArgumentException("Message of " + recordLength + " bytes does not fit in a log segment");
+        }
+        active.force(0, active.writePosition());
+        LogSegment next = LogSegment.open(directory, active.number() + 1, segmentBytes);
+        segments.put(next.number(), next);
+        active = next;
+    }
+
+    private long findBackwards(long start, long id) {
+        int below = 0;
+        for (long position = start; position >= 0 && below <= indexInterval; position = previous(position)) {
+            long current = id(position);
+            if (current == id) {
+                return position;
+            }
+            below = current < id ? below + 1 : 0;
+        }
+        return -1;
+    }
+
+    private long findBelow(long start, long id) {
+        for (long position = start; position >= 0; position = previous(position)) {
+            if (id(position) < id) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private List<ChatMessage> readBackwards(long start, int limit) {
+        List<ChatMessage> messages = new ArrayList<>(limit);
+        for (long position = start; position >= 0 && messages.size() < limit; position = previous(position)) {
+            messages.add(decode(position));
+        }
+        return messages;
+    }
+
+    private List<ChatMessage> decodeAll(List<Long> positions) {
+        List<ChatMessage> messages = new ArrayList<>(positions.size());
+        positions.forEach(position -> messages.add(decode(position)));
+        return messages;
+    }
+
+    private static long position(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private ByteBuffer buffer(long position) {
+        LogSegment segment = segments.get((int) (position >>> 32));
+        if (segment == null) {
+            throw new IllegalStateException("Log segment for position " + position + " is not available");
+        }
+        return segment.buffer();
+    }
+
+    private long previous(long position) {
+        long previous = LogRecord.previous(buffer(position), (int) position);
+        // Si el segmento anterior ya no está, la sala empieza aquí
+        return previous >= 0 && segments.containsKey((int) (previous >>> 32)) ? previous : -1;
+    }
+
+    private long id(long position) {
+        return LogRecord.id(buffer(position), (int) position);
+    }
+
+    private Long seq(long position) {
+        return LogRecord.seq(buffer(position), (int) position);
+    }
+
+    private ChatMessage decode(long position) {
+        return LogRecord.decode(buffer(position), (int) position);
+    }
+}
@@ -0,0 +1,98 @@
+package com.subaston.chat.repository.log;
+
+import java.util.Arrays;
+
+/**
+ * Índice disperso de una sala: la posición de su último registro y una entrada cada
+ * {@code interval} registros. Cada entrada guarda el máximo id y seq vistos hasta ella,
+ * que crecen siempre y permiten búsqueda binaria aunque dos escritores concurrentes
+ * hayan dejado algún mensaje ligeramente desordenado. Entre dos entradas se llega
+ * siguiendo el enlace al registro anterior de la sala.
+ */
+final class RoomIndex {
+
+    private final int interval;
+    private long tail = -1;
+    private long count;
+    private long maxId = Long.MIN_VALUE;
+    private long maxSeq = Long.MIN_VALUE;
+    private long[] maxIds = new long[8];
+    private long[] maxSeqs = new long[8];
+    private long[] positions = new long[8];
+    private int size;
+
+    RoomIndex(int interval) {
+        this.interval = interval;
+    }
+
+    synchronized void add(long id, Long seq, long position) {
+        maxId = Math.max(maxId, id);
+        if (seq != null) {
+            maxSeq = Math.max(maxSeq, seq);
+        }
+        if (count % interval == 0) {
+            if (size == positions.length) {
+                maxIds = Arrays.copyOf(maxIds, size * 2);
+                maxSeqs = Arrays.copyOf(maxSeqs, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            maxIds[size] = maxId;
+            maxSeqs[size] = maxSeq;
+            positions[size] = position;
+            size++;
+        }
+        count++;
+        tail = position;
+    }
+
+    synchronized long tail() {
+        return tail;
+    }
+
+    synchronized long count() {
+        return count;
+    }
+
+    /**
+     * Posición desde la que, recorriendo hacia atrás, se encuentra el registro con id
+     * {@code id}; {@code extraEntries} añade tramos para leer también lo que le sigue.
+     */
+    synchronized long startForId(long id, int extraEntries) {
+        return start(lowerBound(maxIds, id), extraEntries);
+    }
+
+    synchronized long startForSeq(long seq, int extraEntries) {
+        return start(lowerBound(maxSeqs, seq), extraEntries);
+    }
+
+    /**
+     * Comienzo de cada tramo desde el primero que puede contener un id mayor que
+     * {@code afterId} (con uno de holgura), seguido de la posición del último registro.
+     */
+    synchronized long[] forwardFrom(long afterId) {
+        int first = Math.max(0, lowerBound(maxIds, afterId + 1) - 2);
+        long[] starts = Arrays.copyOfRange(positions, first, Math.max(first, size) + 1);
+        starts[starts.length - 1] = tail;
+        return starts;
+    }
+
+    private long start(int entry, int extraEntries) {
+        // Una entrada de holgura por si el registro buscado se escribió un poco después
+        long target = (long) entry + 1 + extraEntries;
+        return target < size ? positions[(int) target] : tail;
+    }
+
+    private int lowerBound(long[] values, long value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,168 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.MessageAck;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Modo broadcast-first de la ruta de envío: el mensaje recibe id y número de secuencia
+ * de la sala, se publica enseguida y se guarda después a través de la cola write-behind.
+ * Al emisor le llega un {@link MessageAck} cuando el mensaje queda guardado. Si la
+ * escritura falla se reintenta tras {@code retry-delay-ms}; agotados los reintentos el
+ * mensaje se quita del buffer de recientes, se avisa al emisor y se publica en la sala
+ * una corrección SYSTEM con el id retirado. Necesita la cola write-behind activada: sin
+ * ella {@code enqueue} guardaría en el hilo de entrada, reintentos incluidos, y el arranque
+ * falla.
+ */
+@Service
+public class BroadcastFirstPersistence {
+
+    private static final Logger log = LoggerFactory.getLogger(BroadcastFirstPersistence.class);
+
+    @Autowired
+    private MessageIdAllocator messageIdAllocator;
+
+    @Autowired
+    private RoomSequencer roomSequencer;
+
+    @Autowired
+    private MessageWriteBehindQueue writeBehindQueue;
+
+    @Autowired
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @Autowired
+    private RoomBroadcaster roomBroadcaster;
+
+    @Autowired
+    private SessionMessenger sessionMessenger;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.send.broadcast-first.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.send.broadcast-first.max-retries:2}")
+    private int maxRetries = 2;
+
+    @Value("${chat.send.broadcast-first.retry-delay-ms:1000}")
+    private long retryDelayMs = 1000;
+
+    private ScheduledExecutorService retries;
+    private Counter persisted;
+    private Counter retried;
+    private Counter retracted;
+
+    @PostConstruct
+    void init() {
+        if (enabled && !writeBehindQueue.isEnabled()) {
+            throw new IllegalStateException(
+                    "chat.send.broadcast-first.enabled requires chat.persistence.write-behind.enabled=true");
+        }
+        retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-persist-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        persisted = meterRegistry.counter("chat.messages.deferred", "result", "persisted");
+        retried = meterRegistry.counter("chat.messages.deferred", "result", "retried");
+        retracted = meterRegistry.counter("chat.messages.deferred", "result", "retracted");
+    }
+
+    @PreDestroy
+    void shutdown() {
+        retries.shutdown();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Asigna id y secuencia antes de publicar. Se llama con el lock de la sala tomado.
+     */
+    public ChatMessage prepare(ChatMessage message) {
+        messageIdAllocator.assignId(message);
+        message.setSeq(roomSequencer.next(message.getRoomId()));
+        return message;
+    }
+
+    /**
+     * Guarda un mensaje ya publicado. {@code sessionId} es la sesión STOMP del emisor,
+     * o null si el mensaje llegó por HTTP y no hay a quién confirmar.
+     */
+    public void persist(ChatMessage message, String sessionId) {
+        persist(message, sessionId, 0);
+    }
+
+    private void persist(ChatMessage message, String sessionId, int attempt) {
+        writeBehindQueue.enqueue(message).whenComplete((saved, error) -> {
+            if (error == null) {
+                persisted.increment();
+                acknowledge(message, sessionId, true);
+            } else if (attempt < maxRetries) {
+                retried.increment();
+                scheduleRetry(message, sessionId, attempt + 1);
+            } else {
+                log.error("Chat message {} in room {} could not be persisted, retracting it",
+                        message.getId(), message.getRoomId(), error);
+                retract(message, sessionId);
+            }
+        });
+    }
+
+    private void scheduleRetry(ChatMessage message, String sessionId, int attempt) {
+        try {
+            retries.schedule(() -> persist(message, sessionId, attempt), retryDelayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Parando: ya no hay tiempo para otro intento
+            retract(message, sessionId);
+        }
+    }
+
+    /**
+     * Retira de la sala un mensaje ya publicado que no se ha podido guardar: lo quita del
+     * buffer de recientes y publica la corrección SYSTEM con su id.
+     */
+    public void retract(ChatMessage message) {
+        retract(message, null);
+    }
+
+    private void retract(ChatMessage message, String sessionId) {
+        retracted.increment();
+        recentMessageBuffers.remove(message.getRoomId(), message.getId());
+        acknowledge(message, sessionId, false);
+
+        ChatMessage correction = new ChatMessage();
+        correction.setType(ChatMessage.MessageType.SYSTEM);
+        correction.setRoomId(message.getRoomId());
+        correction.setSenderId(message.getSenderId());
+        correction.setTimestamp(LocalDateTime.now());
+        correction.setRetractedId(message.getId());
+        correction.setContent("Un mensaje de " + message.getSenderId() + " no se pudo guardar y se ha retirado");
+        roomBroadcaster.broadcast(correction);
+    }
+
+    private void acknowledge(ChatMessage message, String sessionId, boolean persisted) {
+        if (sessionId == null) {
+            return;
+        }
+        sessionMessenger.sendToSession(sessionId, "/queue/acks",
+                new MessageAck(message.getId(), message.getRoomId(), message.getSeq(), persisted));
+    }
+}
@@ -1,23 +1,136 @@
 package com.subaston.chat.service;
 
 import com.subaston.chat.model.ChatMessage;
-import com.subaston.chat.repository.ChatMessageRepository;
+import com.subaston.chat.model.RoomCatchUp;
+import com.subaston.chat.repository.MessageStore;
+import com.subaston.chat.service.archive.MessageArchive;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 @Service
 public class ChatService {
 
     @Autowired
-    private ChatMessageRepository chatMessageRepository;
+    private MessageStore messageStore;
+
+    @Autowired
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Value("${chat.history.default-page-size:50}")
+    private int defaultPageSize = 50;
+
+    @Value("${chat.history.max-page-size:200}")
+    private int maxPageSize = 200;
+
+    @Value("${chat.catch-up.max-messages:500}")
+    private int maxCatchUpMessages = 500;
 
     public ChatMessage saveMessage(ChatMessage message) {
-        return chatMessageRepository.save(message);
+        if (message == null) {
+            throw new IllegalArgumentException("Message must not be null");
+        }
+        return messageStore.save(message);
     }
 
     public List<ChatMessage> getRoomMessages(String roomId) {
-        return chatMessageRepository.findByRoomIdOrderByTimestampAsc(roomId);
+        validateRoomId(roomId);
+        if (messageArchive.isArchived(roomId)) {
+            return messageArchive.getAll(roomId);
+        }
+        return messageStore.findByRoomIdOrderByTimestampAsc(roomId);
+    }
+
+    /**
+     * Devuelve una página de la historia de la sala en orden cronológico.
+     * Sin cursor se devuelven los mensajes más recientes; con {@code before} la
+     * página anterior al mensaje indicado y con {@code after} la siguiente.
+     */
+    public List<ChatMessage> getRoomMessages(String roomId, Long before, Long after, Integer limit) {
+        validateRoomId(roomId);
+        if (before != null && after != null) {
+            throw new IllegalArgumentException("Only one of 'before' or 'after' can be used");
+        }
+
+        int pageSize = resolvePageSize(limit);
+        if (messageArchive.isArchived(roomId)) {
+            return messageArchive.getPage(roomId, before, after, pageSize);
+        }
+        Optional<List<ChatMessage>> buffered = recentMessageBuffers.getPage(roomId, before, after, pageSize);
+        if (buffered.isPresent()) {
+            return buffered.get();
+        }
+
+        PageRequest page = PageRequest.of(0, pageSize);
+        if (after != null) {
+            return messageStore.findPageAfter(roomId, after, page);
+        }
+
+        List<ChatMessage> messages = before != null
+                ? messageStore.findPageBefore(roomId, before, page)
+                : messageStore.findLatestByRoomId(roomId, page);
+        List<ChatMessage> ascending = new ArrayList<>(messages);
+        Collections.reverse(ascending);
+        return ascending;
+    }
+
+    /**
+     * Mensajes posteriores a {@code lastSeenId} para un cliente que se reconecta,
+     * desde memoria si están en el buffer y si no por páginas del repositorio.
+     */
+    public RoomCatchUp getMessagesSince(String roomId, long lastSeenId) {
+        validateRoomId(roomId);
+        List<ChatMessage> missed = new ArrayList<>();
+        long cursor = lastSeenId;
+        while (missed.size() <= maxCatchUpMessages) {
+            List<ChatMessage> page = getRoomMessages(roomId, null, cursor, maxPageSize);
+            missed.addAll(page);
+            if (page.size() < maxPageSize) {
+                return new RoomCatchUp(roomId, lastSeenId, missed, false);
+            }
+            cursor = page.get(page.size() - 1).getId();
+        }
+        // Hueco demasiado grande: el cliente sigue paginando con ?after= desde el último recibido
+        return new RoomCatchUp(roomId, lastSeenId, List.copyOf(missed.subList(0, maxCatchUpMessages)), true);
+    }
+
+    /**
+     * Mensajes con secuencia entre {@code fromSeq} y {@code toSeq} (ambos incluidos), como
+     * mucho una página; si el rango es mayor el cliente repite desde la última recibida.
+     * Los números sin mensaje no se rellenan: son huecos de {@link RoomSequencer} (bloques
+     * sin usar o, con varios nodos, bloques de otro nodo), no mensajes perdidos.
+     */
+    public List<ChatMessage> getMessagesBySeqRange(String roomId, long fromSeq, long toSeq) {
+        validateRoomId(roomId);
+        if (fromSeq < 1 || toSeq < fromSeq) {
+            throw new IllegalArgumentException("Invalid sequence range: " + fromSeq + ".." + toSeq);
+        }
+        if (messageArchive.isArchived(roomId)) {
+            return messageArchive.getBySeqRange(roomId, fromSeq, toSeq, maxPageSize);
+        }
+        return messageStore.findByRoomIdAndSeqBetweenOrderBySeqAsc(roomId, fromSeq, toSeq,
+                PageRequest.of(0, maxPageSize));
+    }
+
+    int resolvePageSize(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return Math.min(defaultPageSize, maxPageSize);
+        }
+        return Math.min(limit, maxPageSize);
+    }
+
+    private void validateRoomId(String roomId) {
+        if (roomId == null || roomId.isBlank()) {
+            throw new IllegalArgumentException("Room id must not be empty");
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,106 @@
+package com.subaston.chat.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Límite de mensajes entrantes por usuario y por sala con token buckets. Los buckets
+ * viven en cachés acotadas en tamaño y que olvidan las claves sin uso, así que la
+ * memoria no crece con el número de usuarios o salas que han pasado por el nodo.
+ */
+@Service
+public class InboundRateLimiter {
+
+    public enum Decision { ALLOWED, USER_LIMITED, ROOM_LIMITED }
+
+    private static final long NOTICE_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.rate-limit.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${chat.rate-limit.user.per-second:5}")
+    private double userPerSecond = 5;
+
+    @Value("${chat.rate-limit.user.burst:10}")
+    private int userBurst = 10;
+
+    @Value("${chat.rate-limit.room.per-second:50}")
+    private double roomPerSecond = 50;
+
+    @Value("${chat.rate-limit.room.burst:100}")
+    private int roomBurst = 100;
+
+    @Value("${chat.rate-limit.max-keys:100000}")
+    private long maxKeys = 100000;
+
+    @Value("${chat.rate-limit.idle-seconds:300}")
+    private long idleSeconds = 300;
+
+    private Cache<String, TokenBucket> userBuckets;
+    private Cache<String, TokenBucket> roomBuckets;
+    private long userIntervalNanos;
+    private long roomIntervalNanos;
+    private Counter userRejected;
+    private Counter roomRejected;
+
+    @PostConstruct
+    void init() {
+        userBuckets = newBucketCache();
+        roomBuckets = newBucketCache();
+        userIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / userPerSecond);
+        roomIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / roomPerSecond);
+        userRejected = meterRegistry.counter("chat.rate-limit.rejected", "scope", "user");
+        roomRejected = meterRegistry.counter("chat.rate-limit.rejected", "scope", "room");
+    }
+
+    public Decision tryAcquire(String userId, String roomId) {
+        if (!enabled) {
+            return Decision.ALLOWED;
+        }
+        long now = System.nanoTime();
+        if (userId != null && !userBuckets.get(userId, key -> new TokenBucket())
+                .tryAcquire(now, userIntervalNanos, userBurst)) {
+            userRejected.increment();
+            return Decision.USER_LIMITED;
+        }
+        if (roomId != null && !roomBuckets.get(roomId, key -> new TokenBucket())
+                .tryAcquire(now, roomIntervalNanos, roomBurst)) {
+            roomRejected.increment();
+            return Decision.ROOM_LIMITED;
+        }
+        return Decision.ALLOWED;
+    }
+
+    /**
+     * Indica si hay que avisar al usuario del rechazo; como mucho un aviso por segundo.
+     */
+    public boolean shouldNotify(String userId) {
+        TokenBucket bucket = userId == null ? null : userBuckets.getIfPresent(userId);
+        return bucket == null || bucket.shouldNotify(System.nanoTime(), NOTICE_PERIOD_NANOS);
+    }
+
+    @EventListener
+    public void onRoomClosed(RoomClosedEvent event) {
+        roomBuckets.invalidate(event.roomId());
+    }
+
+    private Cache<String, TokenBucket> newBucketCache() {
+        return Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterAccess(Duration.ofSeconds(idleSeconds))
+                .build();
+    }
+}
@@ -0,0 +1,107 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.repository.ChatMessageRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reserva ids de {@link ChatMessage} por bloques sobre la misma secuencia que usa
+ * Hibernate, de modo que solo se consulta la base de datos una vez cada
+ * {@link ChatMessage#ID_ALLOCATION_SIZE} mensajes. Cada valor de la secuencia es
+ * el límite superior de un bloque, igual que el optimizador "pooled" de Hibernate,
+ * así que los ids asignados aquí nunca se solapan con los de {@code save()}.
+ * <p>
+ * En una base de datos anterior a la secuencia, ddl-auto la crea empezando en 1 y los
+ * primeros ids chocarían con las filas existentes: al arrancar se adelanta la secuencia
+ * por encima del mayor id guardado.
+ */
+@Service
+public class MessageIdAllocator {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageIdAllocator.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    // ReentrantLock y no synchronized: la recarga consulta la base de datos y no debe fijar hilos virtuales
+    private final ReentrantLock lock = new ReentrantLock();
+    private String nextValueSql;
+    private long next;
+    private long upperBound = -1;
+
+    @PostConstruct
+    void alignSequence() {
+        Long maxId = chatMessageRepository.findMaxId();
+        if (maxId == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            long high = fetchSequenceValue();
+            if (high - ChatMessage.ID_ALLOCATION_SIZE + 1 > maxId) {
+                // La secuencia ya va por delante: el bloque reservado sirve como primero
+                next = Math.max(1, high - ChatMessage.ID_ALLOCATION_SIZE + 1);
+                upperBound = high;
+                return;
+            }
+            long restart = maxId + ChatMessage.ID_ALLOCATION_SIZE;
+            log.warn("Sequence {} is behind existing chat messages (max id {}), restarting it at {}",
+                    ChatMessage.ID_SEQUENCE, maxId, restart);
+            jdbcTemplate.execute("alter sequence " + ChatMessage.ID_SEQUENCE + " restart with " + restart);
+            upperBound = -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long nextId() {
+        lock.lock();
+        try {
+            if (next > upperBound) {
+                long high = fetchSequenceValue();
+                next = Math.max(1, high - ChatMessage.ID_ALLOCATION_SIZE + 1);
+                upperBound = high;
+            }
+            return next++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ChatMessage assignId(ChatMessage message) {
+        if (message.getId() == null) {
+            message.setId(nextId());
+        }
+        return message;
+    }
+
+    private long fetchSequenceValue() {
+        if (nextValueSql == null) {
+            nextValueSql = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                    .getJdbcServices()
+                    .getDialect()
+                    .getSequenceSupport()
+                    .getSequenceNextValString(ChatMessage.ID_SEQUENCE);
+        }
+        Long value = jdbcTemplate.queryForObject(nextValueSql, Long.class);
+        if (value == null) {
+            throw new IllegalStateException("Sequence " + ChatMessage.ID_SEQUENCE + " returned no value");
+        }
+        return value;
+    }
+}
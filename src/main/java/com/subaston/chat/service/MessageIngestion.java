@@ -0,0 +1,257 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.IngestResult;
+import com.subaston.chat.model.RoomMetadata;
+import com.subaston.chat.repository.MessageStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Ingesta por lotes de eventos de otros servicios (el de subastas publica pujas y cierres
+ * en muchas salas a la vez). Las salas del lote se comprueban con una sola consulta
+ * {@code IN} a través de {@link RoomMetadataCache}, los mensajes válidos se guardan por
+ * tramos de {@code chunk-size} en inserciones JDBC en batch y se publican agrupados por sala.
+ * Cada mensaje se valida por separado: uno rechazado no impide guardar el resto, y si falla
+ * la inserción del tramo se reintenta fila a fila para que solo fallen las filas malas. Con
+ * los locks de las salas del tramo tomados, el orden de secuencia, guardado y publicación es
+ * el mismo que en un envío suelto; entre tramos se sueltan para no frenar esas salas.
+ * Los avisos SYSTEM van por el carril prioritario y se muestran como avisos de la sala, así
+ * que solo los publica el propietario o una identidad de {@code chat.ingest.system-senders}.
+ */
+@Service
+public class MessageIngestion {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageIngestion.class);
+
+    @Autowired
+    private RoomMetadataCache roomMetadataCache;
+
+    @Autowired
+    private RoomLocks roomLocks;
+
+    @Autowired
+    private RoomSequencer roomSequencer;
+
+    @Autowired
+    private MessageIdAllocator messageIdAllocator;
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @Autowired
+    private RoomBroadcaster roomBroadcaster;
+
+    @Autowired
+    private RoomLifecycle roomLifecycle;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.ingest.max-batch-size:1000}")
+    private int maxBatchSize = 1000;
+
+    @Value("${chat.ingest.system-senders:}")
+    private Set<String> systemSenders = Set.of();
+
+    @Value("${chat.ingest.chunk-size:100}")
+    private int chunkSize = 100;
+
+    private final Map<IngestResult.Status, Counter> results = new EnumMap<>(IngestResult.Status.class);
+
+    @PostConstruct
+    void init() {
+        for (IngestResult.Status status : IngestResult.Status.values()) {
+            results.put(status, meterRegistry.counter("chat.ingest.messages", "result", status.name().toLowerCase()));
+        }
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Valida, guarda y publica los mensajes en nombre de {@code userId}. Sin tipo se toman
+     * como CHAT; solo se admiten CHAT y SYSTEM.
+     */
+    public List<IngestResult> ingest(String userId, List<ChatMessage> messages) {
+        IngestResult[] outcome = new IngestResult[messages.size()];
+        Map<String, RoomMetadata> rooms = roomMetadataCache.getAll(messages.stream()
+                .map(message -> message == null ? null : message.getRoomId())
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList());
+
+        // Por sala y en el orden de la petición
+        Map<String, List<Integer>> accepted = new LinkedHashMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            ChatMessage message = messages.get(i);
+            IngestResult rejection = validate(i, message, rooms, userId);
+            if (rejection != null) {
+                outcome[i] = rejection;
+                continue;
+            }
+            message.setSenderId(userId);
+            message.setId(null);
+            message.setRetractedId(null);
+            accepted.computeIfAbsent(message.getRoomId(), roomId -> new ArrayList<>()).add(i);
+        }
+
+        if (!accepted.isEmpty()) {
+            accepted.keySet().forEach(roomLifecycle::touch);
+            for (Map<String, List<Integer>> chunk : chunks(accepted)) {
+                roomLocks.withRoomLocks(chunk.keySet(), () -> {
+                    publish(messages, chunk, outcome);
+                    return null;
+                });
+            }
+        }
+
+        List<IngestResult> response = List.of(outcome);
+        response.forEach(result -> results.get(result.status()).increment());
+        return response;
+    }
+
+    private IngestResult validate(int index, ChatMessage message, Map<String, RoomMetadata> rooms, String userId) {
+        if (message == null || message.getRoomId() == null || message.getRoomId().isBlank()) {
+            return IngestResult.rejected(index, null, IngestResult.Status.INVALID, "roomId is required");
+        }
+        String roomId = message.getRoomId();
+        if (message.getContent() == null || message.getContent().isBlank()) {
+            return IngestResult.rejected(index, roomId, IngestResult.Status.INVALID, "content is required");
+        }
+        if (ChatMessage.isContentTooLong(message.getContent())) {
+            return IngestResult.rejected(index, roomId, IngestResult.Status.INVALID,
+                    "content exceeds " + ChatMessage.MAX_CONTENT_LENGTH + " characters");
+        }
+        if (message.getType() == null) {
+            message.setType(ChatMessage.MessageType.CHAT);
+        }
+        if (message.getType() != ChatMessage.MessageType.CHAT && message.getType() != ChatMessage.MessageType.SYSTEM) {
+            return IngestResult.rejected(index, roomId, IngestResult.Status.INVALID,
+                    "Only CHAT and SYSTEM messages can be ingested");
+        }
+        RoomMetadata room = rooms.get(roomId);
+        if (room == null) {
+            return IngestResult.rejected(index, roomId, IngestResult.Status.ROOM_NOT_FOUND, "Room not found");
+        }
+        if (!room.active()) {
+            return IngestResult.rejected(index, roomId, IngestResult.Status.ROOM_CLOSED, "Room is closed");
+        }
+        if (message.getType() == ChatMessage.MessageType.SYSTEM) {
+            if (!systemSenders.contains(userId) && (userId == null || !userId.equals(room.ownerId()))) {
+                return IngestResult.rejected(index, roomId, IngestResult.Status.FORBIDDEN,
+                        "Only room owner or a system sender can post SYSTEM messages");
+            }
+        } else if (!room.canWrite(userId)) {
+            return IngestResult.rejected(index, roomId, IngestResult.Status.FORBIDDEN,
+                    "Only room owner can write messages");
+        }
+        return null;
+    }
+
+    // Tramos de hasta chunkSize mensajes, cada sala en el orden de la petición
+    private List<Map<String, List<Integer>>> chunks(Map<String, List<Integer>> accepted) {
+        List<Map<String, List<Integer>>> chunks = new ArrayList<>();
+        Map<String, List<Integer>> chunk = new LinkedHashMap<>();
+        int size = 0;
+        for (Map.Entry<String, List<Integer>> room : accepted.entrySet()) {
+            for (int index : room.getValue()) {
+                if (size == chunkSize) {
+                    chunks.add(chunk);
+                    chunk = new LinkedHashMap<>();
+                    size = 0;
+                }
+                chunk.computeIfAbsent(room.getKey(), roomId -> new ArrayList<>()).add(index);
+                size++;
+            }
+        }
+        chunks.add(chunk);
+        return chunks;
+    }
+
+    // Se llama con los locks de todas las salas del tramo tomados
+    private void publish(List<ChatMessage> messages, Map<String, List<Integer>> accepted, IngestResult[] outcome) {
+        List<ChatMessage> batch = new ArrayList<>();
+        try {
+            for (Map.Entry<String, List<Integer>> room : accepted.entrySet()) {
+                for (int index : room.getValue()) {
+                    ChatMessage message = messages.get(index);
+                    message.setTimestamp(LocalDateTime.now());
+                    message.setSeq(roomSequencer.next(room.getKey()));
+                    messageIdAllocator.assignId(message);
+                    batch.add(message);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not sequence chunk of {} ingested messages", batch.size(), e);
+            accepted.forEach((roomId, indexes) -> indexes.forEach(index -> outcome[index] =
+                    IngestResult.rejected(index, roomId, IngestResult.Status.FAILED, "Could not persist message")));
+            return;
+        }
+
+        // Los números de secuencia de las filas que no se guardan quedan como hueco, igual que tras un reinicio
+        Set<ChatMessage> unsaved = persist(batch);
+        accepted.forEach((roomId, indexes) -> {
+            List<ChatMessage> roomMessages = new ArrayList<>(indexes.size());
+            for (int index : indexes) {
+                ChatMessage message = messages.get(index);
+                if (unsaved.contains(message)) {
+                    outcome[index] = IngestResult.rejected(index, roomId, IngestResult.Status.FAILED,
+                            "Could not persist message");
+                    continue;
+                }
+                recentMessageBuffers.append(message);
+                roomMessages.add(message);
+                outcome[index] = IngestResult.accepted(index, message);
+            }
+            if (!roomMessages.isEmpty()) {
+                roomBroadcaster.broadcastAll(roomId, roomMessages);
+            }
+        });
+    }
+
+    // Devuelve los mensajes que no se han podido guardar
+    private Set<ChatMessage> persist(List<ChatMessage> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> messageStore.saveAll(batch));
+            return Set.of();
+        } catch (RuntimeException e) {
+            log.warn("Could not persist chunk of {} ingested messages, retrying one by one", batch.size(), e);
+        }
+        Set<ChatMessage> unsaved = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ChatMessage message : batch) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> messageStore.saveAll(List.of(message)));
+            } catch (RuntimeException e) {
+                log.error("Could not persist ingested message {}", message.getId(), e);
+                unsaved.add(message);
+            }
+        }
+        return unsaved;
+    }
+}
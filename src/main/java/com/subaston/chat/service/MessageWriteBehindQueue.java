@@ -0,0 +1,228 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.repository.MessageStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistencia diferida de mensajes: {@link #enqueue} asigna el id y deja el
+ * mensaje en una cola acotada; un hilo de fondo lo guarda por lotes en el
+ * {@link MessageStore} (inserción JDBC en batch con el motor jpa) cuando
+ * se llena el lote o vence el intervalo de vaciado. Con la cola llena el productor
+ * espera hasta {@code offer-timeout-ms} y, si sigue llena, inserta él mismo el
+ * mensaje, de modo que la presión se traslada al emisor en lugar de perder datos.
+ * Los mensajes ya se han publicado al encolarlos: si el lote falla se reintenta fila
+ * a fila, con una espera creciente de {@code retry-backoff-ms} entre intentos, y solo
+ * los mensajes que siguen fallando tras {@code max-attempts} intentos se cuentan en
+ * {@code chat.persistence.write-behind.failed} y fallan su futuro para que quien los
+ * publicó los retire de la sala.
+ */
+@Service
+public class MessageWriteBehindQueue implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageWriteBehindQueue.class);
+
+    @Autowired
+    private MessageIdAllocator messageIdAllocator;
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.persistence.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.persistence.write-behind.queue-capacity:10000}")
+    private int queueCapacity = 10000;
+
+    @Value("${chat.persistence.write-behind.batch-size:100}")
+    private int batchSize = 100;
+
+    @Value("${chat.persistence.write-behind.flush-interval-ms:50}")
+    private long flushIntervalMs = 50;
+
+    @Value("${chat.persistence.write-behind.offer-timeout-ms:100}")
+    private long offerTimeoutMs = 100;
+
+    @Value("${chat.persistence.write-behind.max-attempts:3}")
+    private int maxAttempts = 3;
+
+    @Value("${chat.persistence.write-behind.retry-backoff-ms:100}")
+    private long retryBackoffMs = 100;
+
+    private BlockingQueue<PendingWrite> queue;
+    private Thread flusher;
+    private volatile boolean running;
+    private Counter failed;
+
+    @PostConstruct
+    void init() {
+        failed = meterRegistry.counter("chat.persistence.write-behind.failed");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CompletableFuture<ChatMessage> enqueue(ChatMessage message) {
+        messageIdAllocator.assignId(message);
+        PendingWrite pending = new PendingWrite(message, new CompletableFuture<>());
+
+        if (running) {
+            try {
+                if (queue.offer(pending, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    return pending.persisted();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Cola llena o detenida: el emisor paga la inserción
+        writeBatch(List.of(pending));
+        return pending.persisted();
+    }
+
+    public int getPendingCount() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        flusher = new Thread(this::runFlusher, "chat-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Lo que quede tras el último ciclo del hilo se vacía aquí
+        drainRemaining();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        // Se detiene después del servidor web para vaciar lo recibido hasta el final
+        return Integer.MAX_VALUE - 2048;
+    }
+
+    private void runFlusher() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                PendingWrite first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                if (!batch.isEmpty()) {
+                    writeBatch(batch);
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private void drainRemaining() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    void writeBatch(List<PendingWrite> batch) {
+        if (batch.size() > 1) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> insert(batch));
+                batch.forEach(pending -> pending.persisted().complete(pending.message()));
+                return;
+            } catch (RuntimeException e) {
+                // Una fila mala tumba todo el batch JDBC: fila a fila solo falla ella
+                log.warn("Chat message batch insert failed, retrying {} messages one by one", batch.size(), e);
+            }
+        }
+        batch.forEach(this::writeOne);
+    }
+
+    private void writeOne(PendingWrite pending) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> insert(List.of(pending)));
+                pending.persisted().complete(pending.message());
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    log.error("Could not persist chat message {} after {} attempts",
+                            pending.message().getId(), attempt, e);
+                    failed.increment();
+                    pending.persisted().completeExceptionally(e);
+                    return;
+                }
+                log.warn("Chat message insert failed (attempt {}), retrying", attempt, e);
+                backOff(attempt);
+            }
+        }
+    }
+
+    private void backOff(int attempt) {
+        try {
+            Thread.sleep(retryBackoffMs * attempt);
+        } catch (InterruptedException e) {
+            // Parada en curso: se reintenta sin esperar para no perder el mensaje
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void insert(List<PendingWrite> batch) {
+        messageStore.saveAll(batch.stream().map(PendingWrite::message).toList());
+    }
+
+    record PendingWrite(ChatMessage message, CompletableFuture<ChatMessage> persisted) {
+    }
+}
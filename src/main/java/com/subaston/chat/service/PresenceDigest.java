@@ -0,0 +1,172 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Avisos JOIN y LEAVE de las salas. Al abrir una subasta entran miles de usuarios en
+ * segundos y cada aviso suelto llega a todos los suscriptores. Con el resumen activado,
+ * una sala que supera {@code enter-rate} entradas y salidas por segundo acumula los avisos
+ * durante {@code window-ms} y publica uno solo ("37 usuarios se han unido al chat: ana,
+ * bob... y 35 más", con como mucho {@code max-names} nombres). Vuelve a los avisos sueltos
+ * cuando el ritmo baja de {@code exit-rate}.
+ */
+@Service
+public class PresenceDigest {
+
+    @Autowired
+    private RoomBroadcaster roomBroadcaster;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.presence.digest.enabled:false}")
+    private boolean enabled = false;
+
+    @Value("${chat.presence.digest.window-ms:2000}")
+    private long windowMs = 2000;
+
+    @Value("${chat.presence.digest.enter-rate:20}")
+    private int enterRate = 20;
+
+    @Value("${chat.presence.digest.exit-rate:5}")
+    private int exitRate = 5;
+
+    @Value("${chat.presence.digest.max-names:10}")
+    private int maxNames = 10;
+
+    @Value("${chat.presence.digest.idle-seconds:120}")
+    private long idleSeconds = 120;
+
+    private RoomLanes<RoomDigest> digests;
+    private Counter published;
+    private Counter digestedEvents;
+
+    @PostConstruct
+    void init() {
+        digests = new RoomLanes<>("chat-presence-digest", enterRate, exitRate);
+        published = meterRegistry.counter("chat.presence.digests");
+        digestedEvents = meterRegistry.counter("chat.presence.digested.events");
+        Gauge.builder("chat.presence.digest.rooms", digests, RoomLanes::activeRooms).register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        digests.shutdown();
+    }
+
+    /**
+     * Publica un aviso JOIN o LEAVE, o lo acumula en el resumen de la sala.
+     */
+    public void announce(ChatMessage message) {
+        if (!enabled) {
+            roomBroadcaster.broadcast(message);
+            return;
+        }
+        digests.lane(message.getRoomId(), RoomDigest::new).submit(message);
+    }
+
+    public boolean isDigesting(String roomId) {
+        return digests.isActive(roomId);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.presence.digest.idle-check-ms:60000}")
+    public void evictIdle() {
+        digests.evictIdle(idleSeconds);
+    }
+
+    @EventListener
+    public void onRoomClosed(RoomClosedEvent event) {
+        digests.close(event.roomId());
+    }
+
+    private String describe(List<String> users, int total, String action) {
+        StringBuilder content = new StringBuilder();
+        content.append(total).append(total == 1 ? " usuario " : " usuarios ").append(action);
+        if (!users.isEmpty()) {
+            content.append(": ").append(String.join(", ", users));
+            if (total > users.size()) {
+                content.append(" y ").append(total - users.size()).append(" más");
+            }
+        }
+        return content.toString();
+    }
+
+    private final class RoomDigest extends RoomLanes.Lane {
+
+        private final String roomId;
+        private final List<String> joinedNames = new ArrayList<>();
+        private final List<String> leftNames = new ArrayList<>();
+        private int joined;
+        private int left;
+
+        RoomDigest(String roomId) {
+            super(digests);
+            this.roomId = roomId;
+        }
+
+        synchronized void submit(ChatMessage message) {
+            boolean digesting = recordEvent();
+            if (!digesting && !hasPending()) {
+                roomBroadcaster.broadcast(message);
+                return;
+            }
+            boolean join = message.getType() == ChatMessage.MessageType.JOIN;
+            List<String> names = join ? joinedNames : leftNames;
+            if (message.getSenderId() != null && names.size() < maxNames && !names.contains(message.getSenderId())) {
+                names.add(message.getSenderId());
+            }
+            if (join) {
+                joined++;
+            } else {
+                left++;
+            }
+            scheduleFlush(windowMs);
+        }
+
+        @Override
+        protected boolean hasPending() {
+            return joined > 0 || left > 0;
+        }
+
+        // Un único aviso por ventana: JOIN si entró alguien, LEAVE si solo hubo salidas
+        @Override
+        protected void flushPending() {
+            if (!hasPending()) {
+                return;
+            }
+            List<String> parts = new ArrayList<>(2);
+            if (joined > 0) {
+                parts.add(describe(joinedNames, joined, joined == 1 ? "se ha unido al chat" : "se han unido al chat"));
+            }
+            if (left > 0) {
+                parts.add(describe(leftNames, left, left == 1 ? "ha salido del chat" : "han salido del chat"));
+            }
+            ChatMessage digest = new ChatMessage();
+            digest.setType(joined > 0 ? ChatMessage.MessageType.JOIN : ChatMessage.MessageType.LEAVE);
+            digest.setRoomId(roomId);
+            digest.setTimestamp(LocalDateTime.now());
+            digest.setContent(String.join(". ", parts));
+            published.increment();
+            digestedEvents.increment(joined + left);
+            joined = 0;
+            left = 0;
+            joinedNames.clear();
+            leftNames.clear();
+            roomBroadcaster.broadcast(digest);
+        }
+    }
+}
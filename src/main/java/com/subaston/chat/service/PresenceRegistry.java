@@ -0,0 +1,268 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.RoomOccupancy;
+import com.subaston.chat.service.relay.ClusterRelay;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Quién está en cada sala según los eventos STOMP: una sesión entra en una sala al
+ * suscribirse a {@code /topic/{roomId}} y sale al cancelar la suscripción o desconectarse,
+ * momento en que se emite el LEAVE (por {@link PresenceDigest}). Cada sesión se actualiza bajo su propio lock y las
+ * salas usan mapas concurrentes con un contador atómico, así que muchas conexiones a
+ * la vez no compiten por un lock común. La ocupación se publica en
+ * {@code /topic/{roomId}/presence} solo cuando cambia y como mucho una vez por intervalo.
+ */
+@Service
+public class PresenceRegistry {
+
+    private static final String TOPIC_PREFIX = "/topic/";
+
+    @Autowired
+    private PresenceDigest presenceDigest;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.presence.publish-interval-ms:1000}")
+    private long publishIntervalMs = 1000;
+
+    private final Map<String, SessionPresence> sessions = new ConcurrentHashMap<>();
+    private final Map<String, RoomPresence> rooms = new ConcurrentHashMap<>();
+    private ScheduledExecutorService publisher;
+
+    @PostConstruct
+    void init() {
+        publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-presence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("chat.presence.sessions", sessions, Map::size).register(meterRegistry);
+        Gauge.builder("chat.presence.rooms", rooms, Map::size).register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        publisher.shutdownNow();
+    }
+
+    public RoomOccupancy getOccupancy(String roomId) {
+        RoomPresence room = rooms.get(roomId);
+        return new RoomOccupancy(roomId, room == null ? 0 : room.count.get());
+    }
+
+    public Set<String> getMembers(String roomId) {
+        RoomPresence room = rooms.get(roomId);
+        if (room == null) {
+            return Set.of();
+        }
+        return room.members.values().stream().filter(userId -> !userId.isEmpty()).collect(Collectors.toSet());
+    }
+
+    @EventListener
+    public void onConnect(SessionConnectEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String userId = accessor.getFirstNativeHeader("X-User-Id");
+        if (userId == null && event.getUser() != null) {
+            userId = event.getUser().getName();
+        }
+        session(accessor.getSessionId()).userId = userId;
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String roomId = roomOf(accessor.getDestination());
+        if (roomId == null || accessor.getSessionId() == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        SessionPresence session = session(accessor.getSessionId());
+        synchronized (session) {
+            if (session.closed) {
+                return;
+            }
+            boolean firstInRoom = !session.subscriptions.containsValue(roomId);
+            session.subscriptions.put(accessor.getSubscriptionId(), roomId);
+            if (firstInRoom) {
+                enter(roomId, accessor.getSessionId(), userOf(session, event.getMessage()));
+            }
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        SessionPresence session = sessions.get(accessor.getSessionId());
+        if (session == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        synchronized (session) {
+            String roomId = session.subscriptions.remove(accessor.getSubscriptionId());
+            if (roomId != null && !session.subscriptions.containsValue(roomId)) {
+                leave(roomId, accessor.getSessionId(), userOf(session, event.getMessage()));
+            }
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        SessionPresence session = sessions.remove(event.getSessionId());
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            session.closed = true;
+            String userId = userOf(session, event.getMessage());
+            session.subscriptions.values().stream().distinct().toList()
+                    .forEach(roomId -> leave(roomId, event.getSessionId(), userId));
+            session.subscriptions.clear();
+        }
+    }
+
+    // Las suscripciones siguen en las sesiones; al cancelarlas ya no hay sala que actualizar
+    @EventListener
+    public void onRoomClosed(RoomClosedEvent event) {
+        rooms.remove(event.roomId());
+    }
+
+    private SessionPresence session(String sessionId) {
+        return sessions.computeIfAbsent(sessionId, id -> new SessionPresence());
+    }
+
+    private void enter(String roomId, String sessionId, String userId) {
+        // compute bloquea solo la entrada de esta sala en el mapa
+        AtomicBoolean changed = new AtomicBoolean();
+        RoomPresence room = rooms.compute(roomId, (key, current) -> {
+            RoomPresence presence = current != null ? current : new RoomPresence(key);
+            if (presence.members.putIfAbsent(sessionId, userId == null ? "" : userId) == null) {
+                presence.count.incrementAndGet();
+                changed.set(true);
+            }
+            return presence;
+        });
+        if (changed.get()) {
+            room.schedulePublish();
+        }
+    }
+
+    private void leave(String roomId, String sessionId, String userId) {
+        AtomicBoolean changed = new AtomicBoolean();
+        RoomPresence room = rooms.computeIfPresent(roomId, (key, presence) -> {
+            if (presence.members.remove(sessionId) != null) {
+                presence.count.decrementAndGet();
+                changed.set(true);
+            }
+            return presence;
+        });
+        if (!changed.get()) {
+            return;
+        }
+        room.schedulePublish();
+        if (userId != null) {
+            ChatMessage leaveMessage = new ChatMessage();
+            leaveMessage.setType(ChatMessage.MessageType.LEAVE);
+            leaveMessage.setSenderId(userId);
+            leaveMessage.setRoomId(roomId);
+            leaveMessage.setTimestamp(LocalDateTime.now());
+            leaveMessage.setContent(userId + " ha salido del chat");
+            presenceDigest.announce(leaveMessage);
+        }
+    }
+
+    // addUser guarda el usuario en la sesión; si el CONNECT no lo traía se toma de ahí
+    private String userOf(SessionPresence session, Message<?> message) {
+        if (session.userId == null) {
+            Map<String, Object> attributes = SimpMessageHeaderAccessor.getSessionAttributes(message.getHeaders());
+            Object username = attributes == null ? null : attributes.get("username");
+            if (username instanceof String name) {
+                session.userId = name;
+            }
+        }
+        return session.userId;
+    }
+
+    private static String roomOf(String destination) {
+        if (destination == null || !destination.startsWith(TOPIC_PREFIX)) {
+            return null;
+        }
+        String roomId = destination.substring(TOPIC_PREFIX.length());
+        return roomId.isEmpty() || roomId.contains("/") ? null : roomId;
+    }
+
+    private void publish(RoomPresence room) {
+        room.publishScheduled.set(false);
+        room.lastPublishAt = System.nanoTime();
+        int count = room.count.get();
+        if (count == room.lastPublished) {
+            return;
+        }
+        room.lastPublished = count;
+        // La ocupación es la de este nodo: no se reenvía a los demás
+        messagingTemplate.convertAndSend(TOPIC_PREFIX + room.roomId + "/presence",
+                new RoomOccupancy(room.roomId, count), Map.of(ClusterRelay.LOCAL_ONLY_HEADER, "true"));
+        if (count == 0) {
+            rooms.computeIfPresent(room.roomId, (key, presence) -> presence.members.isEmpty() ? null : presence);
+        }
+    }
+
+    private static final class SessionPresence {
+        // Solo se modifica bajo el lock de la propia sesión
+        private final Map<String, String> subscriptions = new HashMap<>();
+        private volatile String userId;
+        private boolean closed;
+    }
+
+    private final class RoomPresence {
+
+        private final String roomId;
+        private final Map<String, String> members = new ConcurrentHashMap<>();
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicBoolean publishScheduled = new AtomicBoolean();
+        private volatile long lastPublishAt = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+        private volatile int lastPublished;
+
+        RoomPresence(String roomId) {
+            this.roomId = roomId;
+        }
+
+        void schedulePublish() {
+            if (!publishScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            long sinceLast = System.nanoTime() - lastPublishAt;
+            long delay = Math.max(0, TimeUnit.MILLISECONDS.toNanos(publishIntervalMs) - sinceLast);
+            publisher.schedule(() -> publish(this), delay, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Buffer circular de capacidad fija con los mensajes más recientes de una sala,
+ * ordenados igual que el historial de la base de datos: (timestamp, id). El array crece
+ * con los mensajes retenidos hasta la capacidad, así que una sala con pocos mensajes
+ * ocupa poco más que ellos.
+ */
+class RecentMessageBuffer {
+
+    static final Comparator<ChatMessage> HISTORY_ORDER = Comparator
+            .comparing(ChatMessage::getTimestamp, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ChatMessage::getId, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private static final int INITIAL_SLOTS = 16;
+    private static final ChatMessage[] EMPTY = new ChatMessage[0];
+
+    private final int capacity;
+    private ChatMessage[] ring = EMPTY;
+    private int head;
+    private int size;
+    private boolean warmed;
+    private boolean complete;
+    private boolean released;
+    private volatile long lastAccess = System.nanoTime();
+
+    RecentMessageBuffer(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return variación del número de mensajes retenidos (0 si se sobrescribió el más antiguo)
+     */
+    synchronized int append(ChatMessage message) {
+        if (released) {
+            return 0;
+        }
+        touch();
+        int before = size;
+        if (size == capacity) {
+            // Se descarta el más antiguo: a partir de aquí el historial ya no está completo
+            head = (head + 1) % ring.length;
+            size--;
+            complete = false;
+        } else if (size == ring.length) {
+            grow(Math.min(capacity, Math.max(INITIAL_SLOTS, ring.length * 2)));
+        }
+        // Inserción desde el final: casi siempre llega en orden y no hay desplazamientos
+        int pos = size;
+        while (pos > 0 && HISTORY_ORDER.compare(get(pos - 1), message) > 0) {
+            set(pos, get(pos - 1));
+            pos--;
+        }
+        set(pos, message);
+        size++;
+        return size - before;
+    }
+
+    /**
+     * Quita un mensaje concreto, p. ej. uno publicado que luego no se pudo guardar.
+     *
+     * @return variación del número de mensajes retenidos
+     */
+    synchronized int remove(long messageId) {
+        int index = indexOf(messageId);
+        if (released || index < 0) {
+            return 0;
+        }
+        for (int i = index; i < size - 1; i++) {
+            set(i, get(i + 1));
+        }
+        set(size - 1, null);
+        size--;
+        // El hueco no existe en la base de datos, así que el historial sigue completo
+        return -1;
+    }
+
+    /**
+     * Mezcla la última página leída del repositorio con lo que se haya añadido mientras
+     * tanto. {@code fullHistory} indica que la página contiene toda la historia de la sala.
+     *
+     * @return variación del número de mensajes retenidos
+     */
+    synchronized int warm(List<ChatMessage> latestFromStore, boolean fullHistory) {
+        if (released) {
+            return 0;
+        }
+        touch();
+        int before = size;
+        List<ChatMessage> merged = new ArrayList<>(latestFromStore);
+        Set<Long> knownIds = new HashSet<>();
+        latestFromStore.forEach(message -> knownIds.add(message.getId()));
+        for (int i = 0; i < size; i++) {
+            ChatMessage buffered = get(i);
+            if (!knownIds.contains(buffered.getId())) {
+                merged.add(buffered);
+            }
+        }
+        merged.sort(HISTORY_ORDER);
+
+        int skip = Math.max(0, merged.size() - capacity);
+        ring = new ChatMessage[merged.size() - skip];
+        head = 0;
+        size = 0;
+        for (int i = skip; i < merged.size(); i++) {
+            ring[size++] = merged.get(i);
+        }
+        warmed = true;
+        complete = fullHistory && skip == 0;
+        return size - before;
+    }
+
+    /**
+     * Vacía el buffer y lo deja inservible, de modo que quien aún tenga la referencia
+     * no siga sumando mensajes a un buffer que ya no está registrado.
+     *
+     * @return número de mensajes liberados
+     */
+    synchronized int release() {
+        int count = size;
+        released = true;
+        warmed = false;
+        head = 0;
+        size = 0;
+        ring = EMPTY;
+        return count;
+    }
+
+    synchronized boolean isWarmed() {
+        return warmed;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * @return los {@code limit} mensajes más recientes, o null si el buffer no puede responder
+     */
+    synchronized List<ChatMessage> latest(int limit) {
+        touch();
+        if (!warmed || (size < limit && !complete)) {
+            return null;
+        }
+        return slice(Math.max(0, size - limit), size);
+    }
+
+    synchronized List<ChatMessage> before(long messageId, int limit) {
+        touch();
+        int index = indexOf(messageId);
+        if (!warmed || index < 0 || (index < limit && !complete)) {
+            return null;
+        }
+        return slice(Math.max(0, index - limit), index);
+    }
+
+    synchronized List<ChatMessage> after(long messageId, int limit) {
+        touch();
+        int index = indexOf(messageId);
+        if (!warmed || index < 0) {
+            return null;
+        }
+        return slice(index + 1, Math.min(size, index + 1 + limit));
+    }
+
+    private int indexOf(long messageId) {
+        for (int i = size - 1; i >= 0; i--) {
+            Long id = get(i).getId();
+            if (id != null && id == messageId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private List<ChatMessage> slice(int from, int to) {
+        List<ChatMessage> result = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            result.add(get(i));
+        }
+        return result;
+    }
+
+    // Copia en orden lógico a un array mayor; el más antiguo queda en la posición 0
+    private void grow(int slots) {
+        ChatMessage[] grown = new ChatMessage[slots];
+        for (int i = 0; i < size; i++) {
+            grown[i] = get(i);
+        }
+        ring = grown;
+        head = 0;
+    }
+
+    private ChatMessage get(int logicalIndex) {
+        return ring[(head + logicalIndex) % ring.length];
+    }
+
+    private void set(int logicalIndex, ChatMessage message) {
+        ring[(head + logicalIndex) % ring.length] = message;
+    }
+
+    private void touch() {
+        lastAccess = System.nanoTime();
+    }
+}
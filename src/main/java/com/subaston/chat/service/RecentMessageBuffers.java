@@ -0,0 +1,187 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.repository.MessageStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mensajes recientes de cada sala en memoria para responder al historial sin ir a
+ * la base de datos. Los buffers se llenan con cada envío y se calientan desde el
+ * repositorio la primera vez que se leen. El total de mensajes retenidos está
+ * acotado: al superarlo se descartan primero los buffers de las salas menos usadas.
+ * Una lectura de una sala sin mensajes (o que no existe) no deja buffer registrado.
+ */
+@Service
+public class RecentMessageBuffers {
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.history.buffer.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${chat.history.buffer.room-capacity:500}")
+    private int roomCapacity = 500;
+
+    @Value("${chat.history.buffer.max-total-messages:200000}")
+    private long maxTotalMessages = 200000;
+
+    @Value("${chat.history.buffer.idle-seconds:900}")
+    private long idleSeconds = 900;
+
+    private final Map<String, RecentMessageBuffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong totalMessages = new AtomicLong();
+    private Counter hits;
+    private Counter misses;
+
+    @PostConstruct
+    void init() {
+        hits = meterRegistry.counter("chat.history.buffer.requests", "result", "hit");
+        misses = meterRegistry.counter("chat.history.buffer.requests", "result", "miss");
+        Gauge.builder("chat.history.buffer.messages", totalMessages, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("chat.history.buffer.rooms", buffers, Map::size).register(meterRegistry);
+    }
+
+    public void append(ChatMessage message) {
+        if (!enabled || message.getRoomId() == null || message.getId() == null) {
+            return;
+        }
+        RecentMessageBuffer buffer = buffers.computeIfAbsent(message.getRoomId(), id -> new RecentMessageBuffer(roomCapacity));
+        totalMessages.addAndGet(buffer.append(message));
+        enforceBudget();
+    }
+
+    public void remove(String roomId, long messageId) {
+        RecentMessageBuffer buffer = buffers.get(roomId);
+        if (buffer != null) {
+            totalMessages.addAndGet(buffer.remove(messageId));
+        }
+    }
+
+    /**
+     * Responde una página de historial desde memoria si el rango pedido está en el buffer.
+     */
+    public Optional<List<ChatMessage>> getPage(String roomId, Long before, Long after, int limit) {
+        if (!enabled || limit > roomCapacity) {
+            return Optional.empty();
+        }
+        RecentMessageBuffer buffer = warmedBuffer(roomId);
+        if (buffer == null) {
+            // Sin mensajes guardados solo la página más reciente tiene respuesta segura: vacía
+            boolean latest = after == null && before == null;
+            (latest ? hits : misses).increment();
+            return latest ? Optional.of(List.of()) : Optional.empty();
+        }
+        List<ChatMessage> page;
+        if (after != null) {
+            page = buffer.after(after, limit);
+        } else if (before != null) {
+            page = buffer.before(before, limit);
+        } else {
+            page = buffer.latest(limit);
+        }
+        (page != null ? hits : misses).increment();
+        return Optional.ofNullable(page);
+    }
+
+    public void evict(String roomId) {
+        RecentMessageBuffer removed = buffers.remove(roomId);
+        if (removed != null) {
+            totalMessages.addAndGet(-removed.release());
+        }
+    }
+
+    @EventListener
+    public void onRoomClosed(RoomClosedEvent event) {
+        evict(event.roomId());
+    }
+
+    private void evict(String roomId, RecentMessageBuffer buffer) {
+        if (buffers.remove(roomId, buffer)) {
+            totalMessages.addAndGet(-buffer.release());
+        }
+    }
+
+    public long getTotalMessages() {
+        return totalMessages.get();
+    }
+
+    public int getRoomCount() {
+        return buffers.size();
+    }
+
+    @Scheduled(fixedDelayString = "${chat.history.buffer.idle-check-ms:60000}")
+    public void evictIdle() {
+        long threshold = System.nanoTime() - TimeUnit.SECONDS.toNanos(idleSeconds);
+        buffers.forEach((roomId, buffer) -> {
+            if (buffer.getLastAccess() < threshold) {
+                evict(roomId, buffer);
+            }
+        });
+    }
+
+    /**
+     * @return el buffer de la sala ya caliente, o null si la sala no tiene mensajes
+     */
+    private RecentMessageBuffer warmedBuffer(String roomId) {
+        RecentMessageBuffer buffer = buffers.get(roomId);
+        if (buffer != null && buffer.isWarmed()) {
+            return buffer;
+        }
+        // La consulta se hace fuera del lock del buffer para no frenar los envíos
+        List<ChatMessage> latest = new ArrayList<>(
+                messageStore.findLatestByRoomId(roomId, PageRequest.of(0, roomCapacity)));
+        if (buffer == null) {
+            if (latest.isEmpty()) {
+                return null;
+            }
+            buffer = buffers.computeIfAbsent(roomId, id -> new RecentMessageBuffer(roomCapacity));
+        }
+        Collections.reverse(latest);
+        totalMessages.addAndGet(buffer.warm(latest, latest.size() < roomCapacity));
+        enforceBudget();
+        return buffer;
+    }
+
+    private void enforceBudget() {
+        if (totalMessages.get() <= maxTotalMessages) {
+            return;
+        }
+        // Se libera hasta el 90% del presupuesto para no reordenar en cada envío
+        long target = maxTotalMessages * 9 / 10;
+        List<IdleCandidate> byAge = new ArrayList<>(buffers.size());
+        buffers.forEach((roomId, buffer) -> byAge.add(new IdleCandidate(roomId, buffer, buffer.getLastAccess())));
+        byAge.sort(Comparator.comparingLong(IdleCandidate::lastAccess));
+        for (IdleCandidate candidate : byAge) {
+            if (totalMessages.get() <= target) {
+                break;
+            }
+            evict(candidate.roomId(), candidate.buffer());
+        }
+    }
+
+    private record IdleCandidate(String roomId, RecentMessageBuffer buffer, long lastAccess) {
+    }
+}
@@ -0,0 +1,214 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publica los mensajes de una sala en {@code /topic/{roomId}}. Con la agrupación activada,
+ * una sala que supera {@code enter-rate} mensajes por segundo pasa a acumular los mensajes
+ * de chat durante {@code window-ms} y los envía como un único frame con un array JSON;
+ * vuelve al envío individual cuando el ritmo baja de {@code exit-rate}. Los mensajes que
+ * no son de chat (JOIN, LEAVE, SYSTEM) no esperan: vacían antes lo acumulado para
+ * conservar el orden. Los avisos SYSTEM y los mensajes del propietario de la sala llevan
+ * la cabecera {@link #PRIORITY_HEADER}, con la que la cola de salida de cada sesión los
+ * adelanta al resto (ver {@code chat.websocket.outbound.priority-lanes.enabled}).
+ */
+@Service
+public class RoomBroadcaster {
+
+    /** Cabecera STOMP con el tipo de mensaje (CHAT, JOIN, LEAVE, SYSTEM). */
+    public static final String TYPE_HEADER = "chat-type";
+    /** Cabecera STOMP con el id del último mensaje persistido que lleva el frame. */
+    public static final String LAST_ID_HEADER = "chat-last-id";
+    /** Cabecera STOMP presente ({@code high}) en los mensajes que adelantan al tráfico de chat. */
+    public static final String PRIORITY_HEADER = "chat-priority";
+    public static final String HIGH_PRIORITY = "high";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private RoomMetadataCache roomMetadataCache;
+
+    @Value("${chat.broadcast.coalescing.enabled:false}")
+    private boolean coalescingEnabled = false;
+
+    @Value("${chat.broadcast.coalescing.window-ms:50}")
+    private long windowMs = 50;
+
+    @Value("${chat.broadcast.coalescing.enter-rate:50}")
+    private int enterRate = 50;
+
+    @Value("${chat.broadcast.coalescing.exit-rate:20}")
+    private int exitRate = 20;
+
+    @Value("${chat.broadcast.coalescing.idle-seconds:120}")
+    private long idleSeconds = 120;
+
+    private RoomLanes<RoomLane> lanes;
+    private Counter batches;
+    private Counter batchedMessages;
+
+    @PostConstruct
+    void init() {
+        lanes = new RoomLanes<>("chat-coalesce", enterRate, exitRate);
+        batches = meterRegistry.counter("chat.broadcast.batches");
+        batchedMessages = meterRegistry.counter("chat.broadcast.batched.messages");
+        Gauge.builder("chat.broadcast.coalescing.rooms", lanes, RoomLanes::activeRooms).register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        lanes.shutdown();
+    }
+
+    public void broadcast(ChatMessage message) {
+        boolean priority = isPriority(message);
+        if (!coalescingEnabled) {
+            send(message.getRoomId(), message, message.getType(), message.getId(), priority);
+            return;
+        }
+        lanes.lane(message.getRoomId(), RoomLane::new).submit(message, priority);
+    }
+
+    /**
+     * Publica en orden varios mensajes de una misma sala. Los mensajes seguidos del mismo
+     * tipo y prioridad salen juntos en un frame con un array JSON, como un lote agrupado.
+     */
+    public void broadcastAll(String roomId, List<ChatMessage> messages) {
+        int start = 0;
+        boolean runPriority = false;
+        for (int i = 0; i < messages.size(); i++) {
+            boolean priority = isPriority(messages.get(i));
+            if (i > start && (priority != runPriority || messages.get(i).getType() != messages.get(start).getType())) {
+                publishRun(roomId, messages.subList(start, i), runPriority);
+                start = i;
+            }
+            runPriority = priority;
+        }
+        if (start < messages.size()) {
+            publishRun(roomId, messages.subList(start, messages.size()), runPriority);
+        }
+    }
+
+    public boolean isCoalescing(String roomId) {
+        return lanes.isActive(roomId);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.broadcast.coalescing.idle-check-ms:60000}")
+    public void evictIdle() {
+        lanes.evictIdle(idleSeconds);
+    }
+
+    @EventListener
+    public void onRoomClosed(RoomClosedEvent event) {
+        lanes.close(event.roomId());
+    }
+
+    // En una subasta lo que dice el propietario (puja aceptada, cierre inminente) no puede esperar tras el chat
+    private boolean isPriority(ChatMessage message) {
+        if (message.getType() == ChatMessage.MessageType.SYSTEM) {
+            return true;
+        }
+        return message.getType() == ChatMessage.MessageType.CHAT && message.getSenderId() != null
+                && roomMetadataCache.get(message.getRoomId())
+                        .map(room -> message.getSenderId().equals(room.ownerId()))
+                        .orElse(false);
+    }
+
+    private void publishRun(String roomId, List<ChatMessage> run, boolean priority) {
+        if (coalescingEnabled) {
+            lanes.lane(roomId, RoomLane::new).submitRun(run, priority);
+        } else {
+            sendRun(roomId, run, priority);
+        }
+    }
+
+    private void sendRun(String roomId, List<ChatMessage> run, boolean priority) {
+        ChatMessage last = run.get(run.size() - 1);
+        Object payload = run.size() == 1 ? last : new ArrayList<>(run);
+        send(roomId, payload, last.getType(), last.getId(), priority);
+    }
+
+    // Las cabeceras permiten a la cola de salida de cada sesión distinguir chat de avisos
+    private void send(String roomId, Object payload, ChatMessage.MessageType type, Long lastId, boolean priority) {
+        Map<String, Object> headers = new HashMap<>(4);
+        headers.put(TYPE_HEADER, type.name());
+        if (lastId != null) {
+            headers.put(LAST_ID_HEADER, lastId);
+        }
+        if (priority) {
+            headers.put(PRIORITY_HEADER, HIGH_PRIORITY);
+        }
+        messagingTemplate.convertAndSend("/topic/" + roomId, payload, headers);
+    }
+
+    private final class RoomLane extends RoomLanes.Lane {
+
+        private final String roomId;
+        private List<ChatMessage> pending = new ArrayList<>();
+
+        RoomLane(String roomId) {
+            super(lanes);
+            this.roomId = roomId;
+        }
+
+        synchronized void submit(ChatMessage message, boolean priority) {
+            boolean coalescing = recordEvent();
+            if (message.getType() != ChatMessage.MessageType.CHAT || priority) {
+                flushPending();
+                send(roomId, message, message.getType(), message.getId(), priority);
+                return;
+            }
+            // Mientras quede algo acumulado se sigue acumulando para no adelantarlo
+            if (!coalescing && pending.isEmpty()) {
+                send(roomId, message, message.getType(), message.getId(), false);
+                return;
+            }
+            pending.add(message);
+            scheduleFlush(windowMs);
+        }
+
+        // Un lote ya agrupado sale entero tras lo acumulado, sin esperar a la ventana
+        synchronized void submitRun(List<ChatMessage> run, boolean priority) {
+            recordEvent();
+            flushPending();
+            sendRun(roomId, run, priority);
+        }
+
+        @Override
+        protected boolean hasPending() {
+            return !pending.isEmpty();
+        }
+
+        @Override
+        protected void flushPending() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<ChatMessage> batch = pending;
+            pending = new ArrayList<>();
+            batches.increment();
+            batchedMessages.increment(batch.size());
+            send(roomId, batch, ChatMessage.MessageType.CHAT, batch.get(batch.size() - 1).getId(), false);
+        }
+    }
+}
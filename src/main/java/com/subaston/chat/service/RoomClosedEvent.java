@@ -0,0 +1,9 @@
+package com.subaston.chat.service;
+
+/**
+ * Se publica en este nodo cuando una sala deja de estar activa, ya sea porque se ha
+ * cerrado aquí o porque otro nodo la cerró. Cada componente con estado por sala libera
+ * lo suyo al recibirlo.
+ */
+public record RoomClosedEvent(String roomId) {
+}
@@ -0,0 +1,155 @@
+package com.subaston.chat.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Carriles por sala de los envíos que se acumulan cuando hay mucho tráfico: la agrupación
+ * de broadcasts ({@link RoomBroadcaster}) y el resumen de presencia ({@link PresenceDigest}).
+ * Cada carril pasa a acumular por encima de {@code enterRate} eventos por segundo y vuelve
+ * al envío suelto por debajo de {@code exitRate}; un único hilo vacía las ventanas y los
+ * carriles sin actividad se retiran con {@link #evictIdle}.
+ */
+class RoomLanes<L extends RoomLanes.Lane> {
+
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, L> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger activeRooms = new AtomicInteger();
+    private final ScheduledExecutorService flusher;
+    private final int enterRate;
+    private final int exitRate;
+
+    RoomLanes(String threadName, int enterRate, int exitRate) {
+        this.enterRate = enterRate;
+        this.exitRate = exitRate;
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    L lane(String roomId, Function<String, L> factory) {
+        return lanes.computeIfAbsent(roomId, factory);
+    }
+
+    boolean isActive(String roomId) {
+        L lane = lanes.get(roomId);
+        return lane != null && lane.isActive();
+    }
+
+    int activeRooms() {
+        return activeRooms.get();
+    }
+
+    void evictIdle(long idleSeconds) {
+        long threshold = System.nanoTime() - TimeUnit.SECONDS.toNanos(idleSeconds);
+        lanes.forEach((roomId, lane) -> {
+            if (lane.isIdleSince(threshold)) {
+                lanes.remove(roomId, lane);
+            }
+        });
+    }
+
+    // Lo acumulado se entrega antes de soltar la sala
+    void close(String roomId) {
+        L lane = lanes.remove(roomId);
+        if (lane != null) {
+            lane.close();
+        }
+    }
+
+    void shutdown() {
+        flusher.shutdown();
+        lanes.values().forEach(Lane::close);
+    }
+
+    /**
+     * Estado de una sala. Las subclases acumulan sus envíos bajo el lock del propio carril
+     * ({@code synchronized}) y los entregan en {@link #flushPending}.
+     */
+    abstract static class Lane {
+
+        private final RoomLanes<?> owner;
+        private boolean active;
+        private boolean flushScheduled;
+        private int windowCount;
+        private long windowStart = System.nanoTime();
+        private long lastActivity = windowStart;
+
+        protected Lane(RoomLanes<?> owner) {
+            this.owner = owner;
+        }
+
+        /** Hay envíos acumulados pendientes de entregar. */
+        protected abstract boolean hasPending();
+
+        /** Entrega lo acumulado; se llama con el lock del carril tomado. */
+        protected abstract void flushPending();
+
+        /**
+         * Cuenta un evento y actualiza el modo de la sala; se llama con el lock tomado.
+         *
+         * @return si la sala está acumulando
+         */
+        protected final boolean recordEvent() {
+            long now = System.nanoTime();
+            lastActivity = now;
+            windowCount++;
+            long elapsed = now - windowStart;
+            if (elapsed >= RATE_WINDOW_NANOS) {
+                double rate = windowCount * (double) RATE_WINDOW_NANOS / elapsed;
+                setActive(active ? rate >= owner.exitRate : rate >= owner.enterRate);
+                windowCount = 0;
+                windowStart = now;
+            } else if (!active && windowCount >= owner.enterRate) {
+                // Ráfaga: se alcanza el umbral antes de cerrar la ventana de un segundo
+                setActive(true);
+            }
+            return active;
+        }
+
+        /** Programa la entrega de lo acumulado dentro de {@code delayMs}, si no lo estaba ya. */
+        protected final void scheduleFlush(long delayMs) {
+            if (!flushScheduled) {
+                flushScheduled = true;
+                owner.flusher.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void flush() {
+            flushScheduled = false;
+            flushPending();
+        }
+
+        synchronized void close() {
+            flushPending();
+            setActive(false);
+        }
+
+        synchronized boolean isActive() {
+            return active;
+        }
+
+        synchronized boolean isIdleSince(long threshold) {
+            if (lastActivity >= threshold || hasPending()) {
+                return false;
+            }
+            setActive(false);
+            return true;
+        }
+
+        private void setActive(boolean value) {
+            if (active != value) {
+                active = value;
+                owner.activeRooms.addAndGet(value ? 1 : -1);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.repository.ChatRoomRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ciclo de vida de las salas. Los envíos y entradas solo anotan la hora en memoria; cada
+ * pasada vuelca esas horas a {@code chat_room.last_activity_at} en un único lote y
+ * desactiva las salas que llevan {@code idle-minutes} sin actividad en ningún nodo. Una
+ * sala también se puede cerrar a mano. Al cerrarse se avisa en la sala con un mensaje
+ * SYSTEM y se publica {@link RoomClosedEvent} para que cada componente libere su estado.
+ * Las salas que cierra otro nodo se detectan en la pasada siguiente y se liberan igual.
+ */
+@Service
+public class RoomLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(RoomLifecycle.class);
+
+    static final String TOUCH_SQL = "update chat_room set last_activity_at = ?"
+            + " where room_id = ? and (last_activity_at is null or last_activity_at < ?)";
+    // Salas anteriores a este mecanismo: cuentan el periodo de inactividad desde ahora
+    static final String SEED_SQL = "update chat_room set last_activity_at = ?"
+            + " where is_active = true and last_activity_at is null";
+    // Sube la versión: un cambio de permiso basado en la sala aún activa ya no se aplica
+    static final String DEACTIVATE_SQL = "update chat_room set is_active = false, version = version + 1"
+            + " where room_id = ? and is_active = true";
+    static final String DEACTIVATE_IDLE_SQL = DEACTIVATE_SQL + " and last_activity_at < ?";
+    private static final int LOOKUP_CHUNK = 500;
+
+    public enum Reason { CLOSED, IDLE }
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private RoomBroadcaster roomBroadcaster;
+
+    @Autowired
+    private RoomLocks roomLocks;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.room-lifecycle.idle-deactivation.enabled:true}")
+    private boolean idleDeactivationEnabled = true;
+
+    @Value("${chat.room-lifecycle.idle-minutes:1440}")
+    private long idleMinutes = 1440;
+
+    @Value("${chat.room-lifecycle.rooms-per-run:100}")
+    private int roomsPerRun = 100;
+
+    // Horas de actividad aún sin volcar y salas con estado en este nodo
+    private final Map<String, LocalDateTime> pendingActivity = new ConcurrentHashMap<>();
+    private final Set<String> localRooms = ConcurrentHashMap.newKeySet();
+    private Counter closedByOwner;
+    private Counter closedIdle;
+
+    @PostConstruct
+    void init() {
+        closedByOwner = meterRegistry.counter("chat.room-lifecycle.closed", "reason", "closed");
+        closedIdle = meterRegistry.counter("chat.room-lifecycle.closed", "reason", "idle");
+        Gauge.builder("chat.room-lifecycle.local.rooms", localRooms, Set::size).register(meterRegistry);
+    }
+
+    // Solo con salas ya resueltas: un roomId inventado quedaría registrado en este nodo
+    public void touch(String roomId) {
+        pendingActivity.put(roomId, LocalDateTime.now());
+        localRooms.add(roomId);
+    }
+
+    /**
+     * Desactiva la sala si sigue activa y libera su estado en este nodo.
+     *
+     * @return {@code false} si la sala ya estaba inactiva o no existe
+     */
+    public boolean close(String roomId, Reason reason) {
+        if (jdbcTemplate.update(DEACTIVATE_SQL, roomId) == 0) {
+            return false;
+        }
+        closed(roomId, reason);
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${chat.room-lifecycle.check-interval-ms:60000}")
+    public void sweep() {
+        try {
+            flushActivity();
+            if (idleDeactivationEnabled) {
+                deactivateIdle();
+            }
+            releaseClosedElsewhere();
+        } catch (RuntimeException e) {
+            log.warn("Room lifecycle sweep failed, retrying on the next run", e);
+        }
+    }
+
+    void flushActivity() {
+        List<Object[]> batch = new ArrayList<>();
+        for (Map.Entry<String, LocalDateTime> entry : pendingActivity.entrySet()) {
+            // remove(key, value): una actividad posterior queda para la siguiente pasada
+            if (pendingActivity.remove(entry.getKey(), entry.getValue())) {
+                Timestamp at = Timestamp.valueOf(entry.getValue());
+                batch.add(new Object[]{at, entry.getKey(), at});
+            }
+        }
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate(TOUCH_SQL, batch);
+        }
+    }
+
+    private void deactivateIdle() {
+        jdbcTemplate.update(SEED_SQL, Timestamp.valueOf(LocalDateTime.now()));
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(idleMinutes);
+        for (String roomId : chatRoomRepository.findIdleRoomIds(cutoff, PageRequest.of(0, roomsPerRun))) {
+            // La condición se repite en el update: otro nodo pudo volcar actividad entre medias
+            if (jdbcTemplate.update(DEACTIVATE_IDLE_SQL, roomId, Timestamp.valueOf(cutoff)) > 0) {
+                closed(roomId, Reason.IDLE);
+            }
+        }
+    }
+
+    private void releaseClosedElsewhere() {
+        List<String> rooms = new ArrayList<>(localRooms);
+        for (int from = 0; from < rooms.size(); from += LOOKUP_CHUNK) {
+            List<String> chunk = rooms.subList(from, Math.min(rooms.size(), from + LOOKUP_CHUNK));
+            chatRoomRepository.findInactiveRoomIds(chunk).forEach(this::release);
+        }
+    }
+
+    private void closed(String roomId, Reason reason) {
+        (reason == Reason.IDLE ? closedIdle : closedByOwner).increment();
+        log.info("Room {} deactivated ({})", roomId, reason);
+        roomLocks.withRoomLock(roomId, () -> {
+            // El aviso sale antes de liberar el canal de la sala y llega también a los demás nodos
+            ChatMessage notice = new ChatMessage();
+            notice.setType(ChatMessage.MessageType.SYSTEM);
+            notice.setRoomId(roomId);
+            notice.setTimestamp(LocalDateTime.now());
+            notice.setContent(reason == Reason.IDLE
+                    ? "La sala se ha cerrado por inactividad"
+                    : "La sala se ha cerrado");
+            roomBroadcaster.broadcast(notice);
+            release(roomId);
+            return null;
+        });
+    }
+
+    private void release(String roomId) {
+        // Bajo el lock de la sala: no se libera a mitad de un envío que ya pasó la comprobación
+        roomLocks.withRoomLock(roomId, () -> {
+            pendingActivity.remove(roomId);
+            localRooms.remove(roomId);
+            eventPublisher.publishEvent(new RoomClosedEvent(roomId));
+            return null;
+        });
+    }
+}
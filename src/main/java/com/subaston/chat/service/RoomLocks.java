@@ -0,0 +1,61 @@
+package com.subaston.chat.service;
+
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Serializa por sala el tramo "sellar, persistir y publicar" de un mensaje, de modo que
+ * el orden en que se publican los mensajes de una sala coincide con el de sus ids y
+ * timestamps aunque los frames se procesen en paralelo. Usa un número fijo de locks
+ * repartidos por hash (memoria constante) y ReentrantLock para no fijar hilos virtuales.
+ */
+@Service
+public class RoomLocks {
+
+    private static final int STRIPES = 1024;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    public RoomLocks() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public <T> T withRoomLock(String roomId, Supplier<T> action) {
+        ReentrantLock lock = locks[Math.floorMod(roomId.hashCode(), STRIPES)];
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Toma a la vez los locks de varias salas, en orden de índice para que dos llamadas
+     * concurrentes con salas en común no se bloqueen entre sí.
+     */
+    public <T> T withRoomLocks(Collection<String> roomIds, Supplier<T> action) {
+        int[] stripes = roomIds.stream()
+                .mapToInt(roomId -> Math.floorMod(roomId.hashCode(), STRIPES))
+                .distinct()
+                .sorted()
+                .toArray();
+        int held = 0;
+        try {
+            for (int stripe : stripes) {
+                locks[stripe].lock();
+                held++;
+            }
+            return action.get();
+        } finally {
+            for (int i = held - 1; i >= 0; i--) {
+                locks[stripes[i]].unlock();
+            }
+        }
+    }
+}
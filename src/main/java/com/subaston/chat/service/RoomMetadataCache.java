@@ -0,0 +1,105 @@
+package com.subaston.chat.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.subaston.chat.model.ChatRoom;
+import com.subaston.chat.model.RoomMetadata;
+import com.subaston.chat.repository.ChatRoomRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Caché acotada de los datos de sala que necesita la ruta de envío (propietario,
+ * permiso de escritura, estado), para no consultar la base de datos en cada mensaje.
+ * Las entradas caducan por TTL y se invalidan explícitamente cuando la sala cambia.
+ */
+@Service
+public class RoomMetadataCache {
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.room-cache.max-size:10000}")
+    private long maxSize = 10000;
+
+    @Value("${chat.room-cache.ttl-seconds:60}")
+    private long ttlSeconds = 60;
+
+    private Cache<String, RoomMetadata> cache;
+
+    @PostConstruct
+    void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "chat.room-metadata");
+    }
+
+    public Optional<RoomMetadata> get(String roomId) {
+        if (roomId == null) {
+            return Optional.empty();
+        }
+        // Las salas inexistentes no se cachean: el loader devuelve null
+        return Optional.ofNullable(cache.get(roomId, id -> chatRoomRepository.findByRoomId(id)
+                .map(RoomMetadata::from)
+                .orElse(null)));
+    }
+
+    // Sin ir a la base de datos: vacío si la sala no está en caché
+    public Optional<RoomMetadata> getIfPresent(String roomId) {
+        return roomId == null ? Optional.empty() : Optional.ofNullable(cache.getIfPresent(roomId));
+    }
+
+    /**
+     * Datos de varias salas; las que no están en caché se leen juntas con una sola
+     * consulta {@code IN}. Las salas inexistentes no aparecen en el resultado.
+     */
+    public Map<String, RoomMetadata> getAll(Collection<String> roomIds) {
+        return cache.getAll(roomIds, missing -> chatRoomRepository.findByRoomIdIn(Set.copyOf(missing)).stream()
+                .map(RoomMetadata::from)
+                .collect(Collectors.toMap(RoomMetadata::roomId, Function.identity())));
+    }
+
+    public void put(ChatRoom room) {
+        cache.put(room.getRoomId(), RoomMetadata.from(room));
+    }
+
+    // Sin releer la sala; una versión anterior que llegue tarde no pisa a la más reciente
+    public void put(RoomMetadata metadata) {
+        cache.asMap().merge(metadata.roomId(), metadata,
+                (current, updated) -> updated.version() >= current.version() ? updated : current);
+    }
+
+    public void invalidate(String roomId) {
+        cache.invalidate(roomId);
+    }
+
+    // La siguiente consulta vuelve a leer la sala, ya inactiva, de la base de datos
+    @EventListener
+    public void onRoomClosed(RoomClosedEvent event) {
+        invalidate(event.roomId());
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,94 @@
+package com.subaston.chat.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Numeración creciente de los mensajes de cada sala. Cada nodo reserva bloques de
+ * {@code block-size} números subiendo {@code chat_room.seq_high_water} en una sola
+ * sentencia, y los reparte desde memoria; solo se consulta la base de datos al agotar
+ * el bloque. Se llama con el lock de la sala tomado, así que en un nodo el orden de los
+ * números coincide con el de publicación. Los números de un bloque que no se llega a
+ * usar (reinicio, sala liberada, inserción fallida) quedan como hueco: no faltan
+ * mensajes en ellos.
+ * <p>
+ * Con varios nodos ({@code chat.relay.mode} distinto de none) cada uno reparte su propio
+ * bloque, así que los números de una sala son únicos pero solo siguen el orden de
+ * publicación dentro de cada nodo: entre nodos se intercalan (A publica 1, 2 mientras B
+ * publica 101, 102) y el cliente los ve fuera de orden. Un salto de secuencia no implica entonces un mensaje
+ * perdido; el cliente que pide el rango por {@code /messages/range} puede recibir menos
+ * mensajes de los que abarca. Con {@code block-size=1} cada mensaje reserva su número
+ * en la base de datos y los huecos se limitan a las inserciones fallidas.
+ */
+@Service
+public class RoomSequencer {
+
+    static final String RESERVE_SQL = "update chat_room set seq_high_water = coalesce(seq_high_water,"
+            + " (select coalesce(max(m.seq), 0) from chat_message m where m.room_id = ?)) + ? where room_id = ?";
+    static final String HIGH_WATER_SQL = "select max(seq_high_water) from chat_room where room_id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${chat.sequence.block-size:100}")
+    private int blockSize = 100;
+
+    private final Map<String, Block> blocks = new ConcurrentHashMap<>();
+
+    public long next(String roomId) {
+        Block block = blocks.computeIfAbsent(roomId, id -> new Block());
+        block.lock.lock();
+        try {
+            if (block.next > block.upperBound) {
+                long high = reserve(roomId);
+                block.next = high - blockSize + 1;
+                block.upperBound = high;
+            }
+            return block.next++;
+        } finally {
+            block.lock.unlock();
+        }
+    }
+
+    public void release(String roomId) {
+        blocks.remove(roomId);
+    }
+
+    @EventListener
+    public void onRoomClosed(RoomClosedEvent event) {
+        release(event.roomId());
+    }
+
+    private long reserve(String roomId) {
+        // El update bloquea la fila de la sala hasta el commit: dos nodos nunca reciben el mismo bloque
+        Long high = transactionTemplate.execute(status -> {
+            int updated = jdbcTemplate.update(RESERVE_SQL, roomId, blockSize, roomId);
+            if (updated == 0) {
+                throw new IllegalArgumentException("Room not found: " + roomId);
+            }
+            return jdbcTemplate.queryForObject(HIGH_WATER_SQL, Long.class, roomId);
+        });
+        if (high == null) {
+            throw new IllegalStateException("No sequence block reserved for room " + roomId);
+        }
+        return high;
+    }
+
+    // ReentrantLock y no synchronized: la reserva consulta la base de datos y no debe fijar hilos virtuales
+    private static final class Block {
+        private final ReentrantLock lock = new ReentrantLock();
+        private long next;
+        private long upperBound = -1;
+    }
+}
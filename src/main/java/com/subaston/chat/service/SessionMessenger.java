@@ -0,0 +1,31 @@
+package com.subaston.chat.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Envía mensajes a una única sesión STOMP. El cliente se suscribe a
+ * {@code /user/queue/...} y el broker lo resuelve por id de sesión, así que
+ * funciona también con sesiones sin usuario autenticado.
+ */
+@Service
+public class SessionMessenger {
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    public void sendToSession(String sessionId, String destination, Object payload) {
+        messagingTemplate.convertAndSendToUser(sessionId, destination, payload, sessionHeaders(sessionId));
+    }
+
+    private MessageHeaders sessionHeaders(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setLeaveMutable(true);
+        return accessor.getMessageHeaders();
+    }
+}
@@ -0,0 +1,37 @@
+package com.subaston.chat.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket sin locks en forma GCRA: en vez de tokens y marca de recarga guarda un
+ * único instante teórico de llegada, de modo que una sola CAS basta para consumir.
+ * Con {@code intervalNanos} entre tokens y capacidad {@code burst} admite ráfagas de
+ * {@code burst} peticiones y luego una cada intervalo.
+ */
+class TokenBucket {
+
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong nextNotice = new AtomicLong(Long.MIN_VALUE);
+
+    boolean tryAcquire(long now, long intervalNanos, int burst) {
+        long tolerance = intervalNanos * (burst - 1);
+        while (true) {
+            long current = theoreticalArrival.get();
+            long base = current == Long.MIN_VALUE ? now : Math.max(current, now);
+            if (base - now > tolerance) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(current, base + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true como mucho una vez por {@code periodNanos}, para no responder a cada rechazo
+     */
+    boolean shouldNotify(long now, long periodNanos) {
+        long next = nextNotice.get();
+        return (next == Long.MIN_VALUE || now - next >= 0) && nextNotice.compareAndSet(next, now + periodNanos);
+    }
+}
@@ -0,0 +1,128 @@
+package com.subaston.chat.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.repository.MessageStore;
+import com.subaston.chat.service.archive.MessageArchive;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Transcripción completa de una sala en NDJSON (un mensaje JSON por línea, en orden de
+ * id). Los mensajes se escriben según se leen del almacén o del archivo, así que la
+ * memoria no depende del tamaño de la sala; para reanudar basta con pedir desde el id
+ * de la última línea recibida. Cada exportación en curso ocupa una conexión del pool
+ * durante toda la descarga, por eso hay un máximo de exportaciones simultáneas.
+ */
+@Service
+public class TranscriptExporter {
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.export.fetch-size:500}")
+    private int fetchSize = 500;
+
+    @Value("${chat.export.max-concurrent:2}")
+    private int maxConcurrent = 2;
+
+    private Semaphore permits;
+    private ObjectWriter writer;
+    private Counter exportedMessages;
+
+    @PostConstruct
+    void init() {
+        permits = new Semaphore(maxConcurrent);
+        // Se vuelca al final de cada tanda del buffer, no tras cada mensaje
+        writer = objectMapper.writerFor(ChatMessage.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        exportedMessages = meterRegistry.counter("chat.export.messages");
+    }
+
+    /**
+     * Reserva un hueco para una exportación; quien lo obtiene debe cerrarlo al terminar,
+     * también si la descarga no llega a empezar.
+     *
+     * @return vacío si ya hay {@code max-concurrent} exportaciones en curso
+     */
+    public Optional<Reservation> tryReserve() {
+        return permits.tryAcquire() ? Optional.of(new Reservation()) : Optional.empty();
+    }
+
+    /**
+     * Escribe en {@code out} los mensajes posteriores a {@code afterId}. No cierra {@code out}.
+     *
+     * @return número de mensajes escritos
+     */
+    public long export(String roomId, long afterId, OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            long[] count = new long[1];
+            Consumer<ChatMessage> line = message -> {
+                try {
+                    writer.writeValue(generator, message);
+                    generator.writeRaw('\n');
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            try {
+                if (messageArchive.isArchived(roomId)) {
+                    messageArchive.forEachAfter(roomId, afterId, line);
+                } else {
+                    messageStore.forEachAfter(roomId, afterId, fetchSize, line);
+                }
+            } catch (UncheckedIOException e) {
+                // Normalmente el cliente cortó la descarga: se propaga la IOException original
+                throw e.getCause();
+            } finally {
+                exportedMessages.increment(count[0]);
+            }
+            generator.flush();
+            return count[0];
+        }
+    }
+
+    /**
+     * Hueco de exportación reservado. Cerrarlo más de una vez no tiene efecto, así que se
+     * puede cerrar a la vez desde la descarga y desde el fin de la petición asíncrona.
+     */
+    public final class Reservation implements AutoCloseable {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation() {
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+    }
+}
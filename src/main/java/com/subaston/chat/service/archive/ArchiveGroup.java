@@ -0,0 +1,18 @@
+package com.subaston.chat.service.archive;
+
+/**
+ * Entrada del pie de un fichero de archivo: dónde empieza un grupo de filas comprimido,
+ * cuántos mensajes tiene y el rango de ids y seq que contiene, para leer solo los grupos
+ * que una consulta necesita. {@code minSeq} y {@code maxSeq} valen Long.MIN_VALUE si
+ * ningún mensaje del grupo tiene secuencia.
+ */
+record ArchiveGroup(long offset, int length, int count, long minId, long maxId, long minSeq, long maxSeq) {
+
+    boolean mayContainId(long id) {
+        return id >= minId && id <= maxId;
+    }
+
+    boolean overlapsSeq(long fromSeq, long toSeq) {
+        return minSeq != Long.MIN_VALUE && maxSeq >= fromSeq && minSeq <= toSeq;
+    }
+}
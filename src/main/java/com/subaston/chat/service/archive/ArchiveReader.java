@@ -0,0 +1,179 @@
+package com.subaston.chat.service.archive;
+
+import com.subaston.chat.model.ChatMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Lee un fichero escrito por {@link ArchiveWriter}. Al abrirlo solo se carga el pie;
+ * cada grupo se lee y descomprime por separado cuando se pide, así que una página de
+ * historial descomprime uno o dos grupos y no el fichero entero.
+ */
+final class ArchiveReader implements AutoCloseable {
+
+    private static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+    private static final ChatMessage.MessageType[] TYPES = ChatMessage.MessageType.values();
+
+    private final FileChannel channel;
+    private final String roomId;
+    private final List<ArchiveGroup> groups;
+
+    ArchiveReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer trailer = read(size - TRAILER_BYTES, TRAILER_BYTES);
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != ArchiveWriter.MAGIC) {
+                throw new IOException("Not a complete chat archive: " + path);
+            }
+            try (DataInputStream header = stream(read(0, (int) Math.min(size, 4 + 2 + 65535)))) {
+                header.readInt();
+                this.roomId = header.readUTF();
+            }
+            ByteBuffer footer = read(footerOffset, (int) (size - TRAILER_BYTES - footerOffset));
+            int count = footer.getInt();
+            List<ArchiveGroup> loaded = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                loaded.add(new ArchiveGroup(footer.getLong(), footer.getInt(), footer.getInt(),
+                        footer.getLong(), footer.getLong(), footer.getLong(), footer.getLong()));
+            }
+            this.groups = List.copyOf(loaded);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    String roomId() {
+        return roomId;
+    }
+
+    List<ArchiveGroup> groups() {
+        return groups;
+    }
+
+    long maxId() {
+        return groups.stream().mapToLong(ArchiveGroup::maxId).max().orElse(0);
+    }
+
+    /**
+     * Mensajes del grupo {@code index} en el orden en que se archivaron.
+     */
+    List<ChatMessage> readGroup(int index) throws IOException {
+        ArchiveGroup group = groups.get(index);
+        ByteBuffer compressed = read(group.offset(), group.length());
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(compressed.array(), 0, compressed.limit())))) {
+            return decodeColumns(in);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<ChatMessage> decodeColumns(DataInputStream in) throws IOException {
+        int count = (int) readVarLong(in);
+        List<ChatMessage> messages = new ArrayList<>(count);
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            ChatMessage message = new ChatMessage();
+            previous += unZigZag(readVarLong(in));
+            message.setId(previous);
+            message.setRoomId(roomId);
+            messages.add(message);
+        }
+
+        previous = 0;
+        for (ChatMessage message : messages) {
+            long encoded = readVarLong(in);
+            if (encoded != 0) {
+                previous += unZigZag(encoded - 1);
+                message.setSeq(previous);
+            }
+        }
+
+        LocalDateTime epoch = LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC);
+        previous = 0;
+        for (ChatMessage message : messages) {
+            long encoded = readVarLong(in);
+            if (encoded != 0) {
+                previous += unZigZag(encoded - 1);
+                message.setTimestamp(epoch.plusNanos(Math.multiplyExact(previous, 1000L)));
+            }
+        }
+
+        for (ChatMessage message : messages) {
+            byte type = in.readByte();
+            message.setType(type < 0 ? null : TYPES[type]);
+        }
+
+        int senderCount = (int) readVarLong(in);
+        String[] senders = new String[senderCount + 1];
+        for (int i = 1; i <= senderCount; i++) {
+            senders[i] = readString(in);
+        }
+        for (ChatMessage message : messages) {
+            message.setSenderId(senders[(int) readVarLong(in)]);
+        }
+
+        for (ChatMessage message : messages) {
+            message.setContent(readString(in));
+        }
+        return messages;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        long encoded = readVarLong(in);
+        if (encoded == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) (encoded - 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in chat archive");
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of chat archive");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static DataInputStream stream(ByteBuffer buffer) {
+        return new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, buffer.limit()));
+    }
+}
@@ -0,0 +1,211 @@
+package com.subaston.chat.service.archive;
+
+import com.subaston.chat.model.ChatMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Escribe el historial de una sala en un fichero de archivo. Los mensajes se agrupan de
+ * {@code groupSize} en {@code groupSize} y cada grupo se guarda por columnas (ids,
+ * secuencias y timestamps como deltas varint, tipos, emisores por diccionario y
+ * contenidos) comprimido con deflate. Al cerrar se escribe el pie con un
+ * {@link ArchiveGroup} por grupo y, al final, la posición del pie.
+ * <pre>
+ * int MAGIC | utf sala | grupo... | int nº grupos | grupo del pie... | long posición del pie | int MAGIC
+ * </pre>
+ */
+final class ArchiveWriter implements AutoCloseable {
+
+    static final int MAGIC = 0x43485a31;
+    static final long NO_SEQ = Long.MIN_VALUE;
+
+    private final FileChannel channel;
+    private final int groupSize;
+    private final List<ChatMessage> pending;
+    private final List<ArchiveGroup> groups = new ArrayList<>();
+    private long written;
+
+    ArchiveWriter(Path path, String roomId, int groupSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.groupSize = groupSize;
+        this.pending = new ArrayList<>(groupSize);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(header)) {
+            out.writeInt(MAGIC);
+            out.writeUTF(roomId);
+        }
+        write(header.toByteArray());
+    }
+
+    void append(ChatMessage message) throws IOException {
+        pending.add(message);
+        if (pending.size() == groupSize) {
+            flushGroup();
+        }
+    }
+
+    long messageCount() {
+        return groups.stream().mapToLong(ArchiveGroup::count).sum() + pending.size();
+    }
+
+    /**
+     * Cierra el fichero dejándolo completo y volcado a disco.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushGroup();
+            long footerOffset = written;
+            ByteArrayOutputStream footer = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(footer)) {
+                out.writeInt(groups.size());
+                for (ArchiveGroup group : groups) {
+                    out.writeLong(group.offset());
+                    out.writeInt(group.length());
+                    out.writeInt(group.count());
+                    out.writeLong(group.minId());
+                    out.writeLong(group.maxId());
+                    out.writeLong(group.minSeq());
+                    out.writeLong(group.maxSeq());
+                }
+                out.writeLong(footerOffset);
+                out.writeInt(MAGIC);
+            }
+            write(footer.toByteArray());
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flushGroup() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(compressed))) {
+            encodeColumns(out, pending);
+        }
+        long minId = Long.MAX_VALUE;
+        long maxId = Long.MIN_VALUE;
+        long minSeq = Long.MAX_VALUE;
+        long maxSeq = NO_SEQ;
+        for (ChatMessage message : pending) {
+            minId = Math.min(minId, message.getId());
+            maxId = Math.max(maxId, message.getId());
+            if (message.getSeq() != null) {
+                minSeq = Math.min(minSeq, message.getSeq());
+                maxSeq = Math.max(maxSeq, message.getSeq());
+            }
+        }
+        byte[] bytes = compressed.toByteArray();
+        groups.add(new ArchiveGroup(written, bytes.length, pending.size(), minId, maxId,
+                maxSeq == NO_SEQ ? NO_SEQ : minSeq, maxSeq));
+        write(bytes);
+        pending.clear();
+    }
+
+    private static void encodeColumns(DataOutputStream out, List<ChatMessage> messages) throws IOException {
+        writeVarLong(out, messages.size());
+
+        long previous = 0;
+        for (ChatMessage message : messages) {
+            writeVarLong(out, zigZag(message.getId() - previous));
+            previous = message.getId();
+        }
+
+        previous = 0;
+        for (ChatMessage message : messages) {
+            previous = writeNullableDelta(out, message.getSeq(), previous);
+        }
+
+        previous = 0;
+        for (ChatMessage message : messages) {
+            LocalDateTime timestamp = message.getTimestamp();
+            Long micros = timestamp == null ? null
+                    : ChronoUnit.MICROS.between(LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC), timestamp);
+            previous = writeNullableDelta(out, micros, previous);
+        }
+
+        for (ChatMessage message : messages) {
+            out.writeByte(message.getType() == null ? -1 : message.getType().ordinal());
+        }
+
+        // En una sala escriben pocos usuarios: cada emisor se guarda una vez
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> senders = new ArrayList<>();
+        int[] senderIndexes = new int[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            String sender = messages.get(i).getSenderId();
+            senderIndexes[i] = sender == null ? 0 : dictionary.computeIfAbsent(sender, key -> {
+                senders.add(key);
+                return senders.size();
+            });
+        }
+        writeVarLong(out, senders.size());
+        for (String sender : senders) {
+            writeBytes(out, sender);
+        }
+        for (int index : senderIndexes) {
+            writeVarLong(out, index);
+        }
+
+        for (ChatMessage message : messages) {
+            writeBytes(out, message.getContent());
+        }
+    }
+
+    private static long writeNullableDelta(DataOutputStream out, Long value, long previous) throws IOException {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return previous;
+        }
+        writeVarLong(out, zigZag(value - previous) + 1);
+        return value;
+    }
+
+    // Longitud + 1 (0 es null) y bytes UTF-8
+    private static void writeBytes(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.subaston.chat.service.archive;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.RoomMetadata;
+import com.subaston.chat.service.RoomMetadataCache;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Historial de las salas archivadas por {@link RoomArchiver}: un fichero comprimido por
+ * sala en {@code chat.archive.directory}. Responde las mismas consultas que el historial
+ * activo, en orden cronológico, descomprimiendo solo los grupos de filas necesarios.
+ * Las salas archivadas son de solo lectura. Que una sala está archivada lo dice
+ * {@code ChatRoom.archivedAt}, no el directorio: el directorio es local, así que el
+ * archivo solo funciona con un único nodo ({@link RoomArchiver} lo comprueba al arrancar).
+ */
+@Service
+public class MessageArchive {
+
+    static final String EXTENSION = ".chz";
+
+    @Autowired
+    private RoomMetadataCache roomMetadataCache;
+
+    @Value("${chat.archive.directory:data/chat-archive}")
+    private String directory = "data/chat-archive";
+
+    private Path root;
+
+    @PostConstruct
+    void init() {
+        root = Path.of(directory);
+    }
+
+    public boolean isArchived(String roomId) {
+        return roomMetadataCache.get(roomId).map(RoomMetadata::archived).orElse(false);
+    }
+
+    public List<ChatMessage> getAll(String roomId) {
+        try (ArchiveReader reader = open(roomId)) {
+            List<ChatMessage> messages = new ArrayList<>();
+            for (int i = 0; i < reader.groups().size(); i++) {
+                messages.addAll(reader.readGroup(i));
+            }
+            return messages;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read archived room " + roomId, e);
+        }
+    }
+
+    /**
+     * Entrega en orden de id los mensajes posteriores a {@code afterId}, descomprimiendo
+     * un grupo cada vez.
+     */
+    public void forEachAfter(String roomId, long afterId, Consumer<ChatMessage> action) {
+        try (ArchiveReader reader = open(roomId)) {
+            for (int i = 0; i < reader.groups().size(); i++) {
+                if (reader.groups().get(i).maxId() <= afterId) {
+                    continue;
+                }
+                for (ChatMessage message : reader.readGroup(i)) {
+                    if (message.getId() > afterId) {
+                        action.accept(message);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read archived room " + roomId, e);
+        }
+    }
+
+    /**
+     * Misma semántica que {@code ChatService.getRoomMessages}: sin cursor los más
+     * recientes, con {@code before} la página anterior y con {@code after} la siguiente.
+     */
+    public List<ChatMessage> getPage(String roomId, Long before, Long after, int limit) {
+        try (ArchiveReader reader = open(roomId)) {
+            if (after != null) {
+                return pageAfter(reader, after, limit);
+            }
+            int groupCount = reader.groups().size();
+            if (before == null) {
+                return pageBefore(reader, groupCount - 1, Integer.MAX_VALUE, limit);
+            }
+            Location anchor = locate(reader, before);
+            return anchor == null ? pageBeforeId(reader, before, limit)
+                    : pageBefore(reader, anchor.group(), anchor.index(), limit);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read archived room " + roomId, e);
+        }
+    }
+
+    public List<ChatMessage> getBySeqRange(String roomId, long fromSeq, long toSeq, int limit) {
+        try (ArchiveReader reader = open(roomId)) {
+            List<ChatMessage> matches = new ArrayList<>();
+            for (int i = 0; i < reader.groups().size(); i++) {
+                if (!reader.groups().get(i).overlapsSeq(fromSeq, toSeq)) {
+                    continue;
+                }
+                for (ChatMessage message : reader.readGroup(i)) {
+                    if (message.getSeq() != null && message.getSeq() >= fromSeq && message.getSeq() <= toSeq) {
+                        matches.add(message);
+                    }
+                }
+            }
+            matches.sort(Comparator.comparing(ChatMessage::getSeq));
+            return matches.subList(0, Math.min(limit, matches.size()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read archived room " + roomId, e);
+        }
+    }
+
+    Path pathOf(String roomId) {
+        return root.resolve(URLEncoder.encode(roomId, StandardCharsets.UTF_8) + EXTENSION);
+    }
+
+    Path createDirectory() throws IOException {
+        return Files.createDirectories(root);
+    }
+
+    boolean hasFile(String roomId) {
+        return Files.exists(pathOf(roomId));
+    }
+
+    long maxArchivedId(String roomId) throws IOException {
+        try (ArchiveReader reader = open(roomId)) {
+            return reader.maxId();
+        }
+    }
+
+    private ArchiveReader open(String roomId) throws IOException {
+        return new ArchiveReader(pathOf(roomId));
+    }
+
+    private List<ChatMessage> pageAfter(ArchiveReader reader, long afterId, int limit) throws IOException {
+        Location anchor = locate(reader, afterId);
+        if (anchor == null) {
+            return pageAfterId(reader, afterId, limit);
+        }
+        List<ChatMessage> page = new ArrayList<>(limit);
+        List<ChatMessage> group = anchor.messages();
+        int from = anchor.index() + 1;
+        for (int g = anchor.group(); g < reader.groups().size() && page.size() < limit; g++) {
+            if (g != anchor.group()) {
+                group = reader.readGroup(g);
+                from = 0;
+            }
+            page.addAll(group.subList(from, Math.min(group.size(), from + limit - page.size())));
+        }
+        return page;
+    }
+
+    // Los limit mensajes anteriores a la posición (grupo, índice), en orden cronológico
+    private List<ChatMessage> pageBefore(ArchiveReader reader, int group, int index, int limit) throws IOException {
+        List<List<ChatMessage>> newestFirst = new ArrayList<>();
+        int collected = 0;
+        for (int g = group; g >= 0 && collected < limit; g--) {
+            List<ChatMessage> messages = reader.readGroup(g);
+            int to = g == group ? Math.min(index, messages.size()) : messages.size();
+            int from = Math.max(0, to - (limit - collected));
+            newestFirst.add(messages.subList(from, to));
+            collected += to - from;
+        }
+        List<ChatMessage> page = new ArrayList<>(collected);
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            page.addAll(newestFirst.get(i));
+        }
+        return page;
+    }
+
+    // Ancla que no está en el archivo: el propio id hace de límite, como en el historial activo
+    private List<ChatMessage> pageAfterId(ArchiveReader reader, long afterId, int limit) throws IOException {
+        List<ChatMessage> page = new ArrayList<>(limit);
+        for (int g = 0; g < reader.groups().size() && page.size() < limit; g++) {
+            if (reader.groups().get(g).maxId() <= afterId) {
+                continue;
+            }
+            for (ChatMessage message : reader.readGroup(g)) {
+                if (message.getId() > afterId && page.size() < limit) {
+                    page.add(message);
+                }
+            }
+        }
+        return page;
+    }
+
+    private List<ChatMessage> pageBeforeId(ArchiveReader reader, long beforeId, int limit) throws IOException {
+        List<ChatMessage> newestFirst = new ArrayList<>(limit);
+        for (int g = reader.groups().size() - 1; g >= 0 && newestFirst.size() < limit; g--) {
+            if (reader.groups().get(g).minId() >= beforeId) {
+                continue;
+            }
+            List<ChatMessage> messages = reader.readGroup(g);
+            for (int i = messages.size() - 1; i >= 0 && newestFirst.size() < limit; i--) {
+                if (messages.get(i).getId() < beforeId) {
+                    newestFirst.add(messages.get(i));
+                }
+            }
+        }
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    private Location locate(ArchiveReader reader, long id) throws IOException {
+        List<ArchiveGroup> groups = reader.groups();
+        for (int g = 0; g < groups.size(); g++) {
+            if (!groups.get(g).mayContainId(id)) {
+                continue;
+            }
+            List<ChatMessage> messages = reader.readGroup(g);
+            for (int i = 0; i < messages.size(); i++) {
+                if (messages.get(i).getId() == id) {
+                    return new Location(g, i, messages);
+                }
+            }
+        }
+        return null;
+    }
+
+    private record Location(int group, int index, List<ChatMessage> messages) {
+    }
+}
@@ -0,0 +1,208 @@
+package com.subaston.chat.service.archive;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.ChatRoom;
+import com.subaston.chat.repository.ChatMessageRepository;
+import com.subaston.chat.repository.ChatRoomRepository;
+import com.subaston.chat.service.RecentMessageBuffers;
+import com.subaston.chat.service.RoomLocks;
+import com.subaston.chat.service.RoomMetadataCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Saca de {@code chat_message} el historial de las salas inactivas. Por cada sala
+ * escribe un fichero de archivo ({@link ArchiveWriter}) leyendo por páginas de
+ * {@code read-page-size}, lo publica con un rename atómico y marca la sala como
+ * archivada; desde ese momento el historial se lee del fichero. El fichero y el borrado
+ * se limitan al id máximo de la sala tomado con su lock; si al publicar (de nuevo con el
+ * lock) la sala tiene filas que no están en el fichero, se descarta y se reintenta en la
+ * siguiente pasada. Después borra las filas hasta ese id en lotes de
+ * {@code delete-batch-size}, cada uno en su propia transacción, para no bloquear la
+ * tabla. Si el borrado se interrumpe, la siguiente pasada lo termina.
+ * Solo tiene sentido con chat.storage.backend=jpa. Los ficheros quedan en un directorio
+ * local, así que con varios nodos los demás no podrían leer el historial archivado: el
+ * arranque falla si está activado junto con {@code chat.relay.mode} distinto de none.
+ */
+@Service
+public class RoomArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(RoomArchiver.class);
+
+    static final String DELETE_BATCH_SQL = "delete from chat_message where id in"
+            + " (select id from chat_message where room_id = ? and id <= ? order by id limit ?)";
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @Autowired
+    private RoomMetadataCache roomMetadataCache;
+
+    @Autowired
+    private RoomLocks roomLocks;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.storage.backend:jpa}")
+    private String storageBackend = "jpa";
+
+    @Value("${chat.relay.mode:none}")
+    private String relayMode = "none";
+
+    @Value("${chat.archive.rooms-per-run:10}")
+    private int roomsPerRun = 10;
+
+    @Value("${chat.archive.read-page-size:500}")
+    private int readPageSize = 500;
+
+    @Value("${chat.archive.delete-batch-size:500}")
+    private int deleteBatchSize = 500;
+
+    @Value("${chat.archive.group-size:1024}")
+    private int groupSize = 1024;
+
+    private Counter archivedRooms;
+    private Counter archivedMessages;
+    private Counter deletedRows;
+
+    @PostConstruct
+    void init() {
+        if (enabled && !"none".equals(relayMode)) {
+            throw new IllegalStateException("chat.archive.enabled keeps archives in a local directory and requires"
+                    + " a single node (chat.relay.mode=none), found '" + relayMode + "'");
+        }
+        archivedRooms = meterRegistry.counter("chat.archive.rooms");
+        archivedMessages = meterRegistry.counter("chat.archive.messages");
+        deletedRows = meterRegistry.counter("chat.archive.deleted.rows");
+        if (enabled && !"jpa".equals(storageBackend)) {
+            log.warn("Room archiving only applies to the jpa storage backend, it stays idle with '{}'", storageBackend);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.archive.interval-ms:300000}")
+    public void archiveColdRooms() {
+        if (!enabled || !"jpa".equals(storageBackend)) {
+            return;
+        }
+        purgePending();
+        for (ChatRoom room : chatRoomRepository.findArchivable(PageRequest.of(0, roomsPerRun))) {
+            try {
+                archive(room);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not archive room {}", room.getRoomId(), e);
+            }
+        }
+    }
+
+    void archive(ChatRoom room) throws IOException {
+        String roomId = room.getRoomId();
+        messageArchive.createDirectory();
+        Path target = messageArchive.pathOf(roomId);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+
+        // Con el lock: lo que se esté publicando en la sala termina antes de fijar el límite
+        Long maxId = roomLocks.withRoomLock(roomId, () -> chatMessageRepository.findMaxIdByRoomId(roomId));
+        long bound = maxId == null ? 0 : maxId;
+        long count;
+        try (ArchiveWriter writer = new ArchiveWriter(temporary, roomId, groupSize)) {
+            List<ChatMessage> page = chatMessageRepository.findOldestByRoomId(roomId, PageRequest.of(0, readPageSize));
+            while (!page.isEmpty()) {
+                for (ChatMessage message : page) {
+                    if (message.getId() <= bound) {
+                        writer.append(message);
+                    }
+                }
+                page = page.size() < readPageSize ? List.of()
+                        : chatMessageRepository.findPageAfter(roomId, page.get(page.size() - 1).getId(),
+                                PageRequest.of(0, readPageSize));
+            }
+            count = writer.messageCount();
+        }
+
+        boolean published = roomLocks.withRoomLock(roomId, () -> {
+            // Una fila que llegó tras la lectura no está en el fichero: se deja la sala para otra pasada
+            if (chatMessageRepository.countByRoomId(roomId) != count) {
+                return false;
+            }
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            room.setArchivedAt(LocalDateTime.now());
+            chatRoomRepository.save(room);
+            roomMetadataCache.invalidate(roomId);
+            return true;
+        });
+        if (!published) {
+            Files.deleteIfExists(temporary);
+            log.info("Room {} received messages while being archived, retrying on the next run", roomId);
+            return;
+        }
+        recentMessageBuffers.evict(roomId);
+        archivedRooms.increment();
+        archivedMessages.increment(count);
+
+        long deleted = purge(roomId, bound);
+        log.info("Archived room {}: {} messages, {} rows deleted", roomId, count, deleted);
+    }
+
+    private void purgePending() {
+        for (String roomId : chatMessageRepository.findRoomIdsPendingPurge()) {
+            if (!messageArchive.hasFile(roomId)) {
+                continue;
+            }
+            try {
+                purge(roomId, messageArchive.maxArchivedId(roomId));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not finish purging archived room {}", roomId, e);
+            }
+        }
+    }
+
+    // Solo se borra lo que está en el fichero: nada con id mayor que el límite del archivo
+    private long purge(String roomId, long maxArchivedId) {
+        long total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(DELETE_BATCH_SQL, roomId, maxArchivedId, deleteBatchSize);
+            total += deleted;
+            deletedRows.increment(deleted);
+        } while (deleted == deleteBatchSize);
+        return total;
+    }
+}
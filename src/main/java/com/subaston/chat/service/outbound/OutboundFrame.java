@@ -0,0 +1,139 @@
+package com.subaston.chat.service.outbound;
+
+import com.subaston.chat.service.RoomBroadcaster;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Frame STOMP pendiente de envío con lo que la cola necesita saber de él: destino,
+ * tipo de mensaje de chat, último id que contiene y prioridad (cabeceras puestas por
+ * {@link RoomBroadcaster}). Solo se leen las cabeceras, nunca el cuerpo.
+ * {@code queuedAt} es el {@link System#nanoTime()} en que entró en la cola.
+ */
+record OutboundFrame(WebSocketMessage<?> message, String destination, String subscription,
+                     String chatType, Long lastId, boolean priority, int size, long queuedAt) {
+
+    private static final String HEADER_END = "\n\n";
+
+    static OutboundFrame of(WebSocketMessage<?> message) {
+        String headerBlock = headerBlock(message);
+        String destination = null;
+        String subscription = null;
+        String chatType = null;
+        Long lastId = null;
+        boolean priority = false;
+        if (headerBlock != null && headerBlock.startsWith("MESSAGE\n")) {
+            for (String line : headerBlock.split("\n")) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon);
+                String value = line.substring(colon + 1);
+                switch (name) {
+                    case "destination" -> destination = value;
+                    case "subscription" -> subscription = value;
+                    case RoomBroadcaster.TYPE_HEADER -> chatType = value;
+                    case RoomBroadcaster.LAST_ID_HEADER -> lastId = parseId(value);
+                    case RoomBroadcaster.PRIORITY_HEADER -> priority = RoomBroadcaster.HIGH_PRIORITY.equals(value);
+                    default -> { }
+                }
+            }
+        }
+        return new OutboundFrame(message, destination, subscription, chatType, lastId, priority,
+                message.getPayloadLength(), System.nanoTime());
+    }
+
+    boolean isChat() {
+        return "CHAT".equals(chatType);
+    }
+
+    // Entradas y salidas: con las colas por prioridad se descartan después del chat
+    boolean isPresenceNotice() {
+        return "JOIN".equals(chatType) || "LEAVE".equals(chatType);
+    }
+
+    /**
+     * Une este frame con el siguiente en un único frame cuyo cuerpo es un array JSON con
+     * los mensajes de ambos.
+     *
+     * @return el frame combinado, o null si no se pueden combinar
+     */
+    OutboundFrame mergeWith(OutboundFrame next) {
+        if (!isChat() || !next.isChat() || priority || next.priority || destination == null
+                || !destination.equals(next.destination) || !Objects.equals(subscription, next.subscription)
+                || !(message instanceof TextMessage current) || !(next.message instanceof TextMessage following)) {
+            return null;
+        }
+        String currentText = current.getPayload();
+        String followingText = following.getPayload();
+        int currentEnd = currentText.indexOf(HEADER_END);
+        int followingEnd = followingText.indexOf(HEADER_END);
+        String currentBody = body(currentText, currentEnd);
+        String followingBody = body(followingText, followingEnd);
+        if (!isJson(currentBody) || !isJson(followingBody)) {
+            return null;
+        }
+
+        String mergedBody = "[" + arrayItems(currentBody) + "," + arrayItems(followingBody) + "]";
+        Long mergedLastId = next.lastId != null ? next.lastId : lastId;
+        StringBuilder frame = new StringBuilder(currentText.length() + followingBody.length() + 16);
+        for (String line : currentText.substring(0, currentEnd).split("\n")) {
+            if (line.startsWith("content-length:") || line.startsWith(RoomBroadcaster.LAST_ID_HEADER + ":")) {
+                continue;
+            }
+            frame.append(line).append('\n');
+        }
+        if (mergedLastId != null) {
+            frame.append(RoomBroadcaster.LAST_ID_HEADER).append(':').append(mergedLastId).append('\n');
+        }
+        frame.append("content-length:").append(mergedBody.getBytes(StandardCharsets.UTF_8).length).append('\n');
+        frame.append('\n').append(mergedBody).append('\0');
+        TextMessage merged = new TextMessage(frame.toString());
+        // Conserva la hora de entrada del más antiguo: la latencia medida es la del primer mensaje
+        return new OutboundFrame(merged, destination, subscription, chatType, mergedLastId, false,
+                merged.getPayloadLength(), queuedAt);
+    }
+
+    private static String headerBlock(WebSocketMessage<?> message) {
+        String text;
+        if (message instanceof TextMessage textMessage) {
+            text = textMessage.getPayload();
+        } else if (message instanceof BinaryMessage binaryMessage) {
+            ByteBuffer buffer = binaryMessage.getPayload().duplicate();
+            byte[] head = new byte[Math.min(buffer.remaining(), 1024)];
+            buffer.get(head);
+            text = new String(head, StandardCharsets.UTF_8);
+        } else {
+            return null;
+        }
+        int end = text.indexOf(HEADER_END);
+        return end < 0 ? null : text.substring(0, end);
+    }
+
+    private static String body(String text, int headerEnd) {
+        int end = text.endsWith("\0") ? text.length() - 1 : text.length();
+        return text.substring(headerEnd + HEADER_END.length(), end);
+    }
+
+    private static boolean isJson(String body) {
+        return body.startsWith("{") || (body.startsWith("[") && body.endsWith("]") && body.length() > 2);
+    }
+
+    private static String arrayItems(String body) {
+        return body.startsWith("[") ? body.substring(1, body.length() - 1) : body;
+    }
+
+    private static Long parseId(String value) {
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.subaston.chat.service.outbound;
+
+import io.micrometer.core.instrument.Counter;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Sesión WebSocket con cola de salida propia. {@link #sendMessage} solo encola y el
+ * envío real lo hace un hilo de vaciado, así que una sesión lenta no retiene los hilos
+ * del canal de salida y la cola se puede medir y recortar según la política configurada.
+ * Con las colas por prioridad, los frames marcados por {@code RoomBroadcaster} como
+ * prioritarios van a una cola aparte que se vacía antes y nunca se recorta.
+ */
+class OutboundSession extends WebSocketSessionDecorator {
+
+    static final int SLOW_CONSUMER_STATUS = 4008;
+
+    private final OutboundSessionRegistry registry;
+    private final String transport;
+    private final Counter sentBytes;
+    private final Deque<OutboundFrame> queue = new ArrayDeque<>();
+    private final Deque<OutboundFrame> priorityQueue = new ArrayDeque<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final Map<String, Long> lastDelivered = new ConcurrentHashMap<>();
+    private long pendingBytes;
+    private boolean coalescing;
+    private boolean released;
+    private String laggingRoom;
+    private volatile long sendStartedAt;
+
+    OutboundSession(WebSocketSession delegate, OutboundSessionRegistry registry) {
+        super(delegate);
+        this.registry = registry;
+        this.transport = OutboundSessionRegistry.transportOf(delegate);
+        this.sentBytes = registry.bytesCounter(transport, "out");
+    }
+
+    String transport() {
+        return transport;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        OutboundFrame frame = OutboundFrame.of(message);
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            enqueue(frame);
+            if (pendingBytes > registry.getMaxBufferBytes()) {
+                handleOverflow();
+            }
+            refreshLagging();
+        }
+        if (draining.compareAndSet(false, true)) {
+            registry.drainExecutor().execute(this::drain);
+        }
+    }
+
+    synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    synchronized int getPendingFrames() {
+        return queue.size() + priorityQueue.size();
+    }
+
+    synchronized boolean isCoalescing() {
+        return coalescing;
+    }
+
+    synchronized void refreshLagging() {
+        long started = sendStartedAt;
+        boolean lagging = !released && (pendingBytes > registry.getLagBytes()
+                || (started != 0 && System.nanoTime() - started > registry.getLagNanos()));
+        String room = lagging ? currentRoom() : null;
+        if (room == null ? laggingRoom != null : !room.equals(laggingRoom)) {
+            registry.laggingChanged(laggingRoom, room);
+            laggingRoom = room;
+        }
+    }
+
+    synchronized void release() {
+        released = true;
+        queue.clear();
+        priorityQueue.clear();
+        pendingBytes = 0;
+        refreshLagging();
+    }
+
+    private void enqueue(OutboundFrame frame) {
+        if (frame.priority() && registry.isPriorityLanes()) {
+            pendingBytes += frame.size();
+            priorityQueue.addLast(frame);
+            return;
+        }
+        // En modo agrupado los mensajes de chat se suman al último frame aún no enviado
+        OutboundFrame tail = queue.peekLast();
+        OutboundFrame merged = coalescing && tail != null ? tail.mergeWith(frame) : null;
+        if (merged != null) {
+            queue.pollLast();
+            pendingBytes += merged.size() - tail.size();
+            queue.addLast(merged);
+        } else {
+            pendingBytes += frame.size();
+            queue.addLast(frame);
+        }
+    }
+
+    private void handleOverflow() {
+        OverflowPolicy policy = registry.getPolicy();
+        registry.overflowed(policy);
+        switch (policy) {
+            case DISCONNECT -> disconnect();
+            case COALESCE -> {
+                coalescing = true;
+                coalesceQueue();
+                // Agrupar ahorra cabeceras y frames, no el contenido: por encima del doble se descarta
+                dropOldestChat(registry.getMaxBufferBytes() * 2);
+            }
+            case DROP_OLDEST_CHAT -> dropOldestChat(registry.getMaxBufferBytes());
+        }
+    }
+
+    private void coalesceQueue() {
+        Deque<OutboundFrame> coalesced = new ArrayDeque<>(queue.size());
+        long bytes = 0;
+        for (OutboundFrame frame : queue) {
+            OutboundFrame tail = coalesced.peekLast();
+            OutboundFrame merged = tail != null ? tail.mergeWith(frame) : null;
+            if (merged != null) {
+                coalesced.pollLast();
+                bytes -= tail.size();
+                frame = merged;
+            }
+            coalesced.addLast(frame);
+            bytes += frame.size();
+        }
+        queue.clear();
+        queue.addAll(coalesced);
+        pendingBytes = bytes;
+    }
+
+    private void dropOldestChat(long limit) {
+        int dropped = dropOldest(limit, OutboundFrame::isChat);
+        if (registry.isPriorityLanes()) {
+            // Sin chat que descartar se sacrifican después las entradas y salidas, nunca la cola prioritaria
+            dropped += dropOldest(limit, OutboundFrame::isPresenceNotice);
+        }
+        registry.dropped(dropped);
+    }
+
+    private int dropOldest(long limit, Predicate<OutboundFrame> droppable) {
+        int dropped = 0;
+        Iterator<OutboundFrame> it = queue.iterator();
+        while (pendingBytes > limit && it.hasNext()) {
+            OutboundFrame frame = it.next();
+            if (droppable.test(frame)) {
+                it.remove();
+                pendingBytes -= frame.size();
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    private void disconnect() {
+        String room = currentRoom();
+        Long lastId = room == null ? null : lastDelivered.get("/topic/" + room);
+        String reason = lastId == null ? "slow consumer" : "resume=" + new ResumeToken(room, lastId).encode();
+        release();
+        // SubProtocolWebSocketHandler cierra la sesión con este estado
+        throw new SessionLimitExceededException("Outbound queue limit exceeded for session " + getId(),
+                new CloseStatus(SLOW_CONSUMER_STATUS, reason));
+    }
+
+    private void drain() {
+        while (true) {
+            OutboundFrame frame;
+            boolean skippedAhead;
+            synchronized (this) {
+                frame = priorityQueue.pollFirst();
+                skippedAhead = frame != null;
+                if (frame == null) {
+                    frame = queue.pollFirst();
+                }
+                if (frame == null) {
+                    draining.set(false);
+                    coalescing = false;
+                    refreshLagging();
+                    return;
+                }
+                pendingBytes -= frame.size();
+            }
+            sendStartedAt = System.nanoTime();
+            try {
+                getDelegate().sendMessage(frame.message());
+                sentBytes.increment(frame.size());
+                registry.latency(frame.priority()).record(System.nanoTime() - frame.queuedAt(), TimeUnit.NANOSECONDS);
+                // Un frame adelantado no cuenta para reanudar: los anteriores aún pueden estar en la cola
+                if (!skippedAhead && frame.lastId() != null && frame.destination() != null) {
+                    lastDelivered.put(frame.destination(), frame.lastId());
+                }
+            } catch (IOException | RuntimeException e) {
+                release();
+                draining.set(false);
+                closeQuietly();
+                return;
+            } finally {
+                sendStartedAt = 0;
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            // Ya estaba cerrada
+        }
+    }
+
+    private String currentRoom() {
+        Object room = getAttributes().get("roomId");
+        return room instanceof String roomId ? roomId : null;
+    }
+}
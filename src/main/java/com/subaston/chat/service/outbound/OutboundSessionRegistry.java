@@ -0,0 +1,223 @@
+package com.subaston.chat.service.outbound;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cola de salida por sesión WebSocket: se instala como decorador del handler de /ws,
+ * lleva la cuenta de bytes pendientes de cada sesión, aplica la política de desborde
+ * y publica cuántas sesiones van con retraso en cada sala.
+ */
+@Service
+public class OutboundSessionRegistry {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.websocket.outbound.policy:DROP_OLDEST_CHAT}")
+    private OverflowPolicy policy = OverflowPolicy.DROP_OLDEST_CHAT;
+
+    @Value("${chat.websocket.outbound.max-buffer-bytes:524288}")
+    private long maxBufferBytes = 524288;
+
+    @Value("${chat.websocket.outbound.lag-bytes:65536}")
+    private long lagBytes = 65536;
+
+    @Value("${chat.websocket.outbound.lag-ms:1000}")
+    private long lagMs = 1000;
+
+    @Value("${chat.websocket.outbound.priority-lanes.enabled:false}")
+    private boolean priorityLanes = false;
+
+    private final Map<String, OutboundSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> laggingByRoom = new ConcurrentHashMap<>();
+    private final Map<OverflowPolicy, Counter> overflows = new EnumMap<>(OverflowPolicy.class);
+    private final AtomicInteger laggingSessions = new AtomicInteger();
+    private ExecutorService drainExecutor;
+    private Counter droppedFrames;
+    private Timer priorityLatency;
+    private Timer normalLatency;
+    private final Map<String, Counter> bytes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        drainExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-outbound-", 0).factory());
+        for (OverflowPolicy value : OverflowPolicy.values()) {
+            overflows.put(value, meterRegistry.counter("chat.websocket.outbound.overflows", "policy", value.name()));
+        }
+        droppedFrames = meterRegistry.counter("chat.websocket.outbound.dropped");
+        // Desde que el frame entra en la cola de la sesión hasta que el contenedor lo ha enviado
+        priorityLatency = Timer.builder("chat.websocket.outbound.latency").tag("lane", "priority")
+                .publishPercentiles(0.5, 0.99).register(meterRegistry);
+        normalLatency = Timer.builder("chat.websocket.outbound.latency").tag("lane", "normal")
+                .publishPercentiles(0.5, 0.99).register(meterRegistry);
+        for (String transport : new String[]{"native", "sockjs"}) {
+            Gauge.builder("chat.websocket.sessions", sessions, map -> map.values().stream()
+                            .filter(session -> transport.equals(session.transport())).count())
+                    .tag("transport", transport)
+                    .register(meterRegistry);
+        }
+        Gauge.builder("chat.websocket.sessions.lagging", laggingSessions, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("chat.websocket.outbound.pending.bytes", sessions,
+                map -> map.values().stream().mapToLong(OutboundSession::getPendingBytes).sum()).register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        drainExecutor.shutdownNow();
+    }
+
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                OutboundSession outbound = new OutboundSession(session, OutboundSessionRegistry.this);
+                sessions.put(session.getId(), outbound);
+                super.afterConnectionEstablished(outbound);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                bytesCounter(transportOf(session), "in").increment(message.getPayloadLength());
+                super.handleMessage(outboundOf(session), message);
+            }
+
+            @Override
+            public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+                super.handleTransportError(outboundOf(session), exception);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                OutboundSession outbound = sessions.remove(session.getId());
+                if (outbound != null) {
+                    outbound.release();
+                }
+                super.afterConnectionClosed(outbound != null ? outbound : session, closeStatus);
+            }
+        };
+    }
+
+    private WebSocketSession outboundOf(WebSocketSession session) {
+        OutboundSession outbound = sessions.get(session.getId());
+        return outbound != null ? outbound : session;
+    }
+
+    /**
+     * @return número de sesiones de la sala con la cola de salida retrasada
+     */
+    public int getLaggingSessions(String roomId) {
+        AtomicInteger count = laggingByRoom.get(roomId);
+        return count == null ? 0 : count.get();
+    }
+
+    // El retraso por tiempo de envío solo se ve si alguien lo mira aunque no lleguen mensajes
+    @Scheduled(fixedDelayString = "${chat.websocket.outbound.lag-check-ms:1000}")
+    public void refreshLagging() {
+        sessions.values().forEach(OutboundSession::refreshLagging);
+    }
+
+    void laggingChanged(String previousRoom, String room) {
+        if (previousRoom != null) {
+            laggingSessions.decrementAndGet();
+            laggingByRoom.computeIfPresent(previousRoom, (key, count) -> {
+                if (count.decrementAndGet() > 0) {
+                    return count;
+                }
+                // Solo se publican las salas que tienen sesiones retrasadas
+                Gauge gauge = meterRegistry.find("chat.websocket.room.lagging").tag("room", key).gauge();
+                if (gauge != null) {
+                    meterRegistry.remove(gauge);
+                }
+                return null;
+            });
+        }
+        if (room != null) {
+            laggingSessions.incrementAndGet();
+            laggingByRoom.compute(room, (key, count) -> {
+                if (count == null) {
+                    count = new AtomicInteger();
+                    registerRoomGauge(key);
+                }
+                count.incrementAndGet();
+                return count;
+            });
+        }
+    }
+
+    private void registerRoomGauge(String roomId) {
+        Gauge.builder("chat.websocket.room.lagging", this, registry -> registry.getLaggingSessions(roomId))
+                .tag("room", roomId)
+                .register(meterRegistry);
+    }
+
+    void overflowed(OverflowPolicy appliedPolicy) {
+        overflows.get(appliedPolicy).increment();
+    }
+
+    void dropped(int frames) {
+        if (frames > 0) {
+            droppedFrames.increment(frames);
+        }
+    }
+
+    static String transportOf(WebSocketSession session) {
+        return session instanceof SockJsSession ? "sockjs" : "native";
+    }
+
+    // Bytes de payload STOMP: la diferencia entre transportes está en el framing y la compresión que añaden
+    Counter bytesCounter(String transport, String direction) {
+        return bytes.computeIfAbsent(transport + direction, key -> meterRegistry.counter("chat.websocket.bytes",
+                "transport", transport, "direction", direction));
+    }
+
+    boolean isPriorityLanes() {
+        return priorityLanes;
+    }
+
+    Timer latency(boolean priority) {
+        return priority ? priorityLatency : normalLatency;
+    }
+
+    ExecutorService drainExecutor() {
+        return drainExecutor;
+    }
+
+    OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    long getMaxBufferBytes() {
+        return maxBufferBytes;
+    }
+
+    long getLagBytes() {
+        return lagBytes;
+    }
+
+    long getLagNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(lagMs);
+    }
+}
@@ -0,0 +1,13 @@
+package com.subaston.chat.service.outbound;
+
+/**
+ * Qué hacer cuando la cola de salida de una sesión supera el límite de bytes.
+ */
+public enum OverflowPolicy {
+    /** Descarta los mensajes de chat más antiguos; JOIN, LEAVE y SYSTEM se conservan. */
+    DROP_OLDEST_CHAT,
+    /** Agrupa los mensajes de chat pendientes en frames con un array; si no basta, descarta los más antiguos. */
+    COALESCE,
+    /** Cierra la sesión con un token para reanudar desde el último mensaje entregado. */
+    DISCONNECT
+}
@@ -0,0 +1,35 @@
+package com.subaston.chat.service.outbound;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Token que recibe un cliente desconectado por lento: identifica la sala y el último
+ * mensaje que se le llegó a entregar, para pedir solo el hueco al reconectar.
+ */
+public record ResumeToken(String roomId, long lastMessageId) {
+
+    public String encode() {
+        byte[] raw = (lastMessageId + ":" + roomId).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+    }
+
+    /**
+     * @return el token, o null si no tiene el formato esperado
+     */
+    public static ResumeToken parse(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(value.trim()), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            if (separator <= 0 || separator == raw.length() - 1) {
+                return null;
+            }
+            return new ResumeToken(raw.substring(separator + 1), Long.parseLong(raw.substring(0, separator)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.subaston.chat.service.relay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.service.RecentMessageBuffers;
+import com.subaston.chat.service.RoomBroadcaster;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reenvía a los demás nodos todo lo que se publica en {@code /topic/**} a través del
+ * broker local, y publica en el broker local lo que llega de otros nodos. Se engancha
+ * como interceptor del canal del broker, así que el código que llama a
+ * {@code convertAndSend("/topic/...")} no cambia. Los frames salientes se agrupan en
+ * lotes y los entrantes se descartan si su id ya se vio.
+ */
+@Service
+public class ClusterRelay implements ChannelInterceptor, SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterRelay.class);
+
+    static final String RELAYED_HEADER = "chatRelayed";
+    /** Cabecera nativa para lo que solo tiene sentido en este nodo (p. ej. la ocupación local). */
+    public static final String LOCAL_ONLY_HEADER = "chat-local";
+    private static final String TOPIC_PREFIX = "/topic/";
+
+    @Autowired
+    private ObjectProvider<MessageRelay> messageRelay;
+
+    @Lazy
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.relay.node-id:}")
+    private String nodeId;
+
+    @Value("${chat.relay.batch-size:64}")
+    private int batchSize = 64;
+
+    @Value("${chat.relay.flush-interval-ms:5}")
+    private long flushIntervalMs = 5;
+
+    @Value("${chat.relay.queue-capacity:10000}")
+    private int queueCapacity = 10000;
+
+    @Value("${chat.relay.dedupe-size:100000}")
+    private long dedupeSize = 100000;
+
+    private MessageRelay relay;
+    private BlockingQueue<RelayFrame> outbound;
+    private Cache<String, Boolean> seenFrames;
+    private Thread flusher;
+    private volatile boolean running;
+    private Counter relayedOut;
+    private Counter relayedIn;
+    private Counter duplicates;
+    private Counter dropped;
+
+    @PostConstruct
+    void init() {
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = UUID.randomUUID().toString();
+        }
+        outbound = new ArrayBlockingQueue<>(queueCapacity);
+        seenFrames = Caffeine.newBuilder()
+                .maximumSize(dedupeSize)
+                .expireAfterWrite(Duration.ofMinutes(5))
+                .build();
+        relayedOut = meterRegistry.counter("chat.relay.frames", "direction", "out");
+        relayedIn = meterRegistry.counter("chat.relay.frames", "direction", "in");
+        duplicates = meterRegistry.counter("chat.relay.frames", "direction", "duplicate");
+        dropped = meterRegistry.counter("chat.relay.frames", "direction", "dropped");
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!running || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+        MessageHeaders headers = message.getHeaders();
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null || !destination.startsWith(TOPIC_PREFIX)
+                || SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                || headers.containsKey(RELAYED_HEADER)
+                || SimpMessageHeaderAccessor.getFirstNativeHeader(LOCAL_ONLY_HEADER, headers) != null) {
+            return message;
+        }
+
+        String frameId = String.valueOf(headers.getId());
+        Object contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+        boolean priority = RoomBroadcaster.HIGH_PRIORITY.equals(
+                SimpMessageHeaderAccessor.getFirstNativeHeader(RoomBroadcaster.PRIORITY_HEADER, headers));
+        RelayFrame frame = new RelayFrame(frameId, nodeId, destination,
+                contentType == null ? null : contentType.toString(), priority, payload);
+        if (!outbound.offer(frame)) {
+            dropped.increment();
+        }
+        return message;
+    }
+
+    void receive(List<RelayFrame> batch) {
+        for (RelayFrame frame : batch) {
+            if (nodeId.equals(frame.origin()) || seenFrames.asMap().putIfAbsent(frame.frameId(), Boolean.TRUE) != null) {
+                duplicates.increment();
+                continue;
+            }
+            relayedIn.increment();
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setDestination(frame.destination());
+            if (frame.contentType() != null) {
+                accessor.setContentType(MimeType.valueOf(frame.contentType()));
+            }
+            if (frame.priority()) {
+                accessor.setNativeHeader(RoomBroadcaster.PRIORITY_HEADER, RoomBroadcaster.HIGH_PRIORITY);
+            }
+            accessor.setHeader(RELAYED_HEADER, Boolean.TRUE);
+            accessor.setLeaveMutable(true);
+            messagingTemplate.send(frame.destination(), MessageBuilder.createMessage(frame.payload(), accessor.getMessageHeaders()));
+            bufferRemoteMessages(frame);
+        }
+    }
+
+    // El buffer de historial de este nodo también debe ver lo enviado en otros nodos
+    private void bufferRemoteMessages(RelayFrame frame) {
+        String roomPath = frame.destination().substring(TOPIC_PREFIX.length());
+        if (roomPath.contains("/") || frame.payload().length == 0) {
+            return;
+        }
+        try {
+            List<ChatMessage> messages = frame.payload()[0] == '['
+                    ? List.of(objectMapper.readValue(frame.payload(), ChatMessage[].class))
+                    : List.of(objectMapper.readValue(frame.payload(), ChatMessage.class));
+            for (ChatMessage message : messages) {
+                if (message.getType() == ChatMessage.MessageType.CHAT) {
+                    recentMessageBuffers.append(message);
+                } else if (message.getRetractedId() != null) {
+                    // Corrección de un mensaje que el nodo emisor no pudo guardar
+                    recentMessageBuffers.remove(message.getRoomId(), message.getRetractedId());
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Relayed frame for {} is not a chat message", frame.destination());
+        }
+    }
+
+    @Override
+    public void start() {
+        relay = messageRelay.getIfAvailable();
+        if (relay == null) {
+            return;
+        }
+        relay.start(this::receive);
+        running = true;
+        flusher = new Thread(this::runFlusher, "chat-relay-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        relay.stop();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void runFlusher() {
+        List<RelayFrame> batch = new ArrayList<>(batchSize);
+        while (running || !outbound.isEmpty()) {
+            try {
+                RelayFrame first = outbound.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                outbound.drainTo(batch, batchSize - 1);
+            } catch (InterruptedException e) {
+                outbound.drainTo(batch, batchSize);
+                if (batch.isEmpty()) {
+                    return;
+                }
+            }
+            try {
+                relay.publish(List.copyOf(batch));
+                relayedOut.increment(batch.size());
+            } catch (RuntimeException e) {
+                log.warn("Could not relay {} frames", batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
+}
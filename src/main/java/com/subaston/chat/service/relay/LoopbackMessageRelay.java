@@ -0,0 +1,48 @@
+package com.subaston.chat.service.relay;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+
+/**
+ * Relay dentro del mismo proceso: los nodos que comparten grupo se entregan los
+ * lotes directamente. Sirve para un único nodo y para probar varios nodos en una JVM.
+ */
+public class LoopbackMessageRelay implements MessageRelay {
+
+    private static final Map<String, Set<LoopbackMessageRelay>> GROUPS = new ConcurrentHashMap<>();
+
+    private final String group;
+    private volatile Consumer<List<RelayFrame>> receiver;
+
+    public LoopbackMessageRelay(String group) {
+        this.group = group;
+    }
+
+    @Override
+    public void start(Consumer<List<RelayFrame>> receiver) {
+        this.receiver = receiver;
+        GROUPS.computeIfAbsent(group, key -> new CopyOnWriteArraySet<>()).add(this);
+    }
+
+    @Override
+    public void publish(List<RelayFrame> batch) {
+        for (LoopbackMessageRelay member : GROUPS.getOrDefault(group, Set.of())) {
+            if (member != this && member.receiver != null) {
+                member.receiver.accept(batch);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        Set<LoopbackMessageRelay> members = GROUPS.get(group);
+        if (members != null) {
+            members.remove(this);
+        }
+        receiver = null;
+    }
+}
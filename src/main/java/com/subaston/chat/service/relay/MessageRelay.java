@@ -0,0 +1,17 @@
+package com.subaston.chat.service.relay;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Transporte entre nodos del chat. Cada implementación entrega los lotes publicados
+ * por un nodo a los demás nodos del grupo; nunca al propio emisor.
+ */
+public interface MessageRelay {
+
+    void start(Consumer<List<RelayFrame>> receiver);
+
+    void publish(List<RelayFrame> batch);
+
+    void stop();
+}
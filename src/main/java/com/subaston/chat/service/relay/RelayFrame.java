@@ -0,0 +1,11 @@
+package com.subaston.chat.service.relay;
+
+/**
+ * Mensaje ya serializado que se reenvía entre nodos. {@code frameId} es el id del
+ * mensaje original y permite descartar duplicados; {@code origin} es el nodo emisor.
+ * {@code priority} conserva la marca de prioridad de {@code RoomBroadcaster}, que en el
+ * resto de nodos decide la cola de salida de cada sesión.
+ */
+public record RelayFrame(String frameId, String origin, String destination, String contentType, boolean priority,
+                         byte[] payload) {
+}
@@ -0,0 +1,356 @@
+package com.subaston.chat.service.relay;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Relay sobre TCP: cada nodo escucha en un puerto y abre una conexión hacia cada
+ * peer configurado. Un lote viaja como un entero con el número de frames seguido
+ * de los frames (ids, destino y tipo como UTF, y el payload con su longitud).
+ * <p>
+ * Al conectar, el nodo que acepta envía un reto aleatorio y solo lee lotes si la
+ * respuesta es el HMAC-SHA256 del reto con el secreto compartido; los lotes con más
+ * frames o payloads más grandes que los límites cierran la conexión. Cada peer tiene
+ * su propia cola acotada y su propio hilo de escritura, con un tiempo máximo por
+ * escritura: un peer lento o caído solo pierde sus lotes y no frena a los demás. Si un
+ * peer no responde sus lotes se descartan y se reintenta la conexión más tarde; los
+ * clientes recuperan lo perdido con el reenvío por reconexión.
+ */
+public class TcpMessageRelay implements MessageRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(TcpMessageRelay.class);
+    private static final long RECONNECT_BACKOFF_MS = 1000;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+    private static final int CHALLENGE_BYTES = 32;
+    private static final String HMAC = "HmacSHA256";
+
+    /**
+     * Configuración del transporte. {@code bindAddress} vacío escucha en todas las
+     * interfaces; {@code maxFrames} y {@code maxPayloadBytes} limitan lo que se acepta de
+     * un peer y {@code writeTimeoutMs} lo que puede tardar una escritura hacia él.
+     */
+    public record Settings(int port, String bindAddress, String sharedSecret, int maxFrames, int maxPayloadBytes,
+                           int peerQueueCapacity, long writeTimeoutMs) {
+    }
+
+    private final Settings settings;
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+    private final List<Peer> peers = new ArrayList<>();
+    private final List<Socket> inbound = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService watchdog;
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    public TcpMessageRelay(Settings settings, List<InetSocketAddress> peerAddresses) {
+        if (settings.sharedSecret() == null || settings.sharedSecret().isBlank()) {
+            throw new IllegalStateException("chat.relay.tcp.shared-secret is required for the tcp relay");
+        }
+        this.settings = settings;
+        this.key = new SecretKeySpec(settings.sharedSecret().getBytes(StandardCharsets.UTF_8), HMAC);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-relay-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        peerAddresses.forEach(address -> peers.add(new Peer(address)));
+    }
+
+    @Override
+    public void start(Consumer<List<RelayFrame>> receiver) {
+        try {
+            InetAddress bind = settings.bindAddress() == null || settings.bindAddress().isBlank()
+                    ? null : InetAddress.getByName(settings.bindAddress());
+            serverSocket = new ServerSocket(settings.port(), 50, bind);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not listen for relay peers on " + settings.bindAddress()
+                    + ":" + settings.port(), e);
+        }
+        running = true;
+        Thread.ofVirtual().name("chat-relay-accept").start(() -> acceptLoop(receiver));
+        peers.forEach(Peer::start);
+    }
+
+    public int getLocalPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void publish(List<RelayFrame> batch) {
+        for (Peer peer : peers) {
+            peer.offer(batch);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        closeQuietly(serverSocket);
+        inbound.forEach(TcpMessageRelay::closeQuietly);
+        peers.forEach(Peer::stop);
+        watchdog.shutdownNow();
+    }
+
+    private void acceptLoop(Consumer<List<RelayFrame>> receiver) {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                inbound.add(socket);
+                Thread.ofVirtual().name("chat-relay-read").start(() -> readLoop(socket, receiver));
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Relay accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket, Consumer<List<RelayFrame>> receiver) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            if (!authenticate(socket, in)) {
+                log.warn("Rejected relay connection from {}: bad handshake", socket.getRemoteSocketAddress());
+                return;
+            }
+            while (running) {
+                receiver.accept(readBatch(in, settings.maxFrames(), settings.maxPayloadBytes()));
+            }
+        } catch (EOFException e) {
+            // El peer cerró la conexión
+        } catch (IOException e) {
+            if (running) {
+                log.warn("Relay connection from {} lost", socket.getRemoteSocketAddress(), e);
+            }
+        } finally {
+            inbound.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    // Reto y respuesta con el secreto compartido; el secreto no viaja por la red
+    private boolean authenticate(Socket socket, DataInputStream in) throws IOException {
+        byte[] challenge = new byte[CHALLENGE_BYTES];
+        random.nextBytes(challenge);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.write(challenge);
+        out.flush();
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        byte[] response = new byte[sign(challenge).length];
+        in.readFully(response);
+        socket.setSoTimeout(0);
+        return MessageDigest.isEqual(sign(challenge), response);
+    }
+
+    private byte[] sign(byte[] challenge) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(key);
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 not available", e);
+        }
+    }
+
+    static void writeBatch(DataOutputStream out, List<RelayFrame> batch) throws IOException {
+        out.writeInt(batch.size());
+        for (RelayFrame frame : batch) {
+            out.writeUTF(frame.frameId());
+            out.writeUTF(frame.origin());
+            out.writeUTF(frame.destination());
+            out.writeUTF(frame.contentType() == null ? "" : frame.contentType());
+            out.writeBoolean(frame.priority());
+            out.writeInt(frame.payload().length);
+            out.write(frame.payload());
+        }
+        out.flush();
+    }
+
+    /**
+     * Lee un lote; el número de frames y las longitudes vienen del peer, así que se
+     * comprueban contra los límites antes de reservar memoria.
+     */
+    static List<RelayFrame> readBatch(DataInputStream in, int maxFrames, int maxPayloadBytes) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > maxFrames) {
+            throw new IOException("Relay batch of " + count + " frames exceeds limit of " + maxFrames);
+        }
+        List<RelayFrame> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String frameId = in.readUTF();
+            String origin = in.readUTF();
+            String destination = in.readUTF();
+            String contentType = in.readUTF();
+            boolean priority = in.readBoolean();
+            int length = in.readInt();
+            if (length < 0 || length > maxPayloadBytes) {
+                throw new IOException("Relay payload of " + length + " bytes exceeds limit of " + maxPayloadBytes);
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            batch.add(new RelayFrame(frameId, origin, destination, contentType.isEmpty() ? null : contentType,
+                    priority, payload));
+        }
+        return batch;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nada que hacer al cerrar
+        }
+    }
+
+    private final class Peer {
+
+        private final InetSocketAddress address;
+        private final BlockingQueue<List<RelayFrame>> queue;
+        private Thread writer;
+        private Socket socket;
+        private DataOutputStream out;
+        private volatile boolean dropping;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+            this.queue = new ArrayBlockingQueue<>(settings.peerQueueCapacity());
+        }
+
+        void start() {
+            writer = Thread.ofVirtual().name("chat-relay-write").start(this::writeLoop);
+        }
+
+        void offer(List<RelayFrame> batch) {
+            List<RelayFrame> sendable = batch.stream()
+                    .filter(frame -> frame.payload().length <= settings.maxPayloadBytes())
+                    .toList();
+            if (sendable.size() < batch.size()) {
+                // El peer cerraría la conexión al recibirlo; sus clientes lo recuperan al reconectar
+                log.warn("Not relaying {} frames larger than {} bytes to {}", batch.size() - sendable.size(),
+                        settings.maxPayloadBytes(), address);
+            }
+            if (sendable.isEmpty()) {
+                return;
+            }
+            if (queue.offer(sendable)) {
+                dropping = false;
+            } else if (!dropping) {
+                dropping = true;
+                log.warn("Relay queue for peer {} is full, dropping batches until it drains", address);
+            }
+        }
+
+        void stop() {
+            if (writer != null) {
+                writer.interrupt();
+            }
+            closeSocket();
+        }
+
+        private void writeLoop() {
+            while (running) {
+                List<RelayFrame> batch;
+                try {
+                    batch = queue.take();
+                    if (out == null) {
+                        connect();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    log.warn("Could not connect to relay peer {}: {}", address, e.getMessage());
+                    closeSocket();
+                    queue.clear();
+                    if (!backOff()) {
+                        return;
+                    }
+                    continue;
+                }
+                write(batch);
+            }
+        }
+
+        private void write(List<RelayFrame> batch) {
+            // Los sockets bloqueantes no tienen timeout de escritura: si se pasa, se cierra
+            Socket current = socket;
+            ScheduledFuture<?> timeout = watchdog.schedule(() -> closeQuietly(current),
+                    settings.writeTimeoutMs(), TimeUnit.MILLISECONDS);
+            try {
+                writeBatch(out, batch);
+            } catch (IOException e) {
+                log.warn("Dropping {} relay frames for peer {}: {}", batch.size(), address, e.getMessage());
+                closeSocket();
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+
+        private void connect() throws IOException {
+            Socket newSocket = new Socket();
+            try {
+                newSocket.setTcpNoDelay(true);
+                // Se resuelve en cada intento para seguir a un peer que cambie de IP
+                newSocket.connect(new InetSocketAddress(address.getHostString(), address.getPort()),
+                        CONNECT_TIMEOUT_MS);
+                newSocket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+                DataInputStream in = new DataInputStream(newSocket.getInputStream());
+                byte[] challenge = new byte[CHALLENGE_BYTES];
+                in.readFully(challenge);
+                DataOutputStream newOut = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+                newOut.write(sign(challenge));
+                newOut.flush();
+                socket = newSocket;
+                out = newOut;
+            } catch (IOException e) {
+                closeQuietly(newSocket);
+                throw e;
+            }
+        }
+
+        private boolean backOff() {
+            try {
+                Thread.sleep(RECONNECT_BACKOFF_MS);
+                return true;
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+
+        private void closeSocket() {
+            closeQuietly(socket);
+            socket = null;
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.subaston.chat.service.sse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.RoomCatchUp;
+import com.subaston.chat.service.ChatService;
+import com.subaston.chat.service.RoomBroadcaster;
+import com.subaston.chat.service.RoomClosedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Salas en directo por Server-Sent Events, para quien solo mira. Se instala como
+ * interceptor del canal del broker junto a {@code ClusterRelay}, así que recibe lo
+ * mismo que {@code /topic/{roomId}} (incluido lo que llega de otros nodos) y lo reparte
+ * a las conexiones SSE de la sala ya codificado una sola vez. Cada conexión solo
+ * guarda su cola de eventos pendientes: sin sesión STOMP, heartbeats ni atributos.
+ * Con {@code Last-Event-ID} se reenvía primero el hueco, igual que en la reconexión STOMP.
+ */
+@Service
+public class RoomEventStream implements ChannelInterceptor {
+
+    private static final String TOPIC_PREFIX = "/topic/";
+    private static final String PRESENCE_SUFFIX = "/presence";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.sse.max-queued-events:256}")
+    private int maxQueuedEvents = 256;
+
+    @Value("${chat.sse.timeout-ms:1800000}")
+    private long timeoutMs = 1800000;
+
+    @Value("${chat.sse.keep-alive-seconds:25}")
+    private long keepAliveSeconds = 25;
+
+    @Value("${chat.sse.retry-ms:3000}")
+    private long retryMs = 3000;
+
+    private final Map<String, Set<SseConnection>> rooms = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private ExecutorService writer;
+    private Counter lagging;
+
+    @PostConstruct
+    void init() {
+        // Una escritura a un cliente lento bloquea su hilo; con hilos virtuales eso no cuesta un hilo del sistema
+        writer = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-sse-", 0).factory());
+        lagging = meterRegistry.counter("chat.sse.closed.lagging");
+        Gauge.builder("chat.sse.connections", connections, AtomicInteger::get).register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        rooms.values().forEach(room -> room.forEach(SseConnection::finish));
+        writer.shutdown();
+    }
+
+    public ResponseBodyEmitter open(String roomId, Long lastEventId) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeoutMs);
+        SseConnection connection = new SseConnection(roomId, emitter, writer, maxQueuedEvents);
+        emitter.onCompletion(() -> unregister(connection));
+        emitter.onTimeout(() -> unregister(connection));
+        emitter.onError(error -> unregister(connection));
+
+        // Se registra antes de leer el hueco: lo que llegue mientras tanto espera en la cola
+        rooms.computeIfAbsent(roomId, id -> ConcurrentHashMap.newKeySet()).add(connection);
+        connections.incrementAndGet();
+        try {
+            List<SseFrame> catchUp = new ArrayList<>();
+            long lastCatchUpId = 0;
+            if (lastEventId != null) {
+                RoomCatchUp missed = chatService.getMessagesSince(roomId, lastEventId);
+                for (ChatMessage message : missed.messages()) {
+                    catchUp.add(SseFrame.event(null, message.getId(), objectMapper.writeValueAsBytes(message)));
+                    lastCatchUpId = message.getId();
+                }
+                if (missed.truncated()) {
+                    // Hueco mayor que el máximo de reenvío: el cliente pagina con ?after= desde aquí
+                    catchUp.add(SseFrame.event("truncated", 0, objectMapper.writeValueAsBytes(
+                            Map.of("roomId", roomId, "after", lastCatchUpId))));
+                }
+            }
+            connection.resume(SseFrame.retry(retryMs), catchUp, lastCatchUpId);
+        } catch (JsonProcessingException e) {
+            unregister(connection);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            unregister(connection);
+            throw e;
+        }
+        return emitter;
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    @Override
+    public void postSend(Message<?> message, MessageChannel channel, boolean sent) {
+        if (!sent || rooms.isEmpty() || !(message.getPayload() instanceof byte[] payload)) {
+            return;
+        }
+        MessageHeaders headers = message.getHeaders();
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null || !destination.startsWith(TOPIC_PREFIX)
+                || SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) {
+            return;
+        }
+        String roomId = destination.substring(TOPIC_PREFIX.length());
+        boolean presence = roomId.endsWith(PRESENCE_SUFFIX);
+        if (presence) {
+            roomId = roomId.substring(0, roomId.length() - PRESENCE_SUFFIX.length());
+        }
+        Set<SseConnection> room = rooms.get(roomId);
+        if (room == null || room.isEmpty() || roomId.contains("/")) {
+            return;
+        }
+        SseFrame frame = presence
+                ? SseFrame.event("presence", 0, payload)
+                : SseFrame.event(null, lastMessageId(headers, payload), payload);
+        for (SseConnection connection : room) {
+            if (!connection.offer(frame)) {
+                lagging.increment();
+            }
+        }
+    }
+
+    // Los clientes ya avisados del cierre por el mensaje SYSTEM no tienen nada más que recibir
+    @EventListener
+    public void onRoomClosed(RoomClosedEvent event) {
+        Set<SseConnection> room = rooms.get(event.roomId());
+        if (room != null) {
+            room.forEach(SseConnection::finish);
+        }
+    }
+
+    // Comentario SSE a las conexiones calladas, para que los proxies no las corten por inactividad
+    @Scheduled(fixedDelayString = "${chat.sse.keep-alive-check-ms:5000}")
+    public void keepAlive() {
+        long threshold = System.nanoTime() - TimeUnit.SECONDS.toNanos(keepAliveSeconds);
+        rooms.values().forEach(room -> room.forEach(connection -> {
+            if (connection.lastWriteNanos() < threshold) {
+                connection.offer(SseFrame.KEEP_ALIVE);
+            }
+        }));
+    }
+
+    private void unregister(SseConnection connection) {
+        connection.markClosed();
+        Set<SseConnection> room = rooms.get(connection.roomId());
+        if (room != null && room.remove(connection)) {
+            connections.decrementAndGet();
+            rooms.computeIfPresent(connection.roomId(), (id, current) -> current.isEmpty() ? null : current);
+        }
+    }
+
+    // Los frames locales traen el id en la cabecera; los que llegan de otros nodos solo en el JSON
+    private static long lastMessageId(MessageHeaders headers, byte[] payload) {
+        String header = SimpMessageHeaderAccessor.getFirstNativeHeader(RoomBroadcaster.LAST_ID_HEADER, headers);
+        if (header != null) {
+            try {
+                return Long.parseLong(header);
+            } catch (NumberFormatException e) {
+                // Se lee del payload
+            }
+        }
+        return readLastId(payload);
+    }
+
+    private static long readLastId(byte[] payload) {
+        long lastId = 0;
+        try (JsonParser parser = JSON_FACTORY.createParser(payload)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    JsonToken value = parser.nextToken();
+                    if ("id".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                        lastId = parser.getLongValue();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                token = array ? parser.nextToken() : null;
+            }
+        } catch (IOException e) {
+            // Sin id: el evento sale sin id y el navegador conserva el último que vio
+        }
+        return lastId;
+    }
+}
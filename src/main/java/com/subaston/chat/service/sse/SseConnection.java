@@ -0,0 +1,152 @@
+package com.subaston.chat.service.sse;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Una conexión SSE: una cola acotada de eventos ya codificados y como mucho una tarea
+ * de escritura en marcha, que vuelca de una vez todo lo pendiente. El hilo que publica
+ * en la sala solo encola, así que un cliente lento no frena a los demás; si su cola se
+ * llena se cierra la conexión y el navegador se reconecta con Last-Event-ID.
+ */
+final class SseConnection {
+
+    private final String roomId;
+    private final ResponseBodyEmitter emitter;
+    private final Executor writer;
+    private final int maxQueued;
+
+    // Todo lo siguiente se protege con el monitor de la conexión
+    private final ArrayDeque<SseFrame> queue = new ArrayDeque<>();
+    private boolean held = true;
+    private boolean draining;
+    private boolean completing;
+    private boolean closed;
+    private volatile long lastWriteNanos = System.nanoTime();
+
+    SseConnection(String roomId, ResponseBodyEmitter emitter, Executor writer, int maxQueued) {
+        this.roomId = roomId;
+        this.emitter = emitter;
+        this.writer = writer;
+        this.maxQueued = maxQueued;
+    }
+
+    String roomId() {
+        return roomId;
+    }
+
+    long lastWriteNanos() {
+        return lastWriteNanos;
+    }
+
+    /**
+     * @return {@code false} si la cola estaba llena y la conexión se ha cerrado
+     */
+    boolean offer(SseFrame frame) {
+        synchronized (this) {
+            if (closed || completing) {
+                return true;
+            }
+            if (queue.size() < maxQueued) {
+                queue.add(frame);
+                scheduleDrainLocked();
+                return true;
+            }
+            closed = true;
+            queue.clear();
+        }
+        emitter.complete();
+        return false;
+    }
+
+    /**
+     * Empieza a entregar: primero los mensajes recuperados y después lo recibido en
+     * directo mientras tanto, sin repetir lo que ya venía en la recuperación.
+     */
+    synchronized void resume(SseFrame first, List<SseFrame> catchUp, long lastCatchUpId) {
+        if (closed) {
+            return;
+        }
+        if (lastCatchUpId > 0) {
+            queue.removeIf(frame -> frame.id() > 0 && frame.id() <= lastCatchUpId);
+        }
+        for (int i = catchUp.size() - 1; i >= 0; i--) {
+            queue.addFirst(catchUp.get(i));
+        }
+        queue.addFirst(first);
+        held = false;
+        scheduleDrainLocked();
+    }
+
+    /**
+     * Cierra la conexión cuando termine de escribir lo que ya está en cola.
+     */
+    synchronized void finish() {
+        if (closed) {
+            return;
+        }
+        completing = true;
+        held = false;
+        scheduleDrainLocked();
+    }
+
+    synchronized void markClosed() {
+        closed = true;
+        queue.clear();
+    }
+
+    private void scheduleDrainLocked() {
+        if (held || draining || (queue.isEmpty() && !completing)) {
+            return;
+        }
+        draining = true;
+        writer.execute(this::drain);
+    }
+
+    private void drain() {
+        while (true) {
+            byte[] chunk;
+            synchronized (this) {
+                if (closed || queue.isEmpty()) {
+                    draining = false;
+                    if (closed || !completing) {
+                        return;
+                    }
+                    closed = true;
+                    chunk = null;
+                } else {
+                    chunk = concat();
+                }
+            }
+            if (chunk == null) {
+                emitter.complete();
+                return;
+            }
+            try {
+                emitter.send(chunk, MediaType.TEXT_EVENT_STREAM);
+                lastWriteNanos = System.nanoTime();
+            } catch (IOException | IllegalStateException e) {
+                // Cliente desconectado: el contenedor avisa por onError y la conexión se da de baja
+                markClosed();
+                return;
+            }
+        }
+    }
+
+    private byte[] concat() {
+        if (queue.size() == 1) {
+            return queue.poll().bytes();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (SseFrame frame; (frame = queue.poll()) != null; ) {
+            out.writeBytes(frame.bytes());
+        }
+        return out.toByteArray();
+    }
+}
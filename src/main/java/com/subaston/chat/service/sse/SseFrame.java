@@ -0,0 +1,33 @@
+package com.subaston.chat.service.sse;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Evento SSE ya codificado ({@code id:}, {@code event:}, {@code data:} y la línea en
+ * blanco final). Se codifica una vez por broadcast y lo comparten todas las conexiones
+ * de la sala. {@code id} es el id del último mensaje que lleva, o 0 si no lleva ninguno.
+ */
+record SseFrame(long id, byte[] bytes) {
+
+    static final SseFrame KEEP_ALIVE = new SseFrame(0, ":\n\n".getBytes(StandardCharsets.US_ASCII));
+
+    static SseFrame event(String name, long id, byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length + 48);
+        if (id > 0) {
+            out.writeBytes(("id: " + id + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        if (name != null) {
+            out.writeBytes(("event: " + name + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        // El JSON de Jackson va en una sola línea, así que cabe en un único campo data
+        out.writeBytes("data: ".getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(json);
+        out.writeBytes("\n\n".getBytes(StandardCharsets.US_ASCII));
+        return new SseFrame(id, out.toByteArray());
+    }
+
+    static SseFrame retry(long millis) {
+        return new SseFrame(0, ("retry: " + millis + "\n\n").getBytes(StandardCharsets.US_ASCII));
+    }
+}
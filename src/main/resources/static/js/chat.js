@@ -2,6 +2,11 @@ let stompClient = null;
 let currentUser = null;
 let currentRoom = null;
 let isOwner = false;
+let lastMessageId = null;
+let lastSeq = null;
+let pendingLive = null;
+let resumeToken = null;
+const persistedIds = new Set();
 
 // Inicialización
 document.addEventListener('DOMContentLoaded', function() {
@@ -41,28 +46,104 @@ document.addEventListener('DOMContentLoaded', function() {
     });
 });
 
+// WebSocket nativo si el navegador lo soporta: sin el framing ni las peticiones extra de SockJS
+function openSocket() {
+    if ('WebSocket' in window) {
+        const scheme = location.protocol === 'https:' ? 'wss://' : 'ws://';
+        return new WebSocket(scheme + location.host + '/ws-native');
+    }
+    return new SockJS('/ws');
+}
+
 function connectWebSocket() {
-    const socket = new SockJS('/ws');
+    const socket = openSocket();
     stompClient = Stomp.over(socket);
+    const reconnecting = lastMessageId !== null || resumeToken !== null;
+
+    // Cierre por cliente lento: el servidor indica desde qué mensaje reanudar
+    socket.addEventListener('close', function(event) {
+        if (event.code === 4008 && event.reason && event.reason.startsWith('resume=')) {
+            resumeToken = event.reason.substring('resume='.length);
+        }
+    });
     
     stompClient.connect({}, function(frame) {
         console.log('Connected: ' + frame);
+
+        // En una reconexión los mensajes en vivo se retienen hasta recibir el hueco perdido
+        pendingLive = reconnecting ? [] : null;
+        stompClient.subscribe('/user/queue/catch-up', function(message) {
+            const catchUp = JSON.parse(message.body);
+            catchUp.messages.forEach(message => displayMessage(message));
+            const live = pendingLive || [];
+            pendingLive = null;
+            live.forEach(message => displayMessage(message));
+            if (catchUp.truncated) {
+                loadMessagesAfter(lastMessageId);
+            }
+        });
         
         // Suscribirse al tópico de la sala
+        // En salas con mucho tráfico el servidor agrupa varios mensajes en un array
         stompClient.subscribe('/topic/' + currentRoom, function(message) {
-            const chatMessage = JSON.parse(message.body);
-            displayMessage(chatMessage);
+            const body = JSON.parse(message.body);
+            const chatMessages = Array.isArray(body) ? body : [body];
+            if (pendingLive) {
+                pendingLive.push(...chatMessages);
+            } else {
+                chatMessages.forEach(chatMessage => {
+                    fillSeqGap(chatMessage);
+                    displayMessage(chatMessage);
+                });
+            }
+        });
+
+        // Modo broadcast-first: el servidor confirma cuando el mensaje propio queda guardado
+        stompClient.subscribe('/user/queue/acks', function(message) {
+            const ack = JSON.parse(message.body);
+            if (ack.persisted) {
+                persistedIds.add(ack.messageId);
+                const element = document.querySelector(`[data-message-id="${ack.messageId}"]`);
+                if (element) {
+                    element.classList.remove('pending');
+                }
+            }
+        });
+
+        // Errores dirigidos a esta sesión (p. ej. límite de mensajes)
+        stompClient.subscribe('/user/queue/errors', function(message) {
+            const error = JSON.parse(message.body);
+            displayMessage({type: 'SYSTEM', content: error.message});
+        });
+
+        // Ocupación de la sala: el servidor solo avisa cuando cambia
+        stompClient.subscribe('/topic/' + currentRoom + '/presence', function(message) {
+            updateOnlineCount(JSON.parse(message.body).count);
         });
+        loadOnlineCount();
 
-        // Enviar mensaje de unión
-        stompClient.send("/app/chat.addUser", {}, JSON.stringify({
+        // Enviar mensaje de unión (con el último id visto si es una reconexión)
+        const headers = {};
+        if (lastMessageId !== null) {
+            headers['X-Last-Message-Id'] = String(lastMessageId);
+        }
+        if (resumeToken !== null) {
+            headers['X-Resume-Token'] = resumeToken;
+            resumeToken = null;
+        }
+        stompClient.send("/app/chat.addUser", headers, JSON.stringify({
             senderId: currentUser,
             roomId: currentRoom,
             type: 'JOIN'
         }));
 
         // Cargar mensajes anteriores
-        loadPreviousMessages();
+        if (!reconnecting) {
+            loadPreviousMessages();
+        }
+    }, function(error) {
+        console.error('Connection lost, retrying: ', error);
+        setTimeout(connectWebSocket, 2000);
     });
 }
 
@@ -79,14 +160,37 @@ function sendMessage(content) {
 }
 
 function displayMessage(message) {
+    if (message.retractedId != null) {
+        // Corrección: el mensaje publicado no se pudo guardar
+        const retracted = document.querySelector(`[data-message-id="${message.retractedId}"]`);
+        if (retracted) {
+            retracted.remove();
+        }
+    }
+    if (message.id != null) {
+        // Tras una reconexión pueden llegar duplicados por el hueco y por el tópico
+        if (document.querySelector(`[data-message-id="${message.id}"]`)) {
+            return;
+        }
+        lastMessageId = message.id;
+    }
+    if (message.seq != null && (lastSeq === null || message.seq > lastSeq)) {
+        lastSeq = message.seq;
+    }
     const messageArea = document.getElementById('messageArea');
     const messageElement = document.createElement('div');
     
     messageElement.classList.add('message');
+    if (message.id != null) {
+        messageElement.dataset.messageId = message.id;
+    }
     
     switch(message.type) {
         case 'CHAT':
             messageElement.classList.add(message.senderId === currentUser ? 'sent' : 'received');
+            if (message.seq != null && message.senderId === currentUser && !persistedIds.has(message.id)) {
+                messageElement.classList.add('pending');
+            }
             messageElement.innerHTML = `
                 <strong>${message.senderId}</strong>
                 <p class="mb-0">${message.content}</p>
@@ -105,6 +209,39 @@ function displayMessage(message) {
     messageArea.scrollTop = messageArea.scrollHeight;
 }
 
+// Si la secuencia salta se pide exactamente el rango que falta (puede venir vacío:
+// el servidor reserva números por bloques y los no usados quedan sin mensaje)
+function fillSeqGap(message) {
+    if (message.seq == null || lastSeq === null || message.seq <= lastSeq + 1) {
+        return;
+    }
+    loadSeqRange(lastSeq + 1, message.seq - 1);
+}
+
+function loadSeqRange(fromSeq, toSeq) {
+    fetch(`/api/chat/room/${currentRoom}/messages/range?fromSeq=${fromSeq}&toSeq=${toSeq}`)
+        .then(response => response.json())
+        .then(messages => {
+            messages.forEach(message => displayMessage(message));
+            const last = messages.length > 0 ? messages[messages.length - 1].seq : null;
+            if (last !== null && last < toSeq) {
+                loadSeqRange(last + 1, toSeq);
+            }
+        })
+        .catch(error => console.error('Error loading missing messages:', error));
+}
+
+function updateOnlineCount(count) {
+    document.getElementById('onlineCount').textContent = count;
+}
+
+function loadOnlineCount() {
+    fetch(`/api/chat/room/${currentRoom}/presence`)
+        .then(response => response.json())
+        .then(occupancy => updateOnlineCount(occupancy.count))
+        .catch(error => console.error('Error loading presence:', error));
+}
+
 function loadPreviousMessages() {
     fetch(`/api/chat/room/${currentRoom}/messages`)
         .then(response => response.json())
@@ -114,6 +251,18 @@ function loadPreviousMessages() {
         .catch(error => console.error('Error loading messages:', error));
 }
 
+function loadMessagesAfter(afterId) {
+    fetch(`/api/chat/room/${currentRoom}/messages?after=${afterId}`)
+        .then(response => response.json())
+        .then(messages => {
+            messages.forEach(message => displayMessage(message));
+            if (messages.length > 0) {
+                loadMessagesAfter(messages[messages.length - 1].id);
+            }
+        })
+        .catch(error => console.error('Error loading messages:', error));
+}
+
 function toggleWritePermission() {
     fetch(`/api/chat/room/${currentRoom}/toggleWrite?ownerId=${currentUser}`, {
         method: 'PUT'
@@ -0,0 +1,111 @@
+package com.subaston.chat.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.subaston.chat.model.ChatMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryChatMessageConverterTest {
+
+    private final BinaryChatMessageConverter converter = new BinaryChatMessageConverter();
+
+    @Test
+    void encode_ShouldRoundTripBatchesAndNullFields() {
+        // Arrange
+        List<ChatMessage> messages = batch(3);
+        ChatMessage join = new ChatMessage();
+        join.setRoomId("room123");
+        join.setType(ChatMessage.MessageType.JOIN);
+        messages.add(join);
+        messages.get(1).setRetractedId(40L);
+
+        // Act
+        byte[] encoded = BinaryChatMessageConverter.encode(messages);
+
+        // Assert
+        assertEquals(messages, BinaryChatMessageConverter.decode(encoded));
+        assertEquals("room123", BinaryChatMessageConverter.readRoomId(encoded));
+        assertThrows(MessageConversionException.class, () -> BinaryChatMessageConverter.decode(new byte[]{9}));
+    }
+
+    @Test
+    void decode_ShouldRejectCountsAndLengthsLargerThanPayload() {
+        // Arrange: versión, y un varint de ~2^31 como nº de cadenas, nº de mensajes o longitud
+        byte[] hugeStringCount = {1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+        byte[] hugeMessageCount = {1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+        byte[] hugeStringLength = {1, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+        byte[] negativeLength = {1, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+
+        // Act & Assert
+        assertThrows(MessageConversionException.class, () -> BinaryChatMessageConverter.decode(hugeStringCount));
+        assertThrows(MessageConversionException.class, () -> BinaryChatMessageConverter.decode(hugeMessageCount));
+        assertThrows(MessageConversionException.class, () -> BinaryChatMessageConverter.decode(hugeStringLength));
+        assertThrows(MessageConversionException.class, () -> BinaryChatMessageConverter.decode(negativeLength));
+        assertNull(BinaryChatMessageConverter.readRoomId(hugeStringCount));
+    }
+
+    @Test
+    void fromMessage_ShouldOnlyConvertWithCodecContentType() {
+        // Arrange
+        ChatMessage message = batch(1).get(0);
+        byte[] payload = BinaryChatMessageConverter.encode(List.of(message));
+        Message<byte[]> binary = MessageBuilder.withPayload(payload)
+                .setHeader(MessageHeaders.CONTENT_TYPE, BinaryChatMessageConverter.MIME_TYPE)
+                .build();
+        Message<byte[]> untyped = MessageBuilder.withPayload(payload).build();
+
+        // Act & Assert
+        assertEquals(message, converter.fromMessage(binary, ChatMessage.class));
+        assertNull(converter.fromMessage(untyped, ChatMessage.class));
+        assertNull(converter.toMessage(List.of(message), new MessageHeaders(Map.of())));
+    }
+
+    // Comparativa de bytes por frame frente al JSON que reciben los demás clientes
+    @Test
+    void encode_ShouldBeMuchSmallerThanJson() throws Exception {
+        // Arrange
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        ChatMessage single = batch(1).get(0);
+        List<ChatMessage> coalesced = batch(20);
+
+        // Act
+        int singleJson = objectMapper.writeValueAsBytes(single).length;
+        int singleBinary = BinaryChatMessageConverter.encode(List.of(single)).length;
+        int batchJson = objectMapper.writeValueAsBytes(coalesced).length;
+        int batchBinary = BinaryChatMessageConverter.encode(coalesced).length;
+
+        // Assert
+        assertTrue(singleBinary * 2 < singleJson, singleBinary + " vs " + singleJson);
+        assertTrue(batchBinary * 3 < batchJson, batchBinary + " vs " + batchJson);
+    }
+
+    private static List<ChatMessage> batch(int size) {
+        List<ChatMessage> messages = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2024, 3, 1, 12, 0, 0, 123456000);
+        for (int i = 0; i < size; i++) {
+            ChatMessage message = new ChatMessage();
+            message.setId(1000L + i);
+            message.setSeq(500L + i);
+            message.setRoomId("room123");
+            message.setSenderId(i % 2 == 0 ? "user-alice" : "user-bob");
+            message.setContent("Puja " + i);
+            message.setTimestamp(start.plusNanos(i * 3_000_000L));
+            message.setType(ChatMessage.MessageType.CHAT);
+            messages.add(message);
+        }
+        return messages;
+    }
+}
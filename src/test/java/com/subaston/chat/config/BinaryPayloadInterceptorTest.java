@@ -0,0 +1,97 @@
+package com.subaston.chat.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.subaston.chat.model.ChatMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryPayloadInterceptorTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BinaryPayloadInterceptor interceptor = new BinaryPayloadInterceptor();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(interceptor, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(interceptor, "meterRegistry", meterRegistry);
+        interceptor.init();
+    }
+
+    @Test
+    void preSend_ShouldTranscodeRoomMessagesOnlyForOptedInNativeSessions() throws Exception {
+        // Arrange
+        connect("binarySession", true, "chat-v1");
+        connect("sockJsSession", false, "chat-v1");
+        connect("jsonSession", true, null);
+        ChatMessage message = new ChatMessage();
+        message.setId(7L);
+        message.setRoomId("room123");
+        message.setSenderId("user1");
+        message.setContent("Hola");
+        message.setTimestamp(LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+        message.setType(ChatMessage.MessageType.CHAT);
+        byte[] json = objectMapper.writeValueAsBytes(message);
+
+        // Act
+        Message<?> first = interceptor.preSend(toClient("binarySession", "/topic/room123", json), null);
+        Message<?> second = interceptor.preSend(toClient("binarySession", "/topic/room123", json), null);
+        Message<?> sockJs = interceptor.preSend(toClient("sockJsSession", "/topic/room123", json), null);
+        Message<?> plain = interceptor.preSend(toClient("jsonSession", "/topic/room123", json), null);
+        Message<?> presence = interceptor.preSend(toClient("binarySession", "/topic/room123/presence", json), null);
+
+        // Assert
+        assertEquals(BinaryChatMessageConverter.MIME_TYPE,
+                first.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+        assertEquals(List.of(message), BinaryChatMessageConverter.decode((byte[]) first.getPayload()));
+        assertSame(first.getPayload(), second.getPayload());
+        assertSame(json, sockJs.getPayload());
+        assertSame(json, plain.getPayload());
+        assertSame(json, presence.getPayload());
+        assertEquals(1, meterRegistry.get("chat.stomp.binary.transcode").timer().count());
+    }
+
+    private void connect(String sessionId, boolean nativeEndpoint, String codec) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setSessionId(sessionId);
+        Map<String, Object> attributes = new HashMap<>();
+        if (nativeEndpoint) {
+            attributes.put(NativeHandshakeHandler.NATIVE_ATTRIBUTE, Boolean.TRUE);
+        }
+        accessor.setSessionAttributes(attributes);
+        if (codec != null) {
+            accessor.setNativeHeader(BinaryPayloadInterceptor.CODEC_HEADER, codec);
+        }
+        interceptor.onConnect(new SessionConnectEvent(this,
+                MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders())));
+    }
+
+    private static Message<byte[]> toClient(String sessionId, String destination, byte[] payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination(destination);
+        accessor.setSubscriptionId("sub-0");
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+}
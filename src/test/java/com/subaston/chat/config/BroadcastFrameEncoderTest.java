@@ -0,0 +1,87 @@
+package com.subaston.chat.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BroadcastFrameEncoderTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BroadcastFrameEncoder encoder = new BroadcastFrameEncoder(meterRegistry);
+    private final StompDecoder decoder = new StompDecoder();
+
+    @Test
+    void encode_ShouldReuseSharedPartAcrossSubscribers() {
+        // Arrange
+        byte[] payload = "{\"content\":\"Hola: mundo\"}".getBytes(StandardCharsets.UTF_8);
+
+        // Act
+        byte[] first = encoder.encode(headers("/topic/room123", "session1", "sub-0"), payload);
+        byte[] second = encoder.encode(headers("/topic/room123", "session2", "sub:1"), payload);
+
+        // Assert
+        StompHeaderAccessor firstFrame = decode(first);
+        StompHeaderAccessor secondFrame = decode(second);
+        assertEquals("sub-0", firstFrame.getSubscriptionId());
+        assertEquals("sub:1", secondFrame.getSubscriptionId());
+        assertNotEquals(firstFrame.getMessageId(), secondFrame.getMessageId());
+        assertEquals("/topic/room123", secondFrame.getDestination());
+        assertEquals(1.0, meterRegistry.counter("chat.stomp.broadcast.encodings", "result", "encoded").count());
+        assertEquals(1.0, meterRegistry.counter("chat.stomp.broadcast.encodings", "result", "reused").count());
+    }
+
+    @Test
+    void encode_ShouldMatchStandardEncoderOutput() {
+        // Arrange
+        byte[] payload = "{\"content\":\"Hola\"}".getBytes(StandardCharsets.UTF_8);
+        Map<String, Object> headers = headers("/topic/room123", "session1", "sub-0");
+
+        // Act
+        StompHeaderAccessor shared = decode(encoder.encode(headers, payload));
+        Message<byte[]> standard = decoder.decode(ByteBuffer.wrap(new StompEncoder().encode(headers, payload))).get(0);
+
+        // Assert
+        assertEquals(StompHeaderAccessor.wrap(standard).toNativeHeaderMap(), shared.toNativeHeaderMap());
+    }
+
+    @Test
+    void encode_ShouldUseStandardPathForUserQueues() {
+        // Arrange
+        byte[] payload = "{}".getBytes(StandardCharsets.UTF_8);
+
+        // Act
+        encoder.encode(headers("/queue/catch-up-usersession1", "session1", "sub-0"), payload);
+
+        // Assert
+        assertEquals(0.0, meterRegistry.counter("chat.stomp.broadcast.encodings", "result", "encoded").count());
+    }
+
+    private Map<String, Object> headers(String destination, String sessionId, String subscriptionId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setHeader("simpMessageType", SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setNativeHeader("content-type", "application/json");
+        accessor.updateStompCommandAsServerMessage();
+        return accessor.getMessageHeaders();
+    }
+
+    private StompHeaderAccessor decode(byte[] frame) {
+        Message<byte[]> message = decoder.decode(ByteBuffer.wrap(frame)).get(0);
+        assertEquals("{", new String(message.getPayload(), 0, 1, StandardCharsets.UTF_8));
+        return StompHeaderAccessor.wrap(message);
+    }
+}
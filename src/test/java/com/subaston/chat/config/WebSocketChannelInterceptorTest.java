@@ -0,0 +1,127 @@
+package com.subaston.chat.config;
+
+import com.subaston.chat.model.ChatError;
+import com.subaston.chat.model.RoomMetadata;
+import com.subaston.chat.service.InboundRateLimiter;
+import com.subaston.chat.service.RoomMetadataCache;
+import com.subaston.chat.service.SessionMessenger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WebSocketChannelInterceptorTest {
+
+    @Mock
+    private InboundRateLimiter inboundRateLimiter;
+
+    @Mock
+    private SessionMessenger sessionMessenger;
+
+    @Mock
+    private RoomMetadataCache roomMetadataCache;
+
+    @InjectMocks
+    private WebSocketChannelInterceptor interceptor;
+
+    @Test
+    void preSend_WithinLimit_ShouldPassMessageThrough() {
+        // Arrange
+        Message<byte[]> message = send("{\"content\":\"Hola\",\"meta\":{\"roomId\":\"x\"},\"roomId\":\"room123\"}");
+        when(inboundRateLimiter.tryAcquire("user123", "room123")).thenReturn(InboundRateLimiter.Decision.ALLOWED);
+
+        // Act
+        Message<?> result = interceptor.preSend(message, null);
+
+        // Assert
+        assertSame(message, result);
+        verifyNoInteractions(sessionMessenger);
+    }
+
+    @Test
+    void preSend_ToCachedClosedRoom_ShouldDropAndReplyWithError() {
+        // Arrange
+        when(inboundRateLimiter.tryAcquire("user123", "room123")).thenReturn(InboundRateLimiter.Decision.ALLOWED);
+        when(roomMetadataCache.getIfPresent("room123"))
+                .thenReturn(Optional.of(new RoomMetadata("room123", "owner", false, false, 1, false)));
+        when(inboundRateLimiter.shouldNotify("user123")).thenReturn(true);
+
+        // Act
+        Message<?> result = interceptor.preSend(send("{\"roomId\":\"room123\",\"content\":\"Hola\"}"), null);
+
+        // Assert
+        assertNull(result);
+        verify(sessionMessenger).sendToSession(eq("session1"), eq("/queue/errors"),
+                argThat(error -> error instanceof ChatError chatError && "ROOM_CLOSED".equals(chatError.code())));
+    }
+
+    @Test
+    void preSend_ToUncachedRoom_ShouldPassWithoutQueryingDatabase() {
+        // Arrange
+        Message<byte[]> message = send("{\"roomId\":\"unknown\",\"content\":\"Hola\"}");
+        when(inboundRateLimiter.tryAcquire("user123", "unknown")).thenReturn(InboundRateLimiter.Decision.ALLOWED);
+        when(roomMetadataCache.getIfPresent("unknown")).thenReturn(Optional.empty());
+
+        // Act
+        Message<?> result = interceptor.preSend(message, null);
+
+        // Assert
+        assertSame(message, result);
+        verify(roomMetadataCache, never()).get(anyString());
+    }
+
+    @Test
+    void preSend_OverLimit_ShouldDropAndReplyWithError() {
+        // Arrange
+        when(inboundRateLimiter.tryAcquire("user123", "room123")).thenReturn(InboundRateLimiter.Decision.USER_LIMITED);
+        when(inboundRateLimiter.shouldNotify("user123")).thenReturn(true);
+
+        // Act
+        Message<?> result = interceptor.preSend(send("{\"roomId\":\"room123\",\"content\":\"Hola\"}"), null);
+
+        // Assert
+        assertNull(result);
+        verify(sessionMessenger).sendToSession(eq("session1"), eq("/queue/errors"), any(ChatError.class));
+        verifyNoInteractions(roomMetadataCache);
+    }
+
+    @Test
+    void preSend_OtherDestinations_ShouldNotBeLimited() {
+        // Arrange
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SEND);
+        accessor.setDestination("/app/chat.addUser");
+        accessor.setSessionId("session1");
+        accessor.setLeaveMutable(true);
+
+        // Act
+        interceptor.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), null);
+
+        // Assert
+        verify(inboundRateLimiter, never()).tryAcquire(anyString(), anyString());
+    }
+
+    private Message<byte[]> send(String body) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SEND);
+        accessor.setDestination("/app/chat.sendMessage");
+        accessor.setSessionId("session1");
+        accessor.setNativeHeader("X-User-Id", "user123");
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(body.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+}
@@ -2,21 +2,47 @@ package com.subaston.chat.controller;
 
 import com.subaston.chat.model.ChatMessage;
 import com.subaston.chat.model.ChatRoom;
+import com.subaston.chat.model.RoomCatchUp;
+import com.subaston.chat.model.RoomMetadata;
+import com.subaston.chat.model.RoomOccupancy;
 import com.subaston.chat.repository.ChatMessageRepository;
+import com.subaston.chat.repository.JpaMessageStore;
 import com.subaston.chat.repository.ChatRoomRepository;
+import com.subaston.chat.service.BroadcastFirstPersistence;
+import com.subaston.chat.service.ChatService;
+import com.subaston.chat.service.MessageWriteBehindQueue;
+import com.subaston.chat.service.PresenceDigest;
+import com.subaston.chat.service.PresenceRegistry;
+import com.subaston.chat.service.RecentMessageBuffers;
+import com.subaston.chat.service.RoomBroadcaster;
+import com.subaston.chat.service.RoomLifecycle;
+import com.subaston.chat.service.RoomLocks;
+import com.subaston.chat.service.RoomMetadataCache;
+import com.subaston.chat.service.RoomSequencer;
+import com.subaston.chat.service.SessionMessenger;
+import com.subaston.chat.service.TranscriptExporter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -34,6 +60,45 @@ class ChatControllerTest {
     @Mock
     private ChatMessageRepository chatMessageRepository;
 
+    @Mock
+    private ChatService chatService;
+
+    @Mock
+    private MessageWriteBehindQueue writeBehindQueue;
+
+    @Mock
+    private RoomMetadataCache roomMetadataCache;
+
+    @Mock
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @Mock
+    private SessionMessenger sessionMessenger;
+
+    @Mock
+    private RoomBroadcaster roomBroadcaster;
+
+    @Mock
+    private PresenceDigest presenceDigest;
+
+    @Mock
+    private TranscriptExporter transcriptExporter;
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    @Spy
+    private RoomLocks roomLocks = new RoomLocks();
+
+    @Mock
+    private BroadcastFirstPersistence broadcastFirstPersistence;
+
+    @Mock
+    private RoomSequencer roomSequencer;
+
+    @Mock
+    private RoomLifecycle roomLifecycle;
+
     @Mock
     private SimpMessageHeaderAccessor headerAccessor;
 
@@ -46,6 +111,7 @@ class ChatControllerTest {
 
     @BeforeEach
     void setUp() {
+        ReflectionTestUtils.setField(chatController, "messageStore", new JpaMessageStore(chatMessageRepository, null));
         testRoom = new ChatRoom();
         testRoom.setId(1L);
         testRoom.setRoomId("room123");
@@ -88,6 +154,7 @@ class ChatControllerTest {
         assertTrue(result.isActive());
         assertFalse(result.isOnlyOwnerCanWrite());
         verify(chatRoomRepository, times(1)).save(any(ChatRoom.class));
+        verify(roomMetadataCache, times(1)).invalidate(testRoom.getRoomId());
     }
 
     @Test
@@ -95,15 +162,107 @@ class ChatControllerTest {
         // Arrange
         String userId = "user123";
         when(headerAccessor.getFirstNativeHeader("X-User-Id")).thenReturn(userId);
-        when(chatRoomRepository.findByRoomId(testMessage.getRoomId())).thenReturn(Optional.of(testRoom));
+        when(roomMetadataCache.get(testMessage.getRoomId())).thenReturn(Optional.of(RoomMetadata.from(testRoom)));
         when(chatMessageRepository.save(any(ChatMessage.class))).thenReturn(testMessage);
 
         // Act
         chatController.sendMessage(testMessage, headerAccessor);
 
         // Assert
+        verify(roomSequencer, times(1)).next("room123");
         verify(chatMessageRepository, times(1)).save(testMessage);
         // verify(messagingTemplate, times(1)).convertAndSend(anyString(), any());
+        verify(roomBroadcaster, times(1)).broadcast(testMessage);
+        verify(chatRoomRepository, never()).findByRoomId(anyString());
+    }
+
+    @Test
+    void sendMessage_ToInactiveRoom_ShouldDropMessage() {
+        // Arrange
+        testRoom.setActive(false);
+        when(headerAccessor.getFirstNativeHeader("X-User-Id")).thenReturn("user123");
+        when(roomMetadataCache.get(testMessage.getRoomId())).thenReturn(Optional.of(RoomMetadata.from(testRoom)));
+
+        // Act
+        chatController.sendMessage(testMessage, headerAccessor);
+
+        // Assert
+        verify(chatMessageRepository, never()).save(any(ChatMessage.class));
+        verify(roomBroadcaster, never()).broadcast(any(ChatMessage.class));
+        verify(roomLifecycle, never()).touch(anyString());
+    }
+
+    @Test
+    void sendMessage_WithContentTooLong_ShouldDropMessage() {
+        // Arrange
+        testMessage.setContent("x".repeat(ChatMessage.MAX_CONTENT_LENGTH + 1));
+        when(headerAccessor.getFirstNativeHeader("X-User-Id")).thenReturn("user123");
+        when(roomMetadataCache.get(testMessage.getRoomId())).thenReturn(Optional.of(RoomMetadata.from(testRoom)));
+
+        // Act
+        chatController.sendMessage(testMessage, headerAccessor);
+
+        // Assert
+        verify(chatMessageRepository, never()).save(any(ChatMessage.class));
+        verify(roomBroadcaster, never()).broadcast(any(ChatMessage.class));
+    }
+
+    @Test
+    void sendMessage_WithWriteBehindEnabled_ShouldEnqueueInsteadOfSaving() {
+        // Arrange
+        String userId = "user123";
+        when(headerAccessor.getFirstNativeHeader("X-User-Id")).thenReturn(userId);
+        when(roomMetadataCache.get(testMessage.getRoomId())).thenReturn(Optional.of(RoomMetadata.from(testRoom)));
+        when(writeBehindQueue.isEnabled()).thenReturn(true);
+        when(writeBehindQueue.enqueue(testMessage)).thenReturn(CompletableFuture.completedFuture(testMessage));
+
+        // Act
+        chatController.sendMessage(testMessage, headerAccessor);
+
+        // Assert
+        verify(writeBehindQueue, times(1)).enqueue(testMessage);
+        verify(chatMessageRepository, never()).save(any(ChatMessage.class));
+        verify(broadcastFirstPersistence, never()).retract(any(ChatMessage.class));
+    }
+
+    @Test
+    void sendMessage_WhenWriteBehindFails_ShouldRetractAfterBroadcast() {
+        // Arrange
+        String userId = "user123";
+        when(headerAccessor.getFirstNativeHeader("X-User-Id")).thenReturn(userId);
+        when(roomMetadataCache.get(testMessage.getRoomId())).thenReturn(Optional.of(RoomMetadata.from(testRoom)));
+        when(writeBehindQueue.isEnabled()).thenReturn(true);
+        when(writeBehindQueue.enqueue(testMessage))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("database down")));
+
+        // Act
+        chatController.sendMessage(testMessage, headerAccessor);
+
+        // Assert
+        InOrder inOrder = inOrder(roomBroadcaster, broadcastFirstPersistence);
+        inOrder.verify(roomBroadcaster).broadcast(testMessage);
+        inOrder.verify(broadcastFirstPersistence).retract(testMessage);
+    }
+
+    @Test
+    void sendMessage_WithBroadcastFirst_ShouldBroadcastBeforePersisting() {
+        // Arrange
+        String userId = "user123";
+        when(headerAccessor.getFirstNativeHeader("X-User-Id")).thenReturn(userId);
+        when(headerAccessor.getSessionId()).thenReturn("session1");
+        when(roomMetadataCache.get(testMessage.getRoomId())).thenReturn(Optional.of(RoomMetadata.from(testRoom)));
+        when(broadcastFirstPersistence.isEnabled()).thenReturn(true);
+
+        // Act
+        chatController.sendMessage(testMessage, headerAccessor);
+
+        // Assert
+        InOrder inOrder = inOrder(broadcastFirstPersistence, roomBroadcaster);
+        inOrder.verify(broadcastFirstPersistence).prepare(testMessage);
+        inOrder.verify(roomBroadcaster).broadcast(testMessage);
+        inOrder.verify(broadcastFirstPersistence).persist(testMessage, "session1");
+        verify(chatMessageRepository, never()).save(any(ChatMessage.class));
+        verify(writeBehindQueue, never()).enqueue(any(ChatMessage.class));
     }
 
     @Test
@@ -111,7 +270,7 @@ class ChatControllerTest {
         // Arrange
         String userId = "user123";
         when(headerAccessor.getFirstNativeHeader("X-User-Id")).thenReturn(userId);
-        when(chatRoomRepository.findByRoomId(testMessage.getRoomId())).thenReturn(Optional.empty());
+        when(roomMetadataCache.get(testMessage.getRoomId())).thenReturn(Optional.empty());
 
         // Act & Assert
         assertThrows(RuntimeException.class, () -> {
@@ -125,7 +284,7 @@ class ChatControllerTest {
         String userId = "user456"; // Non-owner
         testRoom.setOnlyOwnerCanWrite(true);
         when(headerAccessor.getFirstNativeHeader("X-User-Id")).thenReturn(userId);
-        when(chatRoomRepository.findByRoomId(testMessage.getRoomId())).thenReturn(Optional.of(testRoom));
+        when(roomMetadataCache.get(testMessage.getRoomId())).thenReturn(Optional.of(RoomMetadata.from(testRoom)));
 
         // Act
         chatController.sendMessage(testMessage, headerAccessor);
@@ -146,7 +305,67 @@ class ChatControllerTest {
         chatController.addUser(testMessage, headerAccessor);
 
         // Assert
-        // verify(messagingTemplate, times(1)).convertAndSend(anyString(), any());
+        verify(presenceDigest).announce(argThat((ChatMessage message) ->
+                message.getType() == ChatMessage.MessageType.JOIN && userId.equals(message.getSenderId())));
+    }
+
+    @Test
+    void addUser_WithUnknownRoom_ShouldNotTrackRoom() {
+        // Arrange
+        when(headerAccessor.getFirstNativeHeader("X-User-Id")).thenReturn("user123");
+        when(headerAccessor.getSessionAttributes()).thenReturn(new java.util.HashMap<>());
+        when(roomMetadataCache.get(testMessage.getRoomId())).thenReturn(Optional.empty());
+
+        // Act
+        chatController.addUser(testMessage, headerAccessor);
+
+        // Assert
+        verify(roomLifecycle, never()).touch(anyString());
+    }
+
+    @Test
+    void addUser_WithLastMessageId_ShouldReplayGapToSession() {
+        // Arrange
+        String userId = "user123";
+        RoomCatchUp catchUp = new RoomCatchUp("room123", 1L, List.of(testMessages.get(1)), false);
+        when(headerAccessor.getFirstNativeHeader("X-User-Id")).thenReturn(userId);
+        when(headerAccessor.getFirstNativeHeader("X-Last-Message-Id")).thenReturn("1");
+        when(headerAccessor.getSessionId()).thenReturn("session1");
+        when(headerAccessor.getSessionAttributes()).thenReturn(new java.util.HashMap<>());
+        when(chatService.getMessagesSince("room123", 1L)).thenReturn(catchUp);
+
+        // Act
+        chatController.addUser(testMessage, headerAccessor);
+
+        // Assert
+        verify(sessionMessenger, times(1)).sendToSession("session1", "/queue/catch-up", catchUp);
+    }
+
+    @Test
+    void addUser_WithoutLastMessageId_ShouldNotReplay() {
+        // Arrange
+        when(headerAccessor.getFirstNativeHeader("X-User-Id")).thenReturn("user123");
+        when(headerAccessor.getSessionAttributes()).thenReturn(new java.util.HashMap<>());
+
+        // Act
+        chatController.addUser(testMessage, headerAccessor);
+
+        // Assert
+        verifyNoInteractions(sessionMessenger);
+        verify(chatService, never()).getMessagesSince(anyString(), anyLong());
+    }
+
+    @Test
+    void subscribeCatchUp_ShouldReturnGap() {
+        // Arrange
+        RoomCatchUp catchUp = new RoomCatchUp("room123", 1L, List.of(testMessages.get(1)), false);
+        when(chatService.getMessagesSince("room123", 1L)).thenReturn(catchUp);
+
+        // Act
+        RoomCatchUp result = chatController.subscribeCatchUp("room123", "1");
+
+        // Assert
+        assertSame(catchUp, result);
     }
 
     @Test
@@ -154,15 +373,50 @@ class ChatControllerTest {
         // Arrange
         String userId = "user123";
         String roomId = "room123";
+        testRoom.setVersion(3L);
+        when(roomMetadataCache.get(roomId)).thenReturn(Optional.of(RoomMetadata.from(testRoom)));
+        when(chatRoomRepository.updateOnlyOwnerCanWrite(roomId, userId, 3L, true)).thenReturn(1);
         when(chatRoomRepository.findByRoomId(roomId)).thenReturn(Optional.of(testRoom));
-        when(chatRoomRepository.save(any(ChatRoom.class))).thenReturn(testRoom);
 
         // Act
         ChatRoom result = chatController.toggleWritePermission(roomId, userId);
 
         // Assert
         assertNotNull(result);
-        verify(chatRoomRepository, times(1)).save(testRoom);
+        assertEquals(testRoom.getId(), result.getId());
+        verify(roomMetadataCache).put(new RoomMetadata(roomId, userId, true, true, 4L, false));
+        verify(roomMetadataCache, never()).invalidate(anyString());
+        verify(chatRoomRepository, never()).save(any(ChatRoom.class));
+        verify(roomBroadcaster).broadcast(argThat((ChatMessage message) ->
+                message.getType() == ChatMessage.MessageType.SYSTEM && roomId.equals(message.getRoomId())));
+    }
+
+    @Test
+    void toggleWritePermission_WithStaleCache_ShouldReloadAndRetryOnce() {
+        // Arrange
+        String userId = "user123";
+        String roomId = "room123";
+        ChatRoom current = new ChatRoom();
+        current.setRoomId(roomId);
+        current.setOwnerId(userId);
+        current.setActive(true);
+        current.setOnlyOwnerCanWrite(true);
+        current.setVersion(5L);
+        testRoom.setVersion(4L);
+        when(roomMetadataCache.get(roomId))
+                .thenReturn(Optional.of(RoomMetadata.from(testRoom)))
+                .thenReturn(Optional.of(RoomMetadata.from(current)));
+        when(chatRoomRepository.updateOnlyOwnerCanWrite(roomId, userId, 4L, true)).thenReturn(0);
+        when(chatRoomRepository.updateOnlyOwnerCanWrite(roomId, userId, 5L, false)).thenReturn(1);
+        when(chatRoomRepository.findByRoomId(roomId)).thenReturn(Optional.of(current));
+
+        // Act
+        ChatRoom result = chatController.toggleWritePermission(roomId, userId);
+
+        // Assert
+        assertNotNull(result);
+        verify(roomMetadataCache).put(new RoomMetadata(roomId, userId, true, false, 6L, false));
+        verify(roomMetadataCache).invalidate(roomId);
     }
 
     @Test
@@ -170,12 +424,13 @@ class ChatControllerTest {
         // Arrange
         String userId = "user456"; // Non-owner
         String roomId = "room123";
-        when(chatRoomRepository.findByRoomId(roomId)).thenReturn(Optional.of(testRoom));
+        when(roomMetadataCache.get(roomId)).thenReturn(Optional.of(RoomMetadata.from(testRoom)));
 
         // Act & Assert
         assertThrows(RuntimeException.class, () -> {
             chatController.toggleWritePermission(roomId, userId);
         });
+        verify(chatRoomRepository, never()).updateOnlyOwnerCanWrite(anyString(), anyString(), anyLong(), anyBoolean());
     }
 
     @Test
@@ -183,7 +438,7 @@ class ChatControllerTest {
         // Arrange
         String userId = "user123";
         String roomId = "nonexistent";
-        when(chatRoomRepository.findByRoomId(roomId)).thenReturn(Optional.empty());
+        when(roomMetadataCache.get(roomId)).thenReturn(Optional.empty());
 
         // Act & Assert
         assertThrows(RuntimeException.class, () -> {
@@ -191,20 +446,59 @@ class ChatControllerTest {
         });
     }
 
+    @Test
+    void closeRoom_WithOwner_ShouldDeactivateRoom() {
+        // Arrange
+        when(chatRoomRepository.findByRoomId("room123")).thenReturn(Optional.of(testRoom));
+
+        // Act
+        ChatRoom result = chatController.closeRoom("room123", "user123");
+
+        // Assert
+        assertFalse(result.isActive());
+        verify(roomLifecycle, times(1)).close("room123", RoomLifecycle.Reason.CLOSED);
+    }
+
+    @Test
+    void closeRoom_WithNonOwner_ShouldThrowException() {
+        // Arrange
+        when(chatRoomRepository.findByRoomId("room123")).thenReturn(Optional.of(testRoom));
+
+        // Act & Assert
+        assertThrows(RuntimeException.class, () -> chatController.closeRoom("room123", "user456"));
+        verify(roomLifecycle, never()).close(anyString(), any());
+    }
+
     @Test
     void getRoomMessages_ShouldReturnMessages() {
         // Arrange
         String roomId = "room123";
         String userId = "user123";
-        when(chatMessageRepository.findByRoomIdOrderByTimestampAsc(roomId)).thenReturn(testMessages);
+        when(chatService.getRoomMessages(roomId, null, null, null)).thenReturn(testMessages);
 
         // Act
-        List<ChatMessage> result = chatController.getRoomMessages(roomId, userId);
+        List<ChatMessage> result = chatController.getRoomMessages(roomId, userId, null, null, null);
 
         // Assert
         assertNotNull(result);
         assertEquals(2, result.size());
-        verify(chatMessageRepository, times(1)).findByRoomIdOrderByTimestampAsc(roomId);
+        verify(chatService, times(1)).getRoomMessages(roomId, null, null, null);
+        verify(chatMessageRepository, never()).findByRoomIdOrderByTimestampAsc(anyString());
+    }
+
+    @Test
+    void getRoomMessages_WithCursor_ShouldDelegatePageRequest() {
+        // Arrange
+        String roomId = "room123";
+        String userId = "user123";
+        when(chatService.getRoomMessages(roomId, 2L, null, 20)).thenReturn(List.of(testMessage));
+
+        // Act
+        List<ChatMessage> result = chatController.getRoomMessages(roomId, userId, 2L, null, 20);
+
+        // Assert
+        assertEquals(1, result.size());
+        verify(chatService, times(1)).getRoomMessages(roomId, 2L, null, 20);
     }
 
     @Test
@@ -212,14 +506,49 @@ class ChatControllerTest {
         // Arrange
         String roomId = "emptyRoom";
         String userId = "user123";
-        when(chatMessageRepository.findByRoomIdOrderByTimestampAsc(roomId)).thenReturn(Arrays.asList());
+        when(chatService.getRoomMessages(roomId, null, null, null)).thenReturn(Arrays.asList());
 
         // Act
-        List<ChatMessage> result = chatController.getRoomMessages(roomId, userId);
+        List<ChatMessage> result = chatController.getRoomMessages(roomId, userId, null, null, null);
 
         // Assert
         assertNotNull(result);
         assertTrue(result.isEmpty());
-        verify(chatMessageRepository, times(1)).findByRoomIdOrderByTimestampAsc(roomId);
+        verify(chatService, times(1)).getRoomMessages(roomId, null, null, null);
+    }
+
+    @Test
+    void getRoomPresence_ShouldReturnOccupancy() {
+        // Arrange
+        when(presenceRegistry.getOccupancy("room123")).thenReturn(new RoomOccupancy("room123", 3));
+
+        // Act
+        RoomOccupancy result = chatController.getRoomPresence("room123");
+
+        // Assert
+        assertEquals(3, result.count());
+    }
+
+    @Test
+    void exportRoom_WhenStreamFailsBeforeExport_ShouldReleaseReservation() throws Exception {
+        // Arrange
+        when(chatRoomRepository.findByRoomId("room123")).thenReturn(Optional.of(testRoom));
+        TranscriptExporter.Reservation reservation = mock(TranscriptExporter.Reservation.class);
+        when(transcriptExporter.tryReserve()).thenReturn(Optional.of(reservation));
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        // Act
+        ResponseEntity<StreamingResponseBody> response = chatController.exportRoom("room123", "user123", 0L, "gzip",
+                new MockHttpServletRequest());
+
+        // Assert
+        assertThrows(IOException.class, () -> response.getBody().writeTo(broken));
+        verify(reservation).close();
+        verify(transcriptExporter, never()).export(anyString(), anyLong(), any());
     }
-} 
\ No newline at end of file
+}
@@ -6,8 +6,11 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -21,6 +24,9 @@ class ChatMessageRepositoryTest {
     @Autowired
     private ChatMessageRepository chatMessageRepository;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     private ChatMessage testMessage1;
     private ChatMessage testMessage2;
     private ChatMessage testMessage3;
@@ -201,4 +207,115 @@ class ChatMessageRepositoryTest {
         // Assert
         assertFalse(chatMessageRepository.findById(messageId).isPresent());
     }
-} 
\ No newline at end of file
+
+    @Test
+    void testKeysetPagination() {
+        // Arrange
+        LocalDateTime base = LocalDateTime.now().minusHours(1);
+        ChatMessage[] saved = new ChatMessage[5];
+        for (int i = 0; i < 5; i++) {
+            ChatMessage message = new ChatMessage();
+            message.setRoomId("room789");
+            message.setSenderId("user" + i);
+            message.setContent("Mensaje " + i);
+            // Dos mensajes con el mismo timestamp para probar el desempate por id
+            message.setTimestamp(base.plusMinutes(Math.min(i, 3)));
+            message.setType(ChatMessage.MessageType.CHAT);
+            saved[i] = entityManager.persistAndFlush(message);
+        }
+        entityManager.persistAndFlush(testMessage3);
+
+        // Act
+        List<ChatMessage> latest = chatMessageRepository.findLatestByRoomId("room789", PageRequest.of(0, 2));
+        List<ChatMessage> before = chatMessageRepository.findPageBefore("room789", saved[3].getId(), PageRequest.of(0, 2));
+        List<ChatMessage> after = chatMessageRepository.findPageAfter("room789", saved[1].getId(), PageRequest.of(0, 10));
+
+        // Assert
+        assertEquals(List.of("Mensaje 4", "Mensaje 3"), latest.stream().map(ChatMessage::getContent).toList());
+        assertEquals(List.of("Mensaje 2", "Mensaje 1"), before.stream().map(ChatMessage::getContent).toList());
+        assertEquals(List.of("Mensaje 2", "Mensaje 3", "Mensaje 4"), after.stream().map(ChatMessage::getContent).toList());
+    }
+
+    @Test
+    void testKeysetPaginationWithMissingAnchor() {
+        // Arrange
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ChatMessage message = new ChatMessage();
+            message.setRoomId("roomGap");
+            message.setSenderId("user" + i);
+            message.setContent("Mensaje " + i);
+            message.setTimestamp(LocalDateTime.now().minusMinutes(10 - i));
+            message.setType(ChatMessage.MessageType.CHAT);
+            ids.add(entityManager.persistAndFlush(message).getId());
+        }
+        // El ancla se ha purgado
+        chatMessageRepository.deleteById(ids.get(1));
+        entityManager.flush();
+        JpaMessageStore store = new JpaMessageStore(chatMessageRepository, jdbcTemplate);
+
+        // Act
+        List<ChatMessage> fromStart = store.findPageAfter("roomGap", 0L, PageRequest.of(0, 10));
+        List<ChatMessage> afterPurged = store.findPageAfter("roomGap", ids.get(1), PageRequest.of(0, 10));
+        List<ChatMessage> beforePurged = store.findPageBefore("roomGap", ids.get(1), PageRequest.of(0, 10));
+        List<ChatMessage> afterLast = store.findPageAfter("roomGap", ids.get(3), PageRequest.of(0, 10));
+
+        // Assert
+        assertEquals(List.of("Mensaje 0", "Mensaje 2", "Mensaje 3"), fromStart.stream().map(ChatMessage::getContent).toList());
+        assertEquals(List.of("Mensaje 2", "Mensaje 3"), afterPurged.stream().map(ChatMessage::getContent).toList());
+        assertEquals(List.of("Mensaje 0"), beforePurged.stream().map(ChatMessage::getContent).toList());
+        assertTrue(afterLast.isEmpty());
+    }
+
+    @Test
+    void testFindBySeqRange() {
+        // Arrange
+        for (long seq = 1; seq <= 6; seq++) {
+            ChatMessage message = new ChatMessage();
+            message.setRoomId("roomSeq");
+            message.setSenderId("user123");
+            message.setContent("Mensaje " + seq);
+            message.setTimestamp(LocalDateTime.now());
+            message.setType(ChatMessage.MessageType.CHAT);
+            message.setSeq(seq);
+            entityManager.persistAndFlush(message);
+        }
+        testMessage3.setSeq(3L);
+        entityManager.persistAndFlush(testMessage3);
+
+        // Act
+        List<ChatMessage> range = chatMessageRepository.findByRoomIdAndSeqBetweenOrderBySeqAsc(
+                "roomSeq", 2L, 5L, PageRequest.of(0, 3));
+
+        // Assert
+        assertEquals(List.of(2L, 3L, 4L), range.stream().map(ChatMessage::getSeq).toList());
+    }
+
+    @Test
+    void testForEachAfterStreamsInIdOrder() {
+        // Arrange
+        List<Long> ids = new ArrayList<>();
+        for (long seq = 1; seq <= 5; seq++) {
+            ChatMessage message = new ChatMessage();
+            message.setRoomId("roomExport");
+            message.setSenderId("user123");
+            message.setContent("Mensaje " + seq);
+            message.setTimestamp(LocalDateTime.now());
+            message.setType(ChatMessage.MessageType.CHAT);
+            message.setSeq(seq);
+            ids.add(entityManager.persistAndFlush(message).getId());
+        }
+        entityManager.persistAndFlush(testMessage3);
+        JpaMessageStore store = new JpaMessageStore(chatMessageRepository, jdbcTemplate);
+
+        // Act
+        List<ChatMessage> streamed = new ArrayList<>();
+        store.forEachAfter("roomExport", ids.get(1), 2, streamed::add);
+
+        // Assert
+        assertEquals(List.of(3L, 4L, 5L), streamed.stream().map(ChatMessage::getSeq).toList());
+        assertEquals(ChatMessage.MessageType.CHAT, streamed.get(0).getType());
+        assertEquals("Mensaje 3", streamed.get(0).getContent());
+        assertNotNull(streamed.get(0).getTimestamp());
+    }
+}
@@ -220,4 +220,25 @@ class ChatRoomRepositoryTest {
         assertFalse(updatedRoom1.isActive()); // Cambió de true a false
         assertTrue(updatedRoom2.isOnlyOwnerCanWrite()); // Cambió de false a true
     }
+
+    @Test
+    void testUpdateOnlyOwnerCanWrite_ChecksOwnerAndVersion() {
+        // Arrange
+        ChatRoom room = entityManager.persistAndFlush(testRoom1);
+        long version = room.getVersion();
+
+        // Act
+        int byOtherUser = chatRoomRepository.updateOnlyOwnerCanWrite("room123", "user456", version, true);
+        int byOwner = chatRoomRepository.updateOnlyOwnerCanWrite("room123", "user123", version, true);
+        int withStaleVersion = chatRoomRepository.updateOnlyOwnerCanWrite("room123", "user123", version, false);
+        entityManager.clear();
+
+        // Assert
+        assertEquals(0, byOtherUser);
+        assertEquals(1, byOwner);
+        assertEquals(0, withStaleVersion);
+        ChatRoom updated = chatRoomRepository.findByRoomId("room123").orElseThrow();
+        assertTrue(updated.isOnlyOwnerCanWrite());
+        assertEquals(version + 1, updated.getVersion());
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,181 @@
+package com.subaston.chat.repository.log;
+
+import com.subaston.chat.model.ChatMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.PageRequest;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedMessageLogTest {
+
+    @TempDir
+    Path directory;
+
+    private final AtomicLong ids = new AtomicLong();
+    private MappedMessageLog messageLog;
+
+    @BeforeEach
+    void setUp() {
+        messageLog = open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        messageLog.close();
+    }
+
+    @Test
+    void pages_ShouldFollowOnlyTheRoomChain() {
+        // Arrange
+        for (int i = 1; i <= 20; i++) {
+            messageLog.save(message("roomA", i));
+            messageLog.save(message("roomB", i));
+        }
+
+        // Act
+        List<ChatMessage> latest = messageLog.findLatestByRoomId("roomA", PageRequest.of(0, 3));
+        List<ChatMessage> before = messageLog.findPageBefore("roomA", latest.get(2).getId(), PageRequest.of(0, 2));
+        List<ChatMessage> after = messageLog.findPageAfter("roomA", before.get(1).getId(), PageRequest.of(0, 4));
+
+        // Assert
+        assertEquals(List.of(20L, 19L, 18L), latest.stream().map(ChatMessage::getSeq).toList());
+        assertEquals(List.of(17L, 16L), before.stream().map(ChatMessage::getSeq).toList());
+        assertEquals(List.of(17L, 18L, 19L, 20L), after.stream().map(ChatMessage::getSeq).toList());
+        assertTrue(latest.stream().allMatch(message -> "roomA".equals(message.getRoomId())));
+        assertEquals("Mensaje 20", latest.get(0).getContent());
+    }
+
+    @Test
+    void pages_WithUnknownAnchor_ShouldUseIdAsBound() {
+        // Arrange
+        List<Long> roomIds = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            roomIds.add(messageLog.save(message("roomA", i)).getId());
+            messageLog.save(message("roomB", i));
+        }
+        // Un id de roomB no está en la cadena de roomA: equivale a un ancla purgada
+        long foreignId = roomIds.get(4) + 1;
+
+        // Act
+        List<ChatMessage> fromStart = messageLog.findPageAfter("roomA", 0L, PageRequest.of(0, 3));
+        List<ChatMessage> after = messageLog.findPageAfter("roomA", foreignId, PageRequest.of(0, 3));
+        List<ChatMessage> before = messageLog.findPageBefore("roomA", foreignId, PageRequest.of(0, 2));
+
+        // Assert
+        assertEquals(List.of(1L, 2L, 3L), fromStart.stream().map(ChatMessage::getSeq).toList());
+        assertEquals(List.of(6L, 7L, 8L), after.stream().map(ChatMessage::getSeq).toList());
+        assertEquals(List.of(5L, 4L), before.stream().map(ChatMessage::getSeq).toList());
+    }
+
+    @Test
+    void findBySeqRange_ShouldReturnAscendingPage() {
+        // Arrange
+        for (int i = 1; i <= 30; i++) {
+            messageLog.save(message("roomA", i));
+        }
+
+        // Act
+        List<ChatMessage> range = messageLog.findByRoomIdAndSeqBetweenOrderBySeqAsc("roomA", 5L, 12L, PageRequest.of(0, 5));
+
+        // Assert
+        assertEquals(List.of(5L, 6L, 7L, 8L, 9L), range.stream().map(ChatMessage::getSeq).toList());
+    }
+
+    @Test
+    void forEachAfter_ShouldWalkForwardAcrossIndexStretches() {
+        // Arrange
+        for (int i = 1; i <= 30; i++) {
+            messageLog.save(message("roomA", i));
+            messageLog.save(message("roomB", i));
+        }
+        long afterId = messageLog.findByRoomIdAndSeqBetweenOrderBySeqAsc("roomA", 10L, 10L, PageRequest.of(0, 1))
+                .get(0).getId();
+
+        // Act
+        List<Long> fromStart = new ArrayList<>();
+        messageLog.forEachAfter("roomA", 0, 100, message -> fromStart.add(message.getSeq()));
+        List<Long> resumed = new ArrayList<>();
+        messageLog.forEachAfter("roomA", afterId, 100, message -> resumed.add(message.getSeq()));
+
+        // Assert
+        assertEquals(LongStream.rangeClosed(1, 30).boxed().toList(), fromStart);
+        assertEquals(LongStream.rangeClosed(11, 30).boxed().toList(), resumed);
+    }
+
+    @Test
+    void save_ShouldRollSegmentsAndKeepTheChainAcrossThem() {
+        // Act
+        for (int i = 1; i <= 100; i++) {
+            messageLog.save(message("roomA", i));
+        }
+
+        // Assert
+        assertTrue(messageLog.getSegmentCount() > 1);
+        assertEquals(100, messageLog.findByRoomIdOrderByTimestampAsc("roomA").size());
+    }
+
+    @Test
+    void open_ShouldRebuildIndexAndDropTornTail() throws Exception {
+        // Arrange
+        for (int i = 1; i <= 5; i++) {
+            messageLog.save(message("roomA", i));
+        }
+        messageLog.close();
+        Path lastSegment = directory.resolve(LogSegment.fileName(0));
+        long tornOffset = tailOffset(lastSegment);
+        try (RandomAccessFile file = new RandomAccessFile(lastSegment.toFile(), "rw")) {
+            // Cabecera de un registro cuyo cuerpo nunca llegó a escribirse
+            file.seek(tornOffset);
+            file.writeInt(200);
+            file.writeInt(12345);
+        }
+
+        // Act
+        messageLog = open();
+        messageLog.save(message("roomA", 6));
+
+        // Assert
+        List<ChatMessage> latest = messageLog.findLatestByRoomId("roomA", PageRequest.of(0, 10));
+        assertEquals(List.of(6L, 5L, 4L, 3L, 2L, 1L), latest.stream().map(ChatMessage::getSeq).toList());
+    }
+
+    private MappedMessageLog open() {
+        MappedMessageLog opened = new MappedMessageLog(directory, 4096, 4, true, ids::incrementAndGet);
+        opened.open();
+        return opened;
+    }
+
+    private long tailOffset(Path segment) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            long offset = 0;
+            int length;
+            while ((length = file.readInt()) > 0) {
+                offset += LogRecord.HEADER_BYTES + length;
+                file.seek(offset);
+            }
+            return offset;
+        }
+    }
+
+    private ChatMessage message(String roomId, long seq) {
+        ChatMessage message = new ChatMessage();
+        message.setRoomId(roomId);
+        message.setSenderId("user" + seq);
+        message.setContent("Mensaje " + seq);
+        message.setTimestamp(LocalDateTime.now().plusNanos(seq * 1000));
+        message.setType(ChatMessage.MessageType.CHAT);
+        message.setSeq(seq);
+        return message;
+    }
+}
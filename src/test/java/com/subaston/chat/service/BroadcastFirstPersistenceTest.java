@@ -0,0 +1,137 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.MessageAck;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BroadcastFirstPersistenceTest {
+
+    @Mock
+    private MessageIdAllocator messageIdAllocator;
+
+    @Mock
+    private RoomSequencer roomSequencer;
+
+    @Mock
+    private MessageWriteBehindQueue writeBehindQueue;
+
+    @Mock
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @Mock
+    private RoomBroadcaster roomBroadcaster;
+
+    @Mock
+    private SessionMessenger sessionMessenger;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private BroadcastFirstPersistence broadcastFirstPersistence;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(broadcastFirstPersistence, "maxRetries", 1);
+        ReflectionTestUtils.setField(broadcastFirstPersistence, "retryDelayMs", 10L);
+        broadcastFirstPersistence.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcastFirstPersistence.shutdown();
+    }
+
+    @Test
+    void prepare_ShouldAssignIdAndRoomSequence() {
+        // Arrange
+        ChatMessage message = message();
+        message.setSeq(null);
+        when(roomSequencer.next("room123")).thenReturn(42L);
+
+        // Act
+        broadcastFirstPersistence.prepare(message);
+
+        // Assert
+        verify(messageIdAllocator).assignId(message);
+        assertEquals(42L, message.getSeq());
+    }
+
+    @Test
+    void persist_WhenSaved_ShouldAcknowledgeSender() {
+        // Arrange
+        ChatMessage message = message();
+        when(writeBehindQueue.enqueue(message)).thenReturn(CompletableFuture.completedFuture(message));
+
+        // Act
+        broadcastFirstPersistence.persist(message, "session1");
+
+        // Assert
+        verify(sessionMessenger).sendToSession("session1", "/queue/acks", new MessageAck(7L, "room123", 3L, true));
+        verify(roomBroadcaster, never()).broadcast(any(ChatMessage.class));
+    }
+
+    @Test
+    void persist_WhenRetriesExhausted_ShouldRetractAndPublishCorrection() {
+        // Arrange
+        ChatMessage message = message();
+        when(writeBehindQueue.enqueue(message))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("db down")));
+
+        // Act
+        broadcastFirstPersistence.persist(message, "session1");
+
+        // Assert
+        ArgumentCaptor<ChatMessage> correction = ArgumentCaptor.forClass(ChatMessage.class);
+        verify(roomBroadcaster, timeout(1000)).broadcast(correction.capture());
+        verify(writeBehindQueue, times(2)).enqueue(message);
+        verify(recentMessageBuffers).remove("room123", 7L);
+        verify(sessionMessenger).sendToSession(eq("session1"), eq("/queue/acks"),
+                eq(new MessageAck(7L, "room123", 3L, false)));
+        assertEquals(ChatMessage.MessageType.SYSTEM, correction.getValue().getType());
+        assertEquals(7L, correction.getValue().getRetractedId());
+        assertNull(correction.getValue().getId());
+    }
+
+    @Test
+    void init_WhenEnabledWithoutWriteBehind_ShouldFail() {
+        // Arrange
+        ReflectionTestUtils.setField(broadcastFirstPersistence, "enabled", true);
+        when(writeBehindQueue.isEnabled()).thenReturn(false);
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> broadcastFirstPersistence.init());
+    }
+
+    private ChatMessage message() {
+        ChatMessage message = new ChatMessage();
+        message.setId(7L);
+        message.setSeq(3L);
+        message.setRoomId("room123");
+        message.setSenderId("user123");
+        message.setContent("Hola");
+        message.setTimestamp(LocalDateTime.now());
+        message.setType(ChatMessage.MessageType.CHAT);
+        return message;
+    }
+}
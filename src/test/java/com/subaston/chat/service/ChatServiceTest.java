@@ -1,20 +1,29 @@
 package com.subaston.chat.service;
 
 import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.RoomCatchUp;
 import com.subaston.chat.repository.ChatMessageRepository;
+import com.subaston.chat.repository.JpaMessageStore;
+import com.subaston.chat.service.archive.MessageArchive;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import org.springframework.data.domain.Pageable;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -23,6 +32,12 @@ class ChatServiceTest {
     @Mock
     private ChatMessageRepository chatMessageRepository;
 
+    @Mock
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @Mock
+    private MessageArchive messageArchive;
+
     @InjectMocks
     private ChatService chatService;
 
@@ -31,6 +46,7 @@ class ChatServiceTest {
 
     @BeforeEach
     void setUp() {
+        ReflectionTestUtils.setField(chatService, "messageStore", new JpaMessageStore(chatMessageRepository, null));
         testMessage = new ChatMessage();
         testMessage.setId(1L);
         testMessage.setRoomId("room123");
@@ -122,4 +138,139 @@ class ChatServiceTest {
             chatService.getRoomMessages("");
         });
     }
-} 
\ No newline at end of file
+
+    @Test
+    void getRoomMessagesPage_WithoutCursor_ShouldReturnLatestInAscendingOrder() {
+        // Arrange
+        String roomId = "room123";
+        List<ChatMessage> newestFirst = new ArrayList<>(testMessages);
+        java.util.Collections.reverse(newestFirst);
+        when(chatMessageRepository.findLatestByRoomId(eq(roomId), any(Pageable.class))).thenReturn(newestFirst);
+
+        // Act
+        List<ChatMessage> result = chatService.getRoomMessages(roomId, null, null, null);
+
+        // Assert
+        assertEquals(2, result.size());
+        assertEquals(1L, result.get(0).getId());
+        assertEquals(2L, result.get(1).getId());
+        verify(chatMessageRepository).findLatestByRoomId(eq(roomId), argThat(p -> p.getPageSize() == 50));
+    }
+
+    @Test
+    void getRoomMessagesPage_WithBefore_ShouldUseKeysetAndReverse() {
+        // Arrange
+        String roomId = "room123";
+        when(chatMessageRepository.findPageBefore(eq(roomId), eq(3L), any(Pageable.class)))
+                .thenReturn(Arrays.asList(testMessages.get(1), testMessages.get(0)));
+
+        // Act
+        List<ChatMessage> result = chatService.getRoomMessages(roomId, 3L, null, 10);
+
+        // Assert
+        assertEquals(1L, result.get(0).getId());
+        verify(chatMessageRepository).findPageBefore(eq(roomId), eq(3L), argThat(p -> p.getPageSize() == 10));
+    }
+
+    @Test
+    void getRoomMessagesPage_WithAfter_ShouldKeepAscendingOrder() {
+        // Arrange
+        String roomId = "room123";
+        when(chatMessageRepository.findPageAfter(eq(roomId), eq(0L), any(Pageable.class))).thenReturn(testMessages);
+
+        // Act
+        List<ChatMessage> result = chatService.getRoomMessages(roomId, null, 0L, null);
+
+        // Assert
+        assertEquals(testMessages, result);
+    }
+
+    @Test
+    void getRoomMessagesPage_ShouldCapPageSize() {
+        // Arrange
+        String roomId = "room123";
+        when(chatMessageRepository.findLatestByRoomId(eq(roomId), any(Pageable.class))).thenReturn(List.of());
+
+        // Act
+        chatService.getRoomMessages(roomId, null, null, 10_000);
+
+        // Assert
+        verify(chatMessageRepository).findLatestByRoomId(eq(roomId), argThat(p -> p.getPageSize() == 200));
+    }
+
+    @Test
+    void getRoomMessagesPage_WithArchivedRoom_ShouldReadArchive() {
+        // Arrange
+        String roomId = "room123";
+        when(messageArchive.isArchived(roomId)).thenReturn(true);
+        when(messageArchive.getPage(roomId, 5L, null, 50)).thenReturn(testMessages);
+
+        // Act
+        List<ChatMessage> result = chatService.getRoomMessages(roomId, 5L, null, null);
+
+        // Assert
+        assertEquals(testMessages, result);
+        verifyNoInteractions(chatMessageRepository, recentMessageBuffers);
+    }
+
+    @Test
+    void getMessagesBySeqRange_ShouldQueryOnePage() {
+        // Arrange
+        String roomId = "room123";
+        when(chatMessageRepository.findByRoomIdAndSeqBetweenOrderBySeqAsc(eq(roomId), eq(4L), eq(9L), any(Pageable.class)))
+                .thenReturn(testMessages);
+
+        // Act
+        List<ChatMessage> result = chatService.getMessagesBySeqRange(roomId, 4L, 9L);
+
+        // Assert
+        assertEquals(testMessages, result);
+        verify(chatMessageRepository).findByRoomIdAndSeqBetweenOrderBySeqAsc(eq(roomId), eq(4L), eq(9L),
+                argThat(p -> p.getPageSize() == 200));
+    }
+
+    @Test
+    void getMessagesBySeqRange_WithInvertedRange_ShouldThrowException() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> chatService.getMessagesBySeqRange("room123", 9L, 4L));
+        verifyNoInteractions(chatMessageRepository);
+    }
+
+    @Test
+    void getRoomMessagesPage_WithBothCursors_ShouldThrowException() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> {
+            chatService.getRoomMessages("room123", 1L, 2L, null);
+        });
+        verifyNoInteractions(chatMessageRepository);
+    }
+
+    @Test
+    void getMessagesSince_ShouldReturnGapFromBufferWhenAvailable() {
+        // Arrange
+        when(recentMessageBuffers.getPage("room123", null, 1L, 200)).thenReturn(java.util.Optional.of(List.of(testMessages.get(1))));
+
+        // Act
+        RoomCatchUp result = chatService.getMessagesSince("room123", 1L);
+
+        // Assert
+        assertFalse(result.truncated());
+        assertEquals(List.of(testMessages.get(1)), result.messages());
+        verifyNoInteractions(chatMessageRepository);
+    }
+
+    @Test
+    void getMessagesSince_WithLargeGap_ShouldTruncate() {
+        // Arrange
+        org.springframework.test.util.ReflectionTestUtils.setField(chatService, "maxPageSize", 2);
+        org.springframework.test.util.ReflectionTestUtils.setField(chatService, "maxCatchUpMessages", 3);
+        when(chatMessageRepository.findPageAfter(eq("room123"), any(), any(Pageable.class))).thenReturn(testMessages);
+
+        // Act
+        RoomCatchUp result = chatService.getMessagesSince("room123", 0L);
+
+        // Assert
+        assertTrue(result.truncated());
+        assertEquals(3, result.messages().size());
+    }
+}
@@ -0,0 +1,94 @@
+package com.subaston.chat.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class InboundRateLimiterTest {
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private InboundRateLimiter inboundRateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        // Recarga muy lenta para que el test no dependa del reloj
+        ReflectionTestUtils.setField(inboundRateLimiter, "userPerSecond", 0.001);
+        ReflectionTestUtils.setField(inboundRateLimiter, "userBurst", 3);
+        ReflectionTestUtils.setField(inboundRateLimiter, "roomPerSecond", 0.001);
+        ReflectionTestUtils.setField(inboundRateLimiter, "roomBurst", 5);
+        inboundRateLimiter.init();
+    }
+
+    @Test
+    void tryAcquire_ShouldAllowBurstThenLimitUser() {
+        // Act & Assert
+        for (int i = 0; i < 3; i++) {
+            assertEquals(InboundRateLimiter.Decision.ALLOWED, inboundRateLimiter.tryAcquire("user123", "room123"));
+        }
+        assertEquals(InboundRateLimiter.Decision.USER_LIMITED, inboundRateLimiter.tryAcquire("user123", "room123"));
+        assertEquals(InboundRateLimiter.Decision.ALLOWED, inboundRateLimiter.tryAcquire("user456", "room123"));
+    }
+
+    @Test
+    void tryAcquire_ShouldLimitRoomAcrossUsers() {
+        // Act
+        for (int i = 0; i < 5; i++) {
+            inboundRateLimiter.tryAcquire("user" + i, "room123");
+        }
+
+        // Assert
+        assertEquals(InboundRateLimiter.Decision.ROOM_LIMITED, inboundRateLimiter.tryAcquire("user9", "room123"));
+        assertEquals(1.0, meterRegistry.counter("chat.rate-limit.rejected", "scope", "room").count());
+    }
+
+    @Test
+    void tryAcquire_Concurrently_ShouldNeverExceedBurst() throws Exception {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(400);
+        AtomicInteger allowed = new AtomicInteger();
+
+        // Act
+        for (int i = 0; i < 400; i++) {
+            executor.execute(() -> {
+                if (inboundRateLimiter.tryAcquire("user123", null) == InboundRateLimiter.Decision.ALLOWED) {
+                    allowed.incrementAndGet();
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        // Assert
+        assertEquals(3, allowed.get());
+    }
+
+    @Test
+    void shouldNotify_ShouldNotifyOncePerPeriod() {
+        // Arrange
+        inboundRateLimiter.tryAcquire("user123", null);
+
+        // Act & Assert
+        assertTrue(inboundRateLimiter.shouldNotify("user123"));
+        assertFalse(inboundRateLimiter.shouldNotify("user123"));
+    }
+}
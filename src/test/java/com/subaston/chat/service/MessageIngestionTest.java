@@ -0,0 +1,247 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.IngestResult;
+import com.subaston.chat.model.RoomMetadata;
+import com.subaston.chat.repository.MessageStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MessageIngestionTest {
+
+    @Mock
+    private RoomMetadataCache roomMetadataCache;
+
+    @Spy
+    private RoomLocks roomLocks = new RoomLocks();
+
+    @Mock
+    private RoomSequencer roomSequencer;
+
+    @Mock
+    private MessageIdAllocator messageIdAllocator;
+
+    @Mock
+    private MessageStore messageStore;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @Mock
+    private RoomBroadcaster roomBroadcaster;
+
+    @Mock
+    private RoomLifecycle roomLifecycle;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private MessageIngestion messageIngestion;
+
+    @Captor
+    private ArgumentCaptor<List<ChatMessage>> saved;
+
+    @BeforeEach
+    void setUp() {
+        messageIngestion.init();
+        when(roomMetadataCache.getAll(anyList())).thenReturn(Map.of(
+                "room1", new RoomMetadata("room1", "auction", true, true, 0, false),
+                "room2", new RoomMetadata("room2", "seller", true, false, 0, false),
+                "closed", new RoomMetadata("closed", "auction", false, false, 0, false),
+                "private", new RoomMetadata("private", "owner", true, true, 0, false)));
+    }
+
+    @Test
+    void ingest_ShouldPersistValidMessagesInOneBatchAndBroadcastPerRoom() {
+        // Arrange
+        AtomicLong ids = new AtomicLong(100);
+        when(messageIdAllocator.assignId(any())).thenAnswer(invocation -> {
+            ChatMessage message = invocation.getArgument(0);
+            message.setId(ids.incrementAndGet());
+            return message;
+        });
+        when(roomSequencer.next(anyString())).thenReturn(1L, 2L, 1L);
+        doAnswer(invocation -> {
+            invocation.<Consumer<Object>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        ChatMessage chat = message("room2", "Nueva puja", ChatMessage.MessageType.CHAT);
+        chat.setId(5L);
+        List<ChatMessage> batch = Arrays.asList(
+                message("room1", "Puja de 100", null),
+                chat,
+                message("missing", "Puja", null),
+                message("closed", "Puja", null),
+                message("private", "Puja", null),
+                message("room1", "Subasta cerrada", ChatMessage.MessageType.SYSTEM),
+                message("room1", "", null),
+                message("room1", "Hola", ChatMessage.MessageType.JOIN),
+                null,
+                message("room2", "La sala se ha cerrado", ChatMessage.MessageType.SYSTEM));
+
+        // Act
+        List<IngestResult> results = messageIngestion.ingest("auction", batch);
+
+        // Assert
+        assertEquals(List.of(IngestResult.Status.ACCEPTED, IngestResult.Status.ACCEPTED,
+                        IngestResult.Status.ROOM_NOT_FOUND, IngestResult.Status.ROOM_CLOSED,
+                        IngestResult.Status.FORBIDDEN, IngestResult.Status.ACCEPTED, IngestResult.Status.INVALID,
+                        IngestResult.Status.INVALID, IngestResult.Status.INVALID, IngestResult.Status.FORBIDDEN),
+                results.stream().map(IngestResult::status).toList());
+        assertEquals(101L, results.get(0).messageId());
+        assertEquals(2L, results.get(5).seq());
+        assertEquals(ChatMessage.MessageType.CHAT, batch.get(0).getType());
+        assertEquals("auction", chat.getSenderId());
+        assertEquals(103L, chat.getId());
+
+        verify(messageStore, times(1)).saveAll(saved.capture());
+        assertEquals(List.of(batch.get(0), batch.get(5), chat), saved.getValue());
+        verify(roomMetadataCache, times(1)).getAll(anyList());
+        verify(roomBroadcaster).broadcastAll("room1", List.of(batch.get(0), batch.get(5)));
+        verify(roomBroadcaster).broadcastAll("room2", List.of(chat));
+        verify(recentMessageBuffers, times(3)).append(any());
+        assertEquals(3, meterRegistry.get("chat.ingest.messages").tag("result", "accepted").counter().count());
+    }
+
+    @Test
+    void ingest_WhenBatchInsertFails_ShouldReportFailedWithoutBroadcasting() {
+        // Arrange
+        when(roomSequencer.next(anyString())).thenReturn(1L);
+        doThrow(new IllegalStateException("db down")).when(transactionTemplate).executeWithoutResult(any());
+        List<ChatMessage> batch = new ArrayList<>(List.of(message("room1", "Puja de 100", null),
+                message("missing", "Puja", null)));
+
+        // Act
+        List<IngestResult> results = messageIngestion.ingest("auction", batch);
+
+        // Assert
+        assertEquals(IngestResult.Status.FAILED, results.get(0).status());
+        assertNull(results.get(0).messageId());
+        assertEquals(IngestResult.Status.ROOM_NOT_FOUND, results.get(1).status());
+        verifyNoInteractions(roomBroadcaster, recentMessageBuffers);
+    }
+
+    @Test
+    void ingest_WhenOneRowFails_ShouldRetryOneByOneAndFailOnlyThatRow() {
+        // Arrange
+        when(roomSequencer.next(anyString())).thenReturn(1L, 2L, 3L);
+        doAnswer(invocation -> {
+            invocation.<Consumer<Object>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        List<ChatMessage> batch = List.of(message("room1", "Puja de 100", null),
+                message("room1", "Puja de 200", null),
+                message("room1", "Puja de 300", null));
+        doThrow(new IllegalStateException("constraint violation")).when(messageStore)
+                .saveAll(argThat(messages -> messages.contains(batch.get(1))));
+
+        // Act
+        List<IngestResult> results = messageIngestion.ingest("auction", batch);
+
+        // Assert
+        assertEquals(List.of(IngestResult.Status.ACCEPTED, IngestResult.Status.FAILED, IngestResult.Status.ACCEPTED),
+                results.stream().map(IngestResult::status).toList());
+        verify(messageStore, times(4)).saveAll(anyList());
+        verify(roomBroadcaster).broadcastAll("room1", List.of(batch.get(0), batch.get(2)));
+        verify(recentMessageBuffers, never()).append(batch.get(1));
+    }
+
+    @Test
+    void ingest_WithContentTooLong_ShouldRejectAsInvalid() {
+        // Arrange
+        List<ChatMessage> batch = List.of(message("room1", "x".repeat(ChatMessage.MAX_CONTENT_LENGTH + 1), null));
+
+        // Act
+        List<IngestResult> results = messageIngestion.ingest("auction", batch);
+
+        // Assert
+        assertEquals(IngestResult.Status.INVALID, results.get(0).status());
+        verifyNoInteractions(messageStore, roomBroadcaster);
+    }
+
+    @Test
+    void ingest_ShouldLockAndPersistInChunks() {
+        // Arrange
+        ReflectionTestUtils.setField(messageIngestion, "chunkSize", 2);
+        when(roomSequencer.next(anyString())).thenReturn(1L, 2L, 3L);
+        doAnswer(invocation -> {
+            invocation.<Consumer<Object>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        List<ChatMessage> batch = List.of(message("room1", "Puja de 100", null),
+                message("room1", "Puja de 200", null),
+                message("room2", "Puja de 300", null));
+
+        // Act
+        messageIngestion.ingest("auction", batch);
+
+        // Assert
+        verify(roomLocks).withRoomLocks(eq(Set.of("room1")), any());
+        verify(roomLocks).withRoomLocks(eq(Set.of("room2")), any());
+        verify(messageStore).saveAll(List.of(batch.get(0), batch.get(1)));
+        verify(messageStore).saveAll(List.of(batch.get(2)));
+        verify(roomBroadcaster).broadcastAll("room1", List.of(batch.get(0), batch.get(1)));
+        verify(roomBroadcaster).broadcastAll("room2", List.of(batch.get(2)));
+    }
+
+    @Test
+    void ingest_SystemMessages_ShouldOnlyBeAcceptedFromOwnerOrSystemSender() {
+        // Arrange
+        ReflectionTestUtils.setField(messageIngestion, "systemSenders", Set.of("auction"));
+        when(roomSequencer.next(anyString())).thenReturn(1L);
+        List<ChatMessage> batch = List.of(message("private", "Puja aceptada", ChatMessage.MessageType.SYSTEM),
+                message("room2", "Puja aceptada", ChatMessage.MessageType.SYSTEM));
+
+        // Act
+        List<IngestResult> fromService = messageIngestion.ingest("auction", batch);
+        List<IngestResult> fromUser = messageIngestion.ingest("mallory",
+                List.of(message("room2", "La sala se ha cerrado", ChatMessage.MessageType.SYSTEM),
+                        message("room2", "Hola", null)));
+
+        // Assert
+        assertEquals(List.of(IngestResult.Status.ACCEPTED, IngestResult.Status.ACCEPTED),
+                fromService.stream().map(IngestResult::status).toList());
+        assertEquals(List.of(IngestResult.Status.FORBIDDEN, IngestResult.Status.ACCEPTED),
+                fromUser.stream().map(IngestResult::status).toList());
+    }
+
+    private static ChatMessage message(String roomId, String content, ChatMessage.MessageType type) {
+        ChatMessage message = new ChatMessage();
+        message.setRoomId(roomId);
+        message.setContent(content);
+        message.setType(type);
+        return message;
+    }
+}
@@ -0,0 +1,172 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.config.StorageConfig;
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.repository.ChatMessageRepository;
+import com.subaston.chat.repository.MessageStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@Import({MessageWriteBehindQueue.class, MessageIdAllocator.class, StorageConfig.class, SimpleMeterRegistry.class})
+@TestPropertySource(properties = {
+        "chat.persistence.write-behind.enabled=true",
+        "chat.persistence.write-behind.batch-size=10",
+        "chat.persistence.write-behind.flush-interval-ms=20",
+        "chat.persistence.write-behind.retry-backoff-ms=1"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class MessageWriteBehindQueueTest {
+
+    @Autowired
+    private MessageWriteBehindQueue writeBehindQueue;
+
+    @Autowired
+    private MessageIdAllocator messageIdAllocator;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void enqueue_ShouldAssignIdAndPersistInBatches() throws Exception {
+        // Arrange
+        List<CompletableFuture<ChatMessage>> futures = new ArrayList<>();
+
+        // Act
+        for (int i = 0; i < 25; i++) {
+            ChatMessage message = newMessage("wbRoom", "Mensaje " + i);
+            futures.add(writeBehindQueue.enqueue(message));
+            assertNotNull(message.getId());
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        // Assert
+        List<ChatMessage> stored = chatMessageRepository.findByRoomIdOrderByTimestampAsc("wbRoom");
+        assertEquals(25, stored.size());
+        assertEquals(ChatMessage.MessageType.CHAT, stored.get(0).getType());
+    }
+
+    @Test
+    void allocatedIds_ShouldNotCollideWithJpaGeneratedIds() {
+        // Arrange
+        Set<Long> ids = new HashSet<>();
+
+        // Act
+        for (int i = 0; i < 120; i++) {
+            ids.add(messageIdAllocator.nextId());
+            ids.add(chatMessageRepository.save(newMessage("idRoom", "Mensaje " + i)).getId());
+        }
+
+        // Assert
+        assertEquals(240, ids.size());
+    }
+
+    @Test
+    void alignSequence_WhenRowsAreAheadOfSequence_ShouldRestartPastMaxId() {
+        // Arrange: filas guardadas antes de que existiera la secuencia
+        ChatMessage legacy = newMessage("legacyRoom", "Mensaje antiguo");
+        legacy.setId(1_000_000L);
+        messageStore.saveAll(List.of(legacy));
+
+        // Act
+        messageIdAllocator.alignSequence();
+
+        // Assert
+        assertTrue(messageIdAllocator.nextId() > 1_000_000L);
+    }
+
+    @Test
+    void writeBatch_WhenAttemptsAreExhausted_ShouldCountAndFailFuture() {
+        // Arrange: el contenido no cabe en la columna
+        ChatMessage tooLong = newMessage("failRoom", "x".repeat(ChatMessage.MAX_CONTENT_LENGTH + 1));
+        tooLong.setId(messageIdAllocator.nextId());
+        MessageWriteBehindQueue.PendingWrite pending =
+                new MessageWriteBehindQueue.PendingWrite(tooLong, new CompletableFuture<>());
+        double before = meterRegistry.counter("chat.persistence.write-behind.failed").count();
+
+        // Act
+        writeBehindQueue.writeBatch(List.of(pending));
+
+        // Assert
+        assertTrue(pending.persisted().isCompletedExceptionally());
+        assertEquals(before + 1, meterRegistry.counter("chat.persistence.write-behind.failed").count());
+        assertTrue(chatMessageRepository.findByRoomIdOrderByTimestampAsc("failRoom").isEmpty());
+    }
+
+    @Test
+    void writeBatch_WithOneBadRow_ShouldFailOnlyThatRow() throws Exception {
+        // Arrange: una fila que no cabe entre dos buenas
+        List<MessageWriteBehindQueue.PendingWrite> batch = new ArrayList<>();
+        for (String content : List.of("Uno", "x".repeat(ChatMessage.MAX_CONTENT_LENGTH + 1), "Tres")) {
+            ChatMessage message = newMessage("mixedRoom", content);
+            message.setId(messageIdAllocator.nextId());
+            batch.add(new MessageWriteBehindQueue.PendingWrite(message, new CompletableFuture<>()));
+        }
+        double before = meterRegistry.counter("chat.persistence.write-behind.failed").count();
+
+        // Act
+        writeBehindQueue.writeBatch(batch);
+
+        // Assert
+        assertEquals("Uno", batch.get(0).persisted().get().getContent());
+        assertTrue(batch.get(1).persisted().isCompletedExceptionally());
+        assertEquals("Tres", batch.get(2).persisted().get().getContent());
+        assertEquals(before + 1, meterRegistry.counter("chat.persistence.write-behind.failed").count());
+        List<ChatMessage> stored = chatMessageRepository.findByRoomIdOrderByTimestampAsc("mixedRoom");
+        assertEquals(List.of("Uno", "Tres"), stored.stream().map(ChatMessage::getContent).toList());
+    }
+
+    @Test
+    void stop_ShouldFlushPendingMessages() {
+        // Arrange
+        List<CompletableFuture<ChatMessage>> futures = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            futures.add(writeBehindQueue.enqueue(newMessage("stopRoom", "Mensaje " + i)));
+        }
+
+        // Act
+        writeBehindQueue.stop();
+
+        // Assert
+        assertTrue(futures.stream().allMatch(CompletableFuture::isDone));
+        assertEquals(15, chatMessageRepository.findByRoomIdOrderByTimestampAsc("stopRoom").size());
+
+        // Tras la parada los mensajes se insertan de forma síncrona
+        CompletableFuture<ChatMessage> late = writeBehindQueue.enqueue(newMessage("stopRoom", "Tarde"));
+        assertTrue(late.isDone());
+        writeBehindQueue.start();
+    }
+
+    private ChatMessage newMessage(String roomId, String content) {
+        ChatMessage message = new ChatMessage();
+        message.setRoomId(roomId);
+        message.setSenderId("user123");
+        message.setContent(content);
+        message.setTimestamp(LocalDateTime.now());
+        message.setType(ChatMessage.MessageType.CHAT);
+        return message;
+    }
+}
@@ -0,0 +1,108 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PresenceDigestTest {
+
+    @Mock
+    private RoomBroadcaster roomBroadcaster;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private PresenceDigest presenceDigest;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(presenceDigest, "enabled", true);
+        ReflectionTestUtils.setField(presenceDigest, "enterRate", 3);
+        ReflectionTestUtils.setField(presenceDigest, "windowMs", 30L);
+        ReflectionTestUtils.setField(presenceDigest, "maxNames", 2);
+        presenceDigest.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        presenceDigest.shutdown();
+    }
+
+    @Test
+    void announce_BelowThreshold_ShouldBroadcastEachNotice() {
+        // Act
+        presenceDigest.announce(notice("ana", ChatMessage.MessageType.JOIN));
+        presenceDigest.announce(notice("bob", ChatMessage.MessageType.LEAVE));
+
+        // Assert
+        verify(roomBroadcaster, times(2)).broadcast(any(ChatMessage.class));
+        assertFalse(presenceDigest.isDigesting("room123"));
+    }
+
+    @Test
+    void announce_AboveThreshold_ShouldBroadcastOneDigestPerWindow() {
+        // Act
+        presenceDigest.announce(notice("ana", ChatMessage.MessageType.JOIN));
+        presenceDigest.announce(notice("bob", ChatMessage.MessageType.JOIN));
+        for (String user : new String[]{"carla", "david", "eva", "fran"}) {
+            presenceDigest.announce(notice(user, ChatMessage.MessageType.JOIN));
+        }
+        presenceDigest.announce(notice("ana", ChatMessage.MessageType.LEAVE));
+
+        // Assert
+        assertTrue(presenceDigest.isDigesting("room123"));
+        ArgumentCaptor<ChatMessage> sent = ArgumentCaptor.forClass(ChatMessage.class);
+        verify(roomBroadcaster, timeout(1000).times(3)).broadcast(sent.capture());
+        ChatMessage digest = sent.getAllValues().get(2);
+        assertEquals(ChatMessage.MessageType.JOIN, digest.getType());
+        assertEquals("room123", digest.getRoomId());
+        assertNull(digest.getSenderId());
+        assertEquals("4 usuarios se han unido al chat: carla, david y 2 más. 1 usuario ha salido del chat: ana",
+                digest.getContent());
+        assertEquals(1, meterRegistry.get("chat.presence.digests").counter().count());
+        assertEquals(5, meterRegistry.get("chat.presence.digested.events").counter().count());
+    }
+
+    @Test
+    void announce_WhenDisabled_ShouldBroadcastImmediately() {
+        // Arrange
+        ReflectionTestUtils.setField(presenceDigest, "enabled", false);
+
+        // Act
+        for (int i = 0; i < 6; i++) {
+            presenceDigest.announce(notice("user" + i, ChatMessage.MessageType.JOIN));
+        }
+
+        // Assert
+        verify(roomBroadcaster, times(6)).broadcast(any(ChatMessage.class));
+        assertFalse(presenceDigest.isDigesting("room123"));
+    }
+
+    private ChatMessage notice(String userId, ChatMessage.MessageType type) {
+        ChatMessage message = new ChatMessage();
+        message.setRoomId("room123");
+        message.setSenderId(userId);
+        message.setType(type);
+        message.setTimestamp(LocalDateTime.now());
+        message.setContent(userId + (type == ChatMessage.MessageType.JOIN ? " se ha unido al chat!" : " ha salido del chat"));
+        return message;
+    }
+}
@@ -0,0 +1,170 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.RoomOccupancy;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PresenceRegistryTest {
+
+    @Mock
+    private PresenceDigest presenceDigest;
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private PresenceRegistry presenceRegistry;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(presenceRegistry, "publishIntervalMs", 50L);
+        presenceRegistry.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        presenceRegistry.shutdown();
+    }
+
+    @Test
+    void subscribe_ShouldCountSessionsOncePerRoom() {
+        // Act
+        presenceRegistry.onConnect(connect("s1", "user123"));
+        presenceRegistry.onSubscribe(subscribe("s1", "sub-0", "/topic/room123"));
+        presenceRegistry.onSubscribe(subscribe("s1", "sub-1", "/topic/room123"));
+        presenceRegistry.onSubscribe(subscribe("s1", "sub-2", "/topic/room123/presence"));
+        presenceRegistry.onSubscribe(subscribe("s2", "sub-0", "/topic/room123"));
+
+        // Assert
+        assertEquals(new RoomOccupancy("room123", 2), presenceRegistry.getOccupancy("room123"));
+        assertEquals(Set.of("user123"), presenceRegistry.getMembers("room123"));
+    }
+
+    @Test
+    void disconnect_ShouldEmitLeaveAndDecrementCount() {
+        // Arrange
+        presenceRegistry.onConnect(connect("s1", "user123"));
+        presenceRegistry.onSubscribe(subscribe("s1", "sub-0", "/topic/room123"));
+
+        // Act
+        presenceRegistry.onDisconnect(new SessionDisconnectEvent(this, message(StompCommand.DISCONNECT, "s1"), "s1",
+                CloseStatus.NORMAL));
+
+        // Assert
+        assertEquals(0, presenceRegistry.getOccupancy("room123").count());
+        ArgumentCaptor<ChatMessage> leave = ArgumentCaptor.forClass(ChatMessage.class);
+        verify(presenceDigest).announce(leave.capture());
+        assertEquals(ChatMessage.MessageType.LEAVE, leave.getValue().getType());
+        assertEquals("user123", leave.getValue().getSenderId());
+    }
+
+    @Test
+    void unsubscribe_ShouldLeaveOnlyWhenLastSubscriptionGoes() {
+        // Arrange
+        presenceRegistry.onConnect(connect("s1", "user123"));
+        presenceRegistry.onSubscribe(subscribe("s1", "sub-0", "/topic/room123"));
+        presenceRegistry.onSubscribe(subscribe("s1", "sub-1", "/topic/room123"));
+
+        // Act
+        presenceRegistry.onUnsubscribe(new SessionUnsubscribeEvent(this, unsubscribe("s1", "sub-0")));
+        int afterFirst = presenceRegistry.getOccupancy("room123").count();
+        presenceRegistry.onUnsubscribe(new SessionUnsubscribeEvent(this, unsubscribe("s1", "sub-1")));
+
+        // Assert
+        assertEquals(1, afterFirst);
+        assertEquals(0, presenceRegistry.getOccupancy("room123").count());
+        verify(presenceDigest, times(1)).announce(any(ChatMessage.class));
+    }
+
+    @Test
+    void occupancy_ShouldBePublishedThrottledWithLatestCount() throws Exception {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(200);
+
+        // Act
+        for (int i = 0; i < 200; i++) {
+            String sessionId = "s" + i;
+            executor.execute(() -> {
+                presenceRegistry.onSubscribe(subscribe(sessionId, "sub-0", "/topic/room123"));
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        // Assert
+        assertEquals(200, presenceRegistry.getOccupancy("room123").count());
+        verify(messagingTemplate, timeout(2000)).convertAndSend(eq("/topic/room123/presence"),
+                eq(new RoomOccupancy("room123", 200)), anyMap());
+        verify(messagingTemplate, atMost(3)).convertAndSend(eq("/topic/room123/presence"),
+                any(RoomOccupancy.class), anyMap());
+    }
+
+    private SessionConnectEvent connect(String sessionId, String userId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setSessionId(sessionId);
+        accessor.setNativeHeader("X-User-Id", userId);
+        return new SessionConnectEvent(this, MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    private SessionSubscribeEvent subscribe(String sessionId, String subscriptionId, String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        accessor.setSessionAttributes(new HashMap<>());
+        return new SessionSubscribeEvent(this, MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    private Message<byte[]> unsubscribe(String sessionId, String subscriptionId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.UNSUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private Message<byte[]> message(StompCommand command, String sessionId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId(sessionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,162 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.repository.ChatMessageRepository;
+import com.subaston.chat.repository.JpaMessageStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RecentMessageBuffersTest {
+
+    @Mock
+    private ChatMessageRepository chatMessageRepository;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private RecentMessageBuffers recentMessageBuffers;
+
+    private final LocalDateTime base = LocalDateTime.now().minusHours(1);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(recentMessageBuffers, "messageStore", new JpaMessageStore(chatMessageRepository, null));
+        ReflectionTestUtils.setField(recentMessageBuffers, "roomCapacity", 5);
+        ReflectionTestUtils.setField(recentMessageBuffers, "maxTotalMessages", 8L);
+        recentMessageBuffers.init();
+    }
+
+    @Test
+    void getPage_ShouldWarmOnceAndServeFromMemory() {
+        // Arrange
+        when(chatMessageRepository.findLatestByRoomId(eq("room123"), any(Pageable.class)))
+                .thenReturn(List.of(message("room123", 2), message("room123", 1)));
+
+        // Act
+        Optional<List<ChatMessage>> first = recentMessageBuffers.getPage("room123", null, null, 2);
+        recentMessageBuffers.append(message("room123", 3));
+        Optional<List<ChatMessage>> second = recentMessageBuffers.getPage("room123", null, null, 5);
+
+        // Assert
+        assertEquals(List.of(1L, 2L), ids(first.get()));
+        // Historial completo (menos mensajes que la capacidad): se puede responder aunque falten
+        assertEquals(List.of(1L, 2L, 3L), ids(second.get()));
+        verify(chatMessageRepository, times(1)).findLatestByRoomId(eq("room123"), any(Pageable.class));
+    }
+
+    @Test
+    void getPage_WithCursorOutsideBuffer_ShouldMiss() {
+        // Arrange
+        List<ChatMessage> latest = new ArrayList<>();
+        for (long id = 10; id > 5; id--) {
+            latest.add(message("room123", id));
+        }
+        when(chatMessageRepository.findLatestByRoomId(eq("room123"), any(Pageable.class))).thenReturn(latest);
+
+        // Act
+        Optional<List<ChatMessage>> before = recentMessageBuffers.getPage("room123", 8L, null, 2);
+        Optional<List<ChatMessage>> beforeTooFar = recentMessageBuffers.getPage("room123", 8L, null, 4);
+        Optional<List<ChatMessage>> after = recentMessageBuffers.getPage("room123", null, 7L, 5);
+        Optional<List<ChatMessage>> unknown = recentMessageBuffers.getPage("room123", null, 3L, 5);
+
+        // Assert
+        assertEquals(List.of(6L, 7L), ids(before.get()));
+        assertTrue(beforeTooFar.isEmpty());
+        assertEquals(List.of(8L, 9L, 10L), ids(after.get()));
+        assertTrue(unknown.isEmpty());
+    }
+
+    @Test
+    void append_ShouldKeepOnlyRoomCapacityAndEvictUnderBudget() {
+        // Arrange
+        when(chatMessageRepository.findLatestByRoomId(any(), any(Pageable.class))).thenReturn(List.of());
+        recentMessageBuffers.getPage("sala1", null, null, 1);
+        recentMessageBuffers.getPage("sala2", null, null, 1);
+
+        // Act
+        for (long id = 1; id <= 7; id++) {
+            recentMessageBuffers.append(message("sala1", id));
+        }
+        for (long id = 100; id < 104; id++) {
+            recentMessageBuffers.append(message("sala2", id));
+        }
+
+        // Assert
+        assertTrue(recentMessageBuffers.getTotalMessages() <= 8);
+        assertEquals(1, recentMessageBuffers.getRoomCount());
+    }
+
+    @Test
+    void getPage_ForRoomWithoutMessages_ShouldNotKeepBuffer() {
+        // Arrange
+        when(chatMessageRepository.findLatestByRoomId(eq("unknown"), any(Pageable.class))).thenReturn(List.of());
+
+        // Act
+        Optional<List<ChatMessage>> latest = recentMessageBuffers.getPage("unknown", null, null, 5);
+        Optional<List<ChatMessage>> after = recentMessageBuffers.getPage("unknown", null, 3L, 5);
+
+        // Assert
+        assertEquals(List.of(), latest.get());
+        assertTrue(after.isEmpty());
+        assertEquals(0, recentMessageBuffers.getRoomCount());
+        assertEquals(0, recentMessageBuffers.getTotalMessages());
+    }
+
+    @Test
+    void append_ShouldGrowRingUpToCapacityInOrder() {
+        // Arrange
+        RecentMessageBuffer buffer = new RecentMessageBuffer(40);
+        buffer.warm(List.of(), true);
+
+        // Act: los primeros llegan al revés para que la inserción desplace al crecer el array
+        for (long id = 20; id >= 1; id--) {
+            buffer.append(message("room123", id));
+        }
+        for (long id = 21; id <= 50; id++) {
+            buffer.append(message("room123", id));
+        }
+
+        // Assert
+        assertEquals(40, buffer.size());
+        List<ChatMessage> latest = buffer.latest(40);
+        assertEquals(40, latest.size());
+        assertEquals(11L, latest.get(0).getId());
+        assertEquals(50L, latest.get(39).getId());
+    }
+
+    private ChatMessage message(String roomId, long id) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setRoomId(roomId);
+        message.setSenderId("user123");
+        message.setContent("Mensaje " + id);
+        message.setTimestamp(base.plusSeconds(id));
+        message.setType(ChatMessage.MessageType.CHAT);
+        return message;
+    }
+
+    private List<Long> ids(List<ChatMessage> messages) {
+        return messages.stream().map(ChatMessage::getId).toList();
+    }
+}
@@ -0,0 +1,172 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.RoomMetadata;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RoomBroadcasterTest {
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Mock
+    private RoomMetadataCache roomMetadataCache;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private RoomBroadcaster roomBroadcaster;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(roomBroadcaster, "coalescingEnabled", true);
+        ReflectionTestUtils.setField(roomBroadcaster, "enterRate", 3);
+        ReflectionTestUtils.setField(roomBroadcaster, "windowMs", 30L);
+        roomBroadcaster.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        roomBroadcaster.shutdown();
+    }
+
+    @Test
+    void broadcast_BelowThreshold_ShouldSendEachMessage() {
+        // Act
+        roomBroadcaster.broadcast(message(1, ChatMessage.MessageType.CHAT));
+        roomBroadcaster.broadcast(message(2, ChatMessage.MessageType.CHAT));
+
+        // Assert
+        verify(messagingTemplate, times(2)).convertAndSend(eq("/topic/room123"), any(ChatMessage.class), anyMap());
+        assertFalse(roomBroadcaster.isCoalescing("room123"));
+    }
+
+    @Test
+    void broadcast_AboveThreshold_ShouldSendOneBatchPerWindow() {
+        // Act
+        for (int i = 1; i <= 6; i++) {
+            roomBroadcaster.broadcast(message(i, ChatMessage.MessageType.CHAT));
+        }
+
+        // Assert
+        assertTrue(roomBroadcaster.isCoalescing("room123"));
+        verify(messagingTemplate, times(2)).convertAndSend(eq("/topic/room123"), any(ChatMessage.class), anyMap());
+        verify(messagingTemplate, timeout(1000)).convertAndSend(eq("/topic/room123"),
+                eq(List.of(message(3, ChatMessage.MessageType.CHAT), message(4, ChatMessage.MessageType.CHAT),
+                        message(5, ChatMessage.MessageType.CHAT), message(6, ChatMessage.MessageType.CHAT))),
+                eq(Map.of(RoomBroadcaster.TYPE_HEADER, "CHAT", RoomBroadcaster.LAST_ID_HEADER, 6L)));
+    }
+
+    @Test
+    void broadcast_SystemMessage_ShouldFlushPendingFirst() {
+        // Arrange
+        for (int i = 1; i <= 4; i++) {
+            roomBroadcaster.broadcast(message(i, ChatMessage.MessageType.CHAT));
+        }
+
+        // Act
+        roomBroadcaster.broadcast(message(5, ChatMessage.MessageType.SYSTEM));
+
+        // Assert
+        var inOrder = inOrder(messagingTemplate);
+        inOrder.verify(messagingTemplate).convertAndSend(eq("/topic/room123"), any(List.class), anyMap());
+        inOrder.verify(messagingTemplate).convertAndSend(eq("/topic/room123"), eq(message(5, ChatMessage.MessageType.SYSTEM)),
+                eq(Map.of(RoomBroadcaster.TYPE_HEADER, "SYSTEM", RoomBroadcaster.LAST_ID_HEADER, 5L,
+                        RoomBroadcaster.PRIORITY_HEADER, RoomBroadcaster.HIGH_PRIORITY)));
+    }
+
+    @Test
+    void broadcast_OwnerMessage_ShouldSkipBatchWithPriority() {
+        // Arrange
+        when(roomMetadataCache.get("room123"))
+                .thenReturn(Optional.of(new RoomMetadata("room123", "owner", true, false, 0, false)));
+        for (int i = 1; i <= 4; i++) {
+            roomBroadcaster.broadcast(message(i, ChatMessage.MessageType.CHAT));
+        }
+        ChatMessage bidAccepted = message(5, ChatMessage.MessageType.CHAT);
+        bidAccepted.setSenderId("owner");
+
+        // Act
+        roomBroadcaster.broadcast(bidAccepted);
+
+        // Assert
+        var inOrder = inOrder(messagingTemplate);
+        inOrder.verify(messagingTemplate).convertAndSend(eq("/topic/room123"), any(List.class),
+                eq(Map.of(RoomBroadcaster.TYPE_HEADER, "CHAT", RoomBroadcaster.LAST_ID_HEADER, 4L)));
+        inOrder.verify(messagingTemplate).convertAndSend(eq("/topic/room123"), eq(bidAccepted),
+                eq(Map.of(RoomBroadcaster.TYPE_HEADER, "CHAT", RoomBroadcaster.LAST_ID_HEADER, 5L,
+                        RoomBroadcaster.PRIORITY_HEADER, RoomBroadcaster.HIGH_PRIORITY)));
+    }
+
+    @Test
+    void broadcast_WhenDisabled_ShouldSendDirectly() {
+        // Arrange
+        ReflectionTestUtils.setField(roomBroadcaster, "coalescingEnabled", false);
+
+        // Act
+        for (int i = 1; i <= 6; i++) {
+            roomBroadcaster.broadcast(message(i, ChatMessage.MessageType.CHAT));
+        }
+
+        // Assert
+        verify(messagingTemplate, times(6)).convertAndSend(eq("/topic/room123"), any(ChatMessage.class), anyMap());
+        assertFalse(roomBroadcaster.isCoalescing("room123"));
+    }
+
+    @Test
+    void broadcastAll_ShouldSendConsecutiveMessagesOfSameTypeInOneFrame() {
+        // Arrange
+        List<ChatMessage> messages = List.of(message(1, ChatMessage.MessageType.CHAT),
+                message(2, ChatMessage.MessageType.CHAT), message(3, ChatMessage.MessageType.SYSTEM),
+                message(4, ChatMessage.MessageType.CHAT));
+
+        // Act
+        roomBroadcaster.broadcastAll("room123", messages);
+
+        // Assert
+        InOrder inOrder = inOrder(messagingTemplate);
+        inOrder.verify(messagingTemplate).convertAndSend(eq("/topic/room123"), eq(messages.subList(0, 2)),
+                eq(Map.<String, Object>of(RoomBroadcaster.TYPE_HEADER, "CHAT", RoomBroadcaster.LAST_ID_HEADER, 2L)));
+        inOrder.verify(messagingTemplate).convertAndSend(eq("/topic/room123"), eq(messages.get(2)),
+                eq(Map.<String, Object>of(RoomBroadcaster.TYPE_HEADER, "SYSTEM", RoomBroadcaster.LAST_ID_HEADER, 3L,
+                        RoomBroadcaster.PRIORITY_HEADER, RoomBroadcaster.HIGH_PRIORITY)));
+        inOrder.verify(messagingTemplate).convertAndSend(eq("/topic/room123"), eq(messages.get(3)), anyMap());
+        verifyNoMoreInteractions(messagingTemplate);
+    }
+
+    private ChatMessage message(long id, ChatMessage.MessageType type) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setRoomId("room123");
+        message.setSenderId("user123");
+        message.setContent("Mensaje " + id);
+        message.setTimestamp(LocalDateTime.of(2024, 1, 1, 12, 0).plusSeconds(id));
+        message.setType(type);
+        return message;
+    }
+}
@@ -0,0 +1,86 @@
+package com.subaston.chat.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomLanesTest {
+
+    private final RoomLanes<CountingLane> lanes = new RoomLanes<>("test-lanes", 3, 2);
+
+    @AfterEach
+    void tearDown() {
+        lanes.shutdown();
+    }
+
+    @Test
+    void recordEvent_ShouldEnterOnBurstAndExitBelowExitRate() {
+        // Arrange
+        CountingLane lane = lanes.lane("room123", roomId -> new CountingLane(lanes));
+
+        // Act
+        boolean first = lane.record();
+        lane.record();
+        boolean third = lane.record();
+        // Ventana de un segundo ya cerrada con un solo evento: ritmo por debajo de exit-rate
+        ReflectionTestUtils.setField(lane, "windowStart", System.nanoTime() - TimeUnit.SECONDS.toNanos(2));
+        ReflectionTestUtils.setField(lane, "windowCount", 0);
+        boolean afterQuietWindow = lane.record();
+
+        // Assert
+        assertFalse(first);
+        assertTrue(third);
+        assertFalse(afterQuietWindow);
+        assertEquals(0, lanes.activeRooms());
+    }
+
+    @Test
+    void evictIdle_ShouldKeepLanesWithPendingWorkAndCloseOnRemoval() {
+        // Arrange
+        CountingLane idle = lanes.lane("idle", roomId -> new CountingLane(lanes));
+        CountingLane pending = lanes.lane("pending", roomId -> new CountingLane(lanes));
+        pending.pending = true;
+        ReflectionTestUtils.setField(idle, "lastActivity", System.nanoTime() - TimeUnit.SECONDS.toNanos(10));
+        ReflectionTestUtils.setField(pending, "lastActivity", System.nanoTime() - TimeUnit.SECONDS.toNanos(10));
+
+        // Act
+        lanes.evictIdle(5);
+        lanes.close("pending");
+
+        // Assert
+        assertNotSame(idle, lanes.lane("idle", roomId -> new CountingLane(lanes)));
+        assertEquals(1, pending.flushes);
+        assertFalse(pending.pending);
+    }
+
+    private static final class CountingLane extends RoomLanes.Lane {
+
+        private boolean pending;
+        private int flushes;
+
+        CountingLane(RoomLanes<?> owner) {
+            super(owner);
+        }
+
+        synchronized boolean record() {
+            return recordEvent();
+        }
+
+        @Override
+        protected boolean hasPending() {
+            return pending;
+        }
+
+        @Override
+        protected void flushPending() {
+            if (pending) {
+                flushes++;
+                pending = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.ChatRoom;
+import com.subaston.chat.repository.ChatRoomRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@DataJpaTest
+@Import({RoomLifecycle.class, RoomLocks.class, RoomLifecycleTest.Metrics.class})
+@TestPropertySource(properties = "chat.room-lifecycle.idle-minutes=60")
+@RecordApplicationEvents
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RoomLifecycleTest {
+
+    @TestConfiguration
+    static class Metrics {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @Autowired
+    private RoomLifecycle roomLifecycle;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private ApplicationEvents events;
+
+    @MockBean
+    private RoomBroadcaster roomBroadcaster;
+
+    @Test
+    void sweep_ShouldDeactivateIdleRoomsAndAnnounceIt() {
+        // Arrange
+        createRoom("idleRoom", LocalDateTime.now().minusHours(3));
+        createRoom("busyRoom", LocalDateTime.now().minusMinutes(5));
+        createRoom("legacyRoom", null);
+
+        // Act
+        roomLifecycle.sweep();
+
+        // Assert
+        assertFalse(room("idleRoom").isActive());
+        assertTrue(room("busyRoom").isActive());
+        assertTrue(room("legacyRoom").isActive());
+        assertNotNull(room("legacyRoom").getLastActivityAt());
+        assertEquals(List.of(new RoomClosedEvent("idleRoom")), closedEvents());
+        verify(roomBroadcaster).broadcast(argThat(message -> message.getType() == ChatMessage.MessageType.SYSTEM
+                && "idleRoom".equals(message.getRoomId())));
+    }
+
+    @Test
+    void sweep_AfterTouch_ShouldKeepRoomActive() {
+        // Arrange
+        createRoom("touchedRoom", LocalDateTime.now().minusHours(3));
+        roomLifecycle.touch("touchedRoom");
+
+        // Act
+        roomLifecycle.sweep();
+
+        // Assert
+        ChatRoom room = room("touchedRoom");
+        assertTrue(room.isActive());
+        assertTrue(room.getLastActivityAt().isAfter(LocalDateTime.now().minusMinutes(1)));
+        assertTrue(closedEvents().isEmpty());
+    }
+
+    @Test
+    void close_ShouldDeactivateOnlyOnce() {
+        // Arrange
+        createRoom("auctionRoom", LocalDateTime.now());
+
+        // Act
+        boolean first = roomLifecycle.close("auctionRoom", RoomLifecycle.Reason.CLOSED);
+        boolean second = roomLifecycle.close("auctionRoom", RoomLifecycle.Reason.CLOSED);
+
+        // Assert
+        assertTrue(first);
+        assertFalse(second);
+        assertFalse(room("auctionRoom").isActive());
+        assertEquals(List.of(new RoomClosedEvent("auctionRoom")), closedEvents());
+    }
+
+    @Test
+    void sweep_ShouldReleaseRoomsClosedByAnotherNode() {
+        // Arrange
+        createRoom("remoteRoom", LocalDateTime.now());
+        roomLifecycle.touch("remoteRoom");
+        ChatRoom room = room("remoteRoom");
+        room.setActive(false);
+        chatRoomRepository.save(room);
+
+        // Act
+        roomLifecycle.sweep();
+
+        // Assert
+        assertEquals(List.of(new RoomClosedEvent("remoteRoom")), closedEvents());
+        verify(roomBroadcaster, never()).broadcast(any(ChatMessage.class));
+    }
+
+    private List<RoomClosedEvent> closedEvents() {
+        return events.stream(RoomClosedEvent.class).toList();
+    }
+
+    private ChatRoom room(String roomId) {
+        return chatRoomRepository.findByRoomId(roomId).orElseThrow();
+    }
+
+    private void createRoom(String roomId, LocalDateTime lastActivityAt) {
+        ChatRoom room = new ChatRoom();
+        room.setRoomId(roomId);
+        room.setOwnerId("owner");
+        room.setActive(true);
+        room.setLastActivityAt(lastActivityAt);
+        chatRoomRepository.save(room);
+    }
+}
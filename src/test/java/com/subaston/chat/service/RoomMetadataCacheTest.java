@@ -0,0 +1,122 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatRoom;
+import com.subaston.chat.model.RoomMetadata;
+import com.subaston.chat.repository.ChatRoomRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RoomMetadataCacheTest {
+
+    @Mock
+    private ChatRoomRepository chatRoomRepository;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private RoomMetadataCache roomMetadataCache;
+
+    private ChatRoom testRoom;
+
+    @BeforeEach
+    void setUp() {
+        roomMetadataCache.init();
+
+        testRoom = new ChatRoom();
+        testRoom.setRoomId("room123");
+        testRoom.setOwnerId("user123");
+        testRoom.setActive(true);
+        testRoom.setOnlyOwnerCanWrite(true);
+    }
+
+    @Test
+    void get_ShouldQueryRepositoryOnlyOnce() {
+        // Arrange
+        when(chatRoomRepository.findByRoomId("room123")).thenReturn(Optional.of(testRoom));
+
+        // Act
+        Optional<RoomMetadata> first = roomMetadataCache.get("room123");
+        Optional<RoomMetadata> second = roomMetadataCache.get("room123");
+
+        // Assert
+        assertTrue(first.isPresent());
+        assertEquals("user123", second.get().ownerId());
+        assertTrue(second.get().onlyOwnerCanWrite());
+        verify(chatRoomRepository, times(1)).findByRoomId("room123");
+        assertEquals(1, roomMetadataCache.stats().hitCount());
+        assertEquals(1, roomMetadataCache.stats().missCount());
+    }
+
+    @Test
+    void get_WithUnknownRoom_ShouldNotCacheAbsence() {
+        // Arrange
+        when(chatRoomRepository.findByRoomId("nueva")).thenReturn(Optional.empty());
+
+        // Act
+        roomMetadataCache.get("nueva");
+        roomMetadataCache.get("nueva");
+
+        // Assert
+        verify(chatRoomRepository, times(2)).findByRoomId("nueva");
+    }
+
+    @Test
+    void invalidate_ShouldReloadFromRepository() {
+        // Arrange
+        when(chatRoomRepository.findByRoomId("room123")).thenReturn(Optional.of(testRoom));
+        roomMetadataCache.get("room123");
+
+        // Act
+        testRoom.setOnlyOwnerCanWrite(false);
+        roomMetadataCache.invalidate("room123");
+        Optional<RoomMetadata> reloaded = roomMetadataCache.get("room123");
+
+        // Assert
+        assertFalse(reloaded.get().onlyOwnerCanWrite());
+        verify(chatRoomRepository, times(2)).findByRoomId("room123");
+    }
+
+    @Test
+    void cacheMetrics_ShouldBeRegistered() {
+        // Assert
+        assertNotNull(meterRegistry.find("cache.gets").tag("cache", "chat.room-metadata").meter());
+    }
+
+    @Test
+    void getAll_ShouldLoadMissingRoomsWithOneQuery() {
+        // Arrange
+        when(chatRoomRepository.findByRoomId("room123")).thenReturn(Optional.of(testRoom));
+        roomMetadataCache.get("room123");
+        ChatRoom other = new ChatRoom();
+        other.setRoomId("room456");
+        other.setOwnerId("user456");
+        other.setActive(true);
+        when(chatRoomRepository.findByRoomIdIn(Set.of("room456", "missing"))).thenReturn(List.of(other));
+
+        // Act
+        Map<String, RoomMetadata> rooms = roomMetadataCache.getAll(List.of("room123", "room456", "missing"));
+
+        // Assert
+        assertEquals(Set.of("room123", "room456"), rooms.keySet());
+        assertEquals("user456", rooms.get("room456").ownerId());
+        verify(chatRoomRepository, times(1)).findByRoomIdIn(any());
+    }
+}
@@ -0,0 +1,88 @@
+package com.subaston.chat.service;
+
+import com.subaston.chat.model.ChatRoom;
+import com.subaston.chat.repository.ChatRoomRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@Import(RoomSequencer.class)
+@TestPropertySource(properties = "chat.sequence.block-size=3")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RoomSequencerTest {
+
+    @Autowired
+    private RoomSequencer roomSequencer;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void next_ShouldBeConsecutiveAcrossBlocks() {
+        // Arrange
+        createRoom("seqRoom");
+
+        // Act
+        List<Long> sequence = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            sequence.add(roomSequencer.next("seqRoom"));
+        }
+
+        // Assert
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L), sequence);
+        assertEquals(9L, chatRoomRepository.findByRoomId("seqRoom").orElseThrow().getSeqHighWater());
+    }
+
+    @Test
+    void next_FromAnotherNode_ShouldNeverReuseReservedNumbers() {
+        // Arrange
+        createRoom("sharedRoom");
+        RoomSequencer otherNode = new RoomSequencer();
+        ReflectionTestUtils.setField(otherNode, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(otherNode, "transactionTemplate", transactionTemplate);
+        ReflectionTestUtils.setField(otherNode, "blockSize", 3);
+
+        // Act
+        long first = roomSequencer.next("sharedRoom");
+        long fromOtherNode = otherNode.next("sharedRoom");
+        long second = roomSequencer.next("sharedRoom");
+
+        // Assert
+        assertEquals(1L, first);
+        assertEquals(4L, fromOtherNode);
+        assertEquals(2L, second);
+    }
+
+    @Test
+    void next_WithUnknownRoom_ShouldThrowException() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> roomSequencer.next("missingRoom"));
+    }
+
+    private void createRoom(String roomId) {
+        ChatRoom room = new ChatRoom();
+        room.setRoomId(roomId);
+        room.setOwnerId("owner");
+        room.setActive(true);
+        chatRoomRepository.save(room);
+    }
+}
@@ -0,0 +1,124 @@
+package com.subaston.chat.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.repository.MessageStore;
+import com.subaston.chat.service.archive.MessageArchive;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TranscriptExporterTest {
+
+    @Mock
+    private MessageStore messageStore;
+
+    @Mock
+    private MessageArchive messageArchive;
+
+    @InjectMocks
+    private TranscriptExporter transcriptExporter;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(transcriptExporter, "objectMapper", new ObjectMapper().findAndRegisterModules());
+        ReflectionTestUtils.setField(transcriptExporter, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(transcriptExporter, "maxConcurrent", 1);
+        transcriptExporter.init();
+    }
+
+    @Test
+    void export_ShouldWriteOneJsonLinePerMessage() throws Exception {
+        // Arrange
+        doAnswer(invocation -> {
+            Consumer<ChatMessage> action = invocation.getArgument(3);
+            action.accept(message(11L, "Hola"));
+            action.accept(message(12L, "Adiós"));
+            return null;
+        }).when(messageStore).forEachAfter(eq("room123"), eq(10L), eq(500), any());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TranscriptExporter.Reservation reservation = transcriptExporter.tryReserve().orElseThrow();
+
+        // Act
+        long count;
+        try (reservation) {
+            count = transcriptExporter.export("room123", 10L, out);
+        }
+
+        // Assert
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, count);
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"id\":11") && lines[0].contains("\"content\":\"Hola\""));
+        assertTrue(lines[1].contains("\"id\":12") && lines[1].contains("\"content\":\"Adiós\""));
+        // El hueco se libera al cerrar la reserva
+        assertTrue(transcriptExporter.tryReserve().isPresent());
+    }
+
+    @Test
+    void export_ArchivedRoom_ShouldReadFromArchive() throws Exception {
+        // Arrange
+        when(messageArchive.isArchived("room123")).thenReturn(true);
+
+        // Act
+        transcriptExporter.export("room123", 0L, new ByteArrayOutputStream());
+
+        // Assert
+        verify(messageArchive, times(1)).forEachAfter(eq("room123"), eq(0L), any());
+        verify(messageStore, never()).forEachAfter(anyString(), anyLong(), anyInt(), any());
+    }
+
+    @Test
+    void tryReserve_OverLimit_ShouldRefuse() {
+        // Act & Assert
+        assertTrue(transcriptExporter.tryReserve().isPresent());
+        assertFalse(transcriptExporter.tryReserve().isPresent());
+    }
+
+    @Test
+    void reservation_ClosedTwice_ShouldReleaseOnlyOnce() {
+        // Arrange
+        ReflectionTestUtils.setField(transcriptExporter, "maxConcurrent", 2);
+        transcriptExporter.init();
+        TranscriptExporter.Reservation first = transcriptExporter.tryReserve().orElseThrow();
+        transcriptExporter.tryReserve().orElseThrow();
+
+        // Act
+        first.close();
+        first.close();
+
+        // Assert
+        assertTrue(transcriptExporter.tryReserve().isPresent());
+        assertFalse(transcriptExporter.tryReserve().isPresent());
+    }
+
+    private ChatMessage message(Long id, String content) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setRoomId("room123");
+        message.setSenderId("user123");
+        message.setContent(content);
+        message.setTimestamp(LocalDateTime.now());
+        message.setType(ChatMessage.MessageType.CHAT);
+        return message;
+    }
+}
@@ -0,0 +1,121 @@
+package com.subaston.chat.service.archive;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.RoomMetadata;
+import com.subaston.chat.service.RoomMetadataCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MessageArchiveTest {
+
+    @TempDir
+    Path directory;
+
+    private MessageArchive messageArchive;
+    private final LocalDateTime base = LocalDateTime.of(2024, 3, 1, 12, 0, 0, 123456000);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        messageArchive = new MessageArchive();
+        ReflectionTestUtils.setField(messageArchive, "directory", directory.toString());
+        messageArchive.init();
+
+        // 10 mensajes en grupos de 4: las páginas cruzan límites de grupo
+        try (ArchiveWriter writer = new ArchiveWriter(messageArchive.pathOf("room/1"), "room/1", 4)) {
+            for (long i = 1; i <= 10; i++) {
+                writer.append(message(i));
+            }
+        }
+    }
+
+    @Test
+    void getAll_ShouldRoundTripEveryColumn() {
+        // Act
+        List<ChatMessage> messages = messageArchive.getAll("room/1");
+
+        // Assert
+        assertEquals(LongStream.rangeClosed(1, 10).boxed().map(this::message).toList(), messages);
+    }
+
+    @Test
+    void getPage_ShouldMatchCursorSemantics() {
+        // Act
+        List<ChatMessage> latest = messageArchive.getPage("room/1", null, null, 3);
+        List<ChatMessage> before = messageArchive.getPage("room/1", 170L, null, 5);
+        List<ChatMessage> first = messageArchive.getPage("room/1", 110L, null, 5);
+        List<ChatMessage> next = messageArchive.getPage("room/1", null, 130L, 4);
+
+        // Assert
+        assertEquals(List.of(180L, 190L, 200L), ids(latest));
+        assertEquals(List.of(120L, 130L, 140L, 150L, 160L), ids(before));
+        assertEquals(List.of(), first);
+        assertEquals(List.of(140L, 150L, 160L, 170L), ids(next));
+    }
+
+    @Test
+    void getPage_WithUnknownAnchor_ShouldUseIdAsBound() {
+        // Act
+        List<ChatMessage> fromStart = messageArchive.getPage("room/1", null, 0L, 3);
+        List<ChatMessage> after = messageArchive.getPage("room/1", null, 135L, 3);
+        List<ChatMessage> before = messageArchive.getPage("room/1", 165L, null, 4);
+
+        // Assert
+        assertEquals(List.of(110L, 120L, 130L), ids(fromStart));
+        assertEquals(List.of(140L, 150L, 160L), ids(after));
+        assertEquals(List.of(130L, 140L, 150L, 160L), ids(before));
+    }
+
+    @Test
+    void getBySeqRange_ShouldOnlyReturnRequestedSequences() {
+        // Act
+        List<ChatMessage> range = messageArchive.getBySeqRange("room/1", 3, 6, 10);
+
+        // Assert
+        assertEquals(List.of(3L, 4L, 5L, 6L), range.stream().map(ChatMessage::getSeq).toList());
+    }
+
+    @Test
+    void isArchived_ShouldFollowRoomArchivedAtNotLocalFiles() {
+        // Arrange: room/1 tiene fichero pero la sala no está marcada; room/2 al revés
+        RoomMetadataCache roomMetadataCache = mock(RoomMetadataCache.class);
+        when(roomMetadataCache.get("room/1"))
+                .thenReturn(Optional.of(new RoomMetadata("room/1", "owner", false, false, 0, false)));
+        when(roomMetadataCache.get("room/2"))
+                .thenReturn(Optional.of(new RoomMetadata("room/2", "owner", false, false, 0, true)));
+        ReflectionTestUtils.setField(messageArchive, "roomMetadataCache", roomMetadataCache);
+
+        // Act & Assert
+        assertFalse(messageArchive.isArchived("room/1"));
+        assertTrue(messageArchive.isArchived("room/2"));
+        assertFalse(messageArchive.isArchived("room/3"));
+        assertTrue(messageArchive.hasFile("room/1"));
+    }
+
+    private List<Long> ids(List<ChatMessage> messages) {
+        return messages.stream().map(ChatMessage::getId).toList();
+    }
+
+    private ChatMessage message(long i) {
+        ChatMessage message = new ChatMessage();
+        message.setId(100 + i * 10);
+        message.setSeq(i);
+        message.setRoomId("room/1");
+        message.setSenderId(i % 3 == 0 ? null : "user" + (i % 2));
+        message.setContent(i == 5 ? null : "Mensaje ñ " + i);
+        message.setTimestamp(base.plusSeconds(i));
+        message.setType(i == 1 ? ChatMessage.MessageType.JOIN : ChatMessage.MessageType.CHAT);
+        return message;
+    }
+}
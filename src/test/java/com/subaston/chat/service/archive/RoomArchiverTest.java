@@ -0,0 +1,173 @@
+package com.subaston.chat.service.archive;
+
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.model.ChatRoom;
+import com.subaston.chat.repository.ChatMessageRepository;
+import com.subaston.chat.repository.ChatRoomRepository;
+import com.subaston.chat.service.RecentMessageBuffers;
+import com.subaston.chat.service.RoomLocks;
+import com.subaston.chat.service.RoomMetadataCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+
+@DataJpaTest
+@Import({RoomArchiver.class, MessageArchive.class, RoomLocks.class, RoomArchiverTest.Metrics.class})
+@TestPropertySource(properties = {
+        "chat.archive.enabled=true",
+        "chat.archive.read-page-size=2",
+        "chat.archive.delete-batch-size=2",
+        "chat.archive.group-size=3"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RoomArchiverTest {
+
+    @TempDir
+    static Path archiveDirectory;
+
+    @DynamicPropertySource
+    static void archiveProperties(DynamicPropertyRegistry registry) {
+        registry.add("chat.archive.directory", archiveDirectory::toString);
+    }
+
+    @TestConfiguration
+    static class Metrics {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @Autowired
+    private RoomArchiver roomArchiver;
+
+    @Autowired
+    private MessageArchive messageArchive;
+
+    @Autowired
+    private ChatRoomRepository chatRoomRepository;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @MockBean
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @MockBean
+    private RoomMetadataCache roomMetadataCache;
+
+    @SpyBean
+    private RoomLocks roomLocks;
+
+    @Test
+    void archiveColdRooms_ShouldMoveInactiveRoomHistoryToArchive() {
+        // Arrange
+        createRoom("coldRoom", false);
+        createRoom("liveRoom", true);
+        LocalDateTime base = LocalDateTime.now().minusDays(1);
+        for (int i = 0; i < 7; i++) {
+            chatMessageRepository.save(message("coldRoom", "Mensaje " + i, base.plusMinutes(i)));
+        }
+        chatMessageRepository.save(message("liveRoom", "Sigue activa", base));
+
+        // Act
+        roomArchiver.archiveColdRooms();
+
+        // Assert
+        assertTrue(messageArchive.hasFile("coldRoom"));
+        assertFalse(messageArchive.hasFile("liveRoom"));
+        assertTrue(chatMessageRepository.findByRoomIdOrderByTimestampAsc("coldRoom").isEmpty());
+        assertEquals(1, chatMessageRepository.findByRoomIdOrderByTimestampAsc("liveRoom").size());
+        assertNotNull(chatRoomRepository.findByRoomId("coldRoom").orElseThrow().getArchivedAt());
+        assertEquals(List.of("Mensaje 4", "Mensaje 5", "Mensaje 6"),
+                messageArchive.getPage("coldRoom", null, null, 3).stream().map(ChatMessage::getContent).toList());
+        verify(recentMessageBuffers).evict("coldRoom");
+        verify(roomMetadataCache).invalidate("coldRoom");
+    }
+
+    @Test
+    void archiveColdRooms_WhenMessageArrivesDuringArchive_ShouldKeepRoomForNextRun() {
+        // Arrange: el mensaje llega entre la lectura y la publicación del fichero
+        createRoom("lateRoom", false);
+        LocalDateTime base = LocalDateTime.now().minusDays(1);
+        for (int i = 0; i < 3; i++) {
+            chatMessageRepository.save(message("lateRoom", "Mensaje " + i, base.plusMinutes(i)));
+        }
+        AtomicInteger locks = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (locks.incrementAndGet() == 2) {
+                chatMessageRepository.save(message("lateRoom", "Tarde", base.plusMinutes(10)));
+            }
+            return invocation.callRealMethod();
+        }).when(roomLocks).withRoomLock(eq("lateRoom"), any());
+
+        // Act
+        roomArchiver.archiveColdRooms();
+
+        // Assert
+        assertFalse(messageArchive.hasFile("lateRoom"));
+        assertNull(chatRoomRepository.findByRoomId("lateRoom").orElseThrow().getArchivedAt());
+        assertEquals(4, chatMessageRepository.findByRoomIdOrderByTimestampAsc("lateRoom").size());
+
+        // Act: la siguiente pasada lo archiva todo
+        roomArchiver.archiveColdRooms();
+
+        // Assert
+        assertTrue(chatMessageRepository.findByRoomIdOrderByTimestampAsc("lateRoom").isEmpty());
+        assertEquals("Tarde", messageArchive.getPage("lateRoom", null, null, 1).get(0).getContent());
+    }
+
+    @Test
+    void init_WithRelayBetweenNodes_ShouldFail() {
+        // Arrange
+        RoomArchiver clustered = new RoomArchiver();
+        ReflectionTestUtils.setField(clustered, "enabled", true);
+        ReflectionTestUtils.setField(clustered, "relayMode", "tcp");
+
+        // Act & Assert
+        assertThrows(IllegalStateException.class, clustered::init);
+    }
+
+    private void createRoom(String roomId, boolean active) {
+        ChatRoom room = new ChatRoom();
+        room.setRoomId(roomId);
+        room.setOwnerId("archiveOwner");
+        room.setActive(active);
+        chatRoomRepository.save(room);
+    }
+
+    private ChatMessage message(String roomId, String content, LocalDateTime timestamp) {
+        ChatMessage message = new ChatMessage();
+        message.setRoomId(roomId);
+        message.setSenderId("user123");
+        message.setContent(content);
+        message.setTimestamp(timestamp);
+        message.setType(ChatMessage.MessageType.CHAT);
+        return message;
+    }
+}
@@ -0,0 +1,243 @@
+package com.subaston.chat.service.outbound;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OutboundSessionTest {
+
+    @Mock
+    private WebSocketSession delegate;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private OutboundSessionRegistry registry;
+
+    private final CountDownLatch slowConsumer = new CountDownLatch(1);
+    private final List<String> delivered = new CopyOnWriteArrayList<>();
+    private final Map<String, Object> attributes = new HashMap<>(Map.of("roomId", "room123"));
+    private OutboundSession session;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ReflectionTestUtils.setField(registry, "maxBufferBytes", 1000L);
+        ReflectionTestUtils.setField(registry, "lagBytes", 300L);
+        registry.init();
+        lenient().when(delegate.getAttributes()).thenReturn(attributes);
+        lenient().doAnswer(invocation -> {
+            slowConsumer.await(5, TimeUnit.SECONDS);
+            WebSocketMessage<?> message = invocation.getArgument(0);
+            delivered.add((String) message.getPayload());
+            return null;
+        }).when(delegate).sendMessage(any());
+        session = new OutboundSession(delegate, registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        slowConsumer.countDown();
+        registry.shutdown();
+    }
+
+    @Test
+    void sendMessage_WithDropPolicy_ShouldDropOldestChatAndKeepSystem() throws Exception {
+        // Arrange
+        session.sendMessage(frame(1, "CHAT"));
+        waitUntilSending();
+
+        // Act
+        session.sendMessage(frame(2, "SYSTEM"));
+        for (int i = 3; i <= 20; i++) {
+            session.sendMessage(frame(i, "CHAT"));
+        }
+
+        // Assert
+        assertTrue(session.getPendingBytes() <= 1000);
+        assertEquals(1, registry.getLaggingSessions("room123"));
+        slowConsumer.countDown();
+        waitUntilDrained();
+        assertTrue(delivered.stream().anyMatch(frame -> frame.contains("chat-type:SYSTEM")));
+        assertTrue(delivered.get(delivered.size() - 1).contains("chat-last-id:20"));
+        assertTrue(delivered.size() < 20);
+        assertTrue(meterRegistry.counter("chat.websocket.outbound.dropped").count() > 0);
+        assertEquals(0, registry.getLaggingSessions("room123"));
+    }
+
+    @Test
+    void sendMessage_WithCoalescePolicy_ShouldMergeChatFrames() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(registry, "policy", OverflowPolicy.COALESCE);
+        session.sendMessage(frame(1, "CHAT"));
+        waitUntilSending();
+
+        // Act
+        for (int i = 2; i <= 12; i++) {
+            session.sendMessage(frame(i, "CHAT"));
+        }
+
+        // Assert
+        assertTrue(session.isCoalescing());
+        slowConsumer.countDown();
+        waitUntilDrained();
+        String merged = delivered.get(delivered.size() - 1);
+        String body = merged.substring(merged.indexOf("\n\n") + 2, merged.length() - 1);
+        assertTrue(body.startsWith("[{\"id\":"));
+        assertTrue(merged.contains("chat-last-id:12"));
+        assertTrue(merged.contains("content-length:" + body.getBytes(StandardCharsets.UTF_8).length));
+        assertFalse(session.isCoalescing());
+    }
+
+    @Test
+    void sendMessage_WithDisconnectPolicy_ShouldCloseWithResumeToken() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(registry, "policy", OverflowPolicy.DISCONNECT);
+        slowConsumer.countDown();
+        session.sendMessage(frame(1, "CHAT"));
+        waitUntilDrained();
+        CountDownLatch blocked = new CountDownLatch(1);
+        // Puede desbordar antes de que el hilo de vaciado llegue a enviar nada
+        lenient().doAnswer(invocation -> {
+            blocked.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(delegate).sendMessage(any());
+
+        // Act
+        SessionLimitExceededException exception = assertThrows(SessionLimitExceededException.class, () -> {
+            for (int i = 2; i <= 20; i++) {
+                session.sendMessage(frame(i, "CHAT"));
+            }
+        });
+        blocked.countDown();
+
+        // Assert
+        String reason = exception.getStatus().getReason();
+        assertEquals(OutboundSession.SLOW_CONSUMER_STATUS, exception.getStatus().getCode());
+        ResumeToken token = ResumeToken.parse(reason.substring("resume=".length()));
+        assertEquals(new ResumeToken("room123", 1L), token);
+        assertEquals(0, session.getPendingFrames());
+    }
+
+    @Test
+    void sendMessage_WithPriorityLanes_ShouldSendPriorityFramesFirst() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(registry, "priorityLanes", true);
+        session.sendMessage(frame(1, "CHAT"));
+        waitUntilSending();
+
+        // Act
+        for (int i = 2; i <= 4; i++) {
+            session.sendMessage(frame(i, "CHAT"));
+        }
+        session.sendMessage(frame(5, "JOIN"));
+        session.sendMessage(priorityFrame(6, "SYSTEM"));
+        slowConsumer.countDown();
+        waitUntilDrained();
+
+        // Assert
+        assertEquals(6, delivered.size());
+        assertTrue(delivered.get(1).contains("chat-last-id:6"));
+        assertTrue(delivered.get(5).contains("chat-type:JOIN"));
+        assertEquals(1, meterRegistry.get("chat.websocket.outbound.latency").tag("lane", "priority").timer().count());
+        assertEquals(5, meterRegistry.get("chat.websocket.outbound.latency").tag("lane", "normal").timer().count());
+    }
+
+    @Test
+    void sendMessage_WithPriorityLanes_ShouldShedChatThenJoinsButNeverPriority() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(registry, "priorityLanes", true);
+        session.sendMessage(frame(1, "CHAT"));
+        waitUntilSending();
+
+        // Act
+        for (int i = 2; i <= 12; i++) {
+            session.sendMessage(i % 3 == 0 ? priorityFrame(i, "SYSTEM") : frame(i, i % 3 == 1 ? "JOIN" : "CHAT"));
+        }
+
+        // Assert
+        assertTrue(session.getPendingBytes() <= 1000);
+        slowConsumer.countDown();
+        waitUntilDrained();
+        assertEquals(4, delivered.stream().filter(frame -> frame.contains("chat-priority:high")).count());
+        assertTrue(delivered.stream().skip(1).noneMatch(frame -> frame.contains("chat-type:CHAT")));
+    }
+
+    @Test
+    void sendMessage_ShouldCountSentBytesByTransport() throws Exception {
+        // Arrange
+        TextMessage message = frame(1, "CHAT");
+        slowConsumer.countDown();
+
+        // Act
+        session.sendMessage(message);
+        waitUntilDrained();
+
+        // Assert
+        assertEquals("native", session.transport());
+        assertEquals(message.getPayloadLength(), meterRegistry.get("chat.websocket.bytes")
+                .tag("transport", "native").tag("direction", "out").counter().count());
+    }
+
+    @Test
+    void resumeToken_ShouldRoundTripAndRejectGarbage() {
+        // Act & Assert
+        ResumeToken token = new ResumeToken("room-123", 42L);
+        assertEquals(token, ResumeToken.parse(token.encode()));
+        assertNull(ResumeToken.parse("not a token"));
+        assertNull(ResumeToken.parse(null));
+    }
+
+    private TextMessage priorityFrame(long id, String type) {
+        return new TextMessage(frame(id, type).getPayload().replace("\nmessage-id:", "\nchat-priority:high\nmessage-id:"));
+    }
+
+    private TextMessage frame(long id, String type) {
+        String body = "{\"id\":" + id + ",\"roomId\":\"room123\",\"content\":\"Mensaje de prueba número " + id + "\"}";
+        return new TextMessage("MESSAGE\ndestination:/topic/room123\nsubscription:sub-0\nchat-type:" + type
+                + "\nchat-last-id:" + id + "\nmessage-id:m" + id
+                + "\ncontent-length:" + body.getBytes(StandardCharsets.UTF_8).length + "\n\n" + body + "\0");
+    }
+
+    private void waitUntilSending() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (session.getPendingFrames() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void waitUntilDrained() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((session.getPendingFrames() > 0 || registry.getLaggingSessions("room123") > 0)
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+            session.refreshLagging();
+        }
+        Thread.sleep(50);
+    }
+}
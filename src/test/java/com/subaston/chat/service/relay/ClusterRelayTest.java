@@ -0,0 +1,120 @@
+package com.subaston.chat.service.relay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.subaston.chat.model.ChatMessage;
+import com.subaston.chat.service.RecentMessageBuffers;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ClusterRelayTest {
+
+    @Mock
+    private ObjectProvider<MessageRelay> messageRelay;
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Mock
+    private RecentMessageBuffers recentMessageBuffers;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private ClusterRelay clusterRelay;
+
+    private final LoopbackMessageRelay peer = new LoopbackMessageRelay("cluster-relay-test");
+    private final List<RelayFrame> peerReceived = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(clusterRelay, "nodeId", "node-a");
+        clusterRelay.init();
+        peer.start(peerReceived::addAll);
+    }
+
+    @AfterEach
+    void tearDown() {
+        clusterRelay.stop();
+        peer.stop();
+    }
+
+    @Test
+    void preSend_ShouldRelayOnlyLocalTopicMessages() throws Exception {
+        // Arrange
+        when(messageRelay.getIfAvailable()).thenReturn(new LoopbackMessageRelay("cluster-relay-test"));
+        clusterRelay.start();
+
+        // Act
+        clusterRelay.preSend(brokerMessage("/topic/room123", false), null);
+        clusterRelay.preSend(brokerMessage("/queue/errors-user1", false), null);
+        clusterRelay.preSend(brokerMessage("/topic/room123", true), null);
+
+        // Assert
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (peerReceived.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(1, peerReceived.size());
+        assertEquals("/topic/room123", peerReceived.get(0).destination());
+        assertEquals("node-a", peerReceived.get(0).origin());
+    }
+
+    @Test
+    void receive_ShouldDeliverOnceAndSkipOwnFrames() {
+        // Arrange
+        RelayFrame frame = new RelayFrame("f1", "node-b", "/topic/room123", "application/json", false,
+                "{\"id\":7,\"roomId\":\"room123\",\"senderId\":\"user123\",\"content\":\"Hola\",\"type\":\"CHAT\"}"
+                        .getBytes(StandardCharsets.UTF_8));
+        RelayFrame own = new RelayFrame("f2", "node-a", "/topic/room123", null, false, new byte[0]);
+
+        // Act
+        clusterRelay.receive(List.of(frame, frame, own));
+
+        // Assert
+        ArgumentCaptor<Message<?>> sent = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate, times(1)).send(eq("/topic/room123"), sent.capture());
+        assertEquals(Boolean.TRUE, sent.getValue().getHeaders().get(ClusterRelay.RELAYED_HEADER));
+        verify(recentMessageBuffers, times(1)).append(any(ChatMessage.class));
+    }
+
+    private Message<byte[]> brokerMessage(String destination, boolean relayed) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        if (relayed) {
+            accessor.setHeader(ClusterRelay.RELAYED_HEADER, Boolean.TRUE);
+        }
+        return MessageBuilder.createMessage("{}".getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+}
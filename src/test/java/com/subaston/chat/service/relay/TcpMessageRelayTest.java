@@ -0,0 +1,138 @@
+package com.subaston.chat.service.relay;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TcpMessageRelayTest {
+
+    @Test
+    void publish_ShouldDeliverBatchToPeer() throws Exception {
+        // Arrange
+        List<RelayFrame> received = new CopyOnWriteArrayList<>();
+        TcpMessageRelay nodeA = new TcpMessageRelay(settings("secret"), List.of());
+        nodeA.start(received::addAll);
+        TcpMessageRelay nodeB = new TcpMessageRelay(settings("secret"),
+                List.of(InetSocketAddress.createUnresolved("localhost", nodeA.getLocalPort())));
+        nodeB.start(batch -> { });
+
+        try {
+            // Act
+            nodeB.publish(List.of(
+                    frame("f1", "/topic/room123", "Hola"),
+                    frame("f2", "/topic/room123", "Adiós")));
+
+            // Assert
+            awaitSize(received, 2);
+            assertEquals(2, received.size());
+            assertEquals("f1", received.get(0).frameId());
+            assertEquals("Adiós", new String(received.get(1).payload(), StandardCharsets.UTF_8));
+            assertNull(received.get(0).contentType());
+        } finally {
+            nodeB.stop();
+            nodeA.stop();
+        }
+    }
+
+    @Test
+    void publish_WithWrongSecret_ShouldNotBeDelivered() throws Exception {
+        // Arrange
+        List<RelayFrame> received = new CopyOnWriteArrayList<>();
+        TcpMessageRelay nodeA = new TcpMessageRelay(settings("secret"), List.of());
+        nodeA.start(received::addAll);
+        TcpMessageRelay intruder = new TcpMessageRelay(settings("guess"),
+                List.of(InetSocketAddress.createUnresolved("localhost", nodeA.getLocalPort())));
+        intruder.start(batch -> { });
+
+        try {
+            // Act
+            intruder.publish(List.of(frame("f1", "/topic/room123", "Mensaje falso")));
+            Thread.sleep(300);
+
+            // Assert
+            assertTrue(received.isEmpty());
+        } finally {
+            intruder.stop();
+            nodeA.stop();
+        }
+    }
+
+    @Test
+    void start_WithoutHandshake_ShouldCloseConnection() throws Exception {
+        // Arrange
+        List<RelayFrame> received = new CopyOnWriteArrayList<>();
+        TcpMessageRelay nodeA = new TcpMessageRelay(settings("secret"), List.of());
+        nodeA.start(received::addAll);
+
+        try (Socket socket = new Socket("localhost", nodeA.getLocalPort())) {
+            socket.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            in.readFully(new byte[32]);
+
+            // Act: un lote directamente en lugar de la respuesta al reto
+            TcpMessageRelay.writeBatch(out, List.of(frame("f1", "/topic/room123", "Mensaje falso")));
+
+            // Assert
+            assertEquals(-1, in.read());
+            assertTrue(received.isEmpty());
+        } finally {
+            nodeA.stop();
+        }
+    }
+
+    @Test
+    void constructor_WithoutSecret_ShouldFail() {
+        assertThrows(IllegalStateException.class, () -> new TcpMessageRelay(settings(""), List.of()));
+    }
+
+    @Test
+    void readBatch_ShouldRejectCountsAndLengthsAboveLimits() throws Exception {
+        // Arrange
+        byte[] twoFrames = encode(List.of(frame("f1", "/topic/a", "Hola"), frame("f2", "/topic/a", "Adiós")));
+        byte[] forgedCount = new byte[]{0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+
+        // Act & Assert
+        assertThrows(IOException.class, () -> TcpMessageRelay.readBatch(stream(twoFrames), 1, 1024));
+        assertThrows(IOException.class, () -> TcpMessageRelay.readBatch(stream(twoFrames), 64, 4));
+        assertThrows(IOException.class, () -> TcpMessageRelay.readBatch(stream(forgedCount), 64, 1024));
+        assertEquals(2, TcpMessageRelay.readBatch(stream(twoFrames), 2, 1024).size());
+    }
+
+    private static TcpMessageRelay.Settings settings(String secret) {
+        return new TcpMessageRelay.Settings(0, "localhost", secret, 64, 65536, 16, 5000);
+    }
+
+    private static byte[] encode(List<RelayFrame> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TcpMessageRelay.writeBatch(new DataOutputStream(bytes), batch);
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream stream(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (list.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private RelayFrame frame(String frameId, String destination, String content) {
+        return new RelayFrame(frameId, "node-b", destination, null, false, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,95 @@
+package com.subaston.chat.service.sse;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SseConnectionTest {
+
+    @Mock
+    private ResponseBodyEmitter emitter;
+
+    @Test
+    void resume_ShouldSendCatchUpBeforeLiveEventsWithoutDuplicates() throws Exception {
+        // Arrange
+        SseConnection connection = new SseConnection("room123", emitter, Runnable::run, 10);
+        connection.offer(event(11));
+        connection.offer(event(13));
+
+        // Act
+        connection.resume(SseFrame.retry(3000), List.of(event(11), event(12)), 12);
+
+        // Assert
+        ArgumentCaptor<Object> sent = ArgumentCaptor.forClass(Object.class);
+        verify(emitter, times(1)).send(sent.capture(), eq(MediaType.TEXT_EVENT_STREAM));
+        String stream = new String((byte[]) sent.getValue(), StandardCharsets.UTF_8);
+        assertEquals("retry: 3000\n\n"
+                + "id: 11\ndata: {\"id\":11}\n\n"
+                + "id: 12\ndata: {\"id\":12}\n\n"
+                + "id: 13\ndata: {\"id\":13}\n\n", stream);
+    }
+
+    @Test
+    void offer_BeforeResume_ShouldNotWrite() throws Exception {
+        // Arrange
+        SseConnection connection = new SseConnection("room123", emitter, Runnable::run, 10);
+
+        // Act
+        connection.offer(event(1));
+
+        // Assert
+        verify(emitter, never()).send(any(), any());
+    }
+
+    @Test
+    void offer_WhenQueueIsFull_ShouldCloseConnection() {
+        // Arrange
+        SseConnection connection = new SseConnection("room123", emitter, Runnable::run, 2);
+
+        // Act
+        boolean first = connection.offer(event(1));
+        boolean second = connection.offer(event(2));
+        boolean third = connection.offer(event(3));
+
+        // Assert
+        assertTrue(first);
+        assertTrue(second);
+        assertFalse(third);
+        verify(emitter, times(1)).complete();
+    }
+
+    @Test
+    void finish_ShouldCompleteAfterPendingEvents() throws Exception {
+        // Arrange
+        SseConnection connection = new SseConnection("room123", emitter, Runnable::run, 10);
+        connection.offer(SseFrame.event("presence", 0, "{\"count\":3}".getBytes(StandardCharsets.UTF_8)));
+
+        // Act
+        connection.finish();
+
+        // Assert
+        ArgumentCaptor<Object> sent = ArgumentCaptor.forClass(Object.class);
+        InOrder order = inOrder(emitter);
+        order.verify(emitter).send(sent.capture(), eq(MediaType.TEXT_EVENT_STREAM));
+        order.verify(emitter).complete();
+        assertEquals("event: presence\ndata: {\"count\":3}\n\n", new String((byte[]) sent.getValue(), StandardCharsets.UTF_8));
+    }
+
+    private SseFrame event(long id) {
+        return SseFrame.event(null, id, ("{\"id\":" + id + "}").getBytes(StandardCharsets.UTF_8));
+    }
+}